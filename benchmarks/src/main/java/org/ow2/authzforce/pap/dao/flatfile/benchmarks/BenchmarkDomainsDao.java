@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.ow2.authzforce.core.pap.api.dao.DomainDao;
+import org.ow2.authzforce.core.pap.api.dao.DomainDaoClient;
+import org.ow2.authzforce.core.pap.api.dao.PolicyDaoClient;
+import org.ow2.authzforce.core.pap.api.dao.PolicyVersionDaoClient;
+import org.ow2.authzforce.core.pdp.impl.PdpModelHandler;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainDao;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainsDao;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileDAOUtils;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Minimal DAO clients to instantiate {@link FlatFileBasedDomainsDao} in benchmarks
+ */
+public final class BenchmarkDomainsDao
+{
+	/**
+	 * Policy version DAO client
+	 */
+	public static final class PolicyVersionClient implements PolicyVersionDaoClient
+	{
+		private PolicyVersionClient()
+		{
+			// only created by factory
+		}
+	}
+
+	/**
+	 * Policy DAO client
+	 */
+	public static final class PolicyClient implements PolicyDaoClient
+	{
+		private PolicyClient()
+		{
+			// only created by factory
+		}
+	}
+
+	/**
+	 * Domain DAO client
+	 */
+	public static final class DomainClient implements DomainDaoClient<FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient>>
+	{
+		private final FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> dao;
+
+		private DomainClient(final FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> dao)
+		{
+			this.dao = dao;
+		}
+
+		@Override
+		public FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> getDao()
+		{
+			return dao;
+		}
+	}
+
+	/**
+	 * Callback to modify the generated domains before they are loaded
+	 */
+	@FunctionalInterface
+	public interface DomainsInitializer
+	{
+		/**
+		 * Modifies the generated domains
+		 * 
+		 * @param domainsRootDir
+		 *            domains root directory
+		 * @param domainIds
+		 *            generated domain IDs
+		 * @throws IOException
+		 *             error modifying the domains
+		 */
+		void initialize(Path domainsRootDir, List<String> domainIds) throws IOException;
+	}
+
+	/**
+	 * Synthetic repository (domain template and domains) generated in a temporary directory and loaded by a domains DAO. Closing it closes the domains and deletes the directory.
+	 */
+	public static final class Fixture implements AutoCloseable
+	{
+		private final Path tmpDir;
+		private final Path domainsRootDir;
+		private final List<String> domainIds;
+		private final FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao;
+
+		private Fixture(final Path tmpDir, final Path domainsRootDir, final List<String> domainIds, final FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao)
+		{
+			this.tmpDir = tmpDir;
+			this.domainsRootDir = domainsRootDir;
+			this.domainIds = domainIds;
+			this.domainsDao = domainsDao;
+		}
+
+		/**
+		 * Get domains root directory
+		 * 
+		 * @return domains root directory
+		 */
+		public Path getDomainsRootDir()
+		{
+			return domainsRootDir;
+		}
+
+		/**
+		 * Get generated domain IDs
+		 * 
+		 * @return domain IDs
+		 */
+		public List<String> getDomainIds()
+		{
+			return domainIds;
+		}
+
+		/**
+		 * Get domains DAO
+		 * 
+		 * @return domains DAO
+		 */
+		public FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> getDomainsDao()
+		{
+			return domainsDao;
+		}
+
+		/**
+		 * Get DAO of a generated domain
+		 * 
+		 * @param index
+		 *            index of the domain in {@link #getDomainIds()}
+		 * @return domain DAO
+		 * @throws IOException
+		 *             error loading the domain
+		 */
+		public FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> getDomainDao(final int index) throws IOException
+		{
+			return domainsDao.getDomainDaoClient(domainIds.get(index)).getDao();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			domainsDao.closeDomains();
+			FlatFileDAOUtils.deleteDirectory(tmpDir, 6);
+		}
+	}
+
+	private static final PolicyVersionClient POLICY_VERSION_CLIENT = new PolicyVersionClient();
+	private static final PolicyClient POLICY_CLIENT = new PolicyClient();
+
+	private static final PolicyDaoClient.Factory<PolicyVersionClient, PolicyClient> POLICY_CLIENT_FACTORY = new PolicyDaoClient.Factory<PolicyVersionClient, PolicyClient>()
+	{
+
+		@Override
+		public PolicyClient getInstance(final String policyId, final DomainDao<PolicyVersionClient, ?> domainDao)
+		{
+			return POLICY_CLIENT;
+		}
+
+		@Override
+		public PolicyVersionDaoClient.Factory<PolicyVersionClient> getVersionDaoClientFactory()
+		{
+			return (policyId, version, domainDao) -> POLICY_VERSION_CLIENT;
+		}
+	};
+
+	private static final DomainDaoClient.Factory<PolicyVersionClient, PolicyClient, FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient>, DomainClient> DOMAIN_CLIENT_FACTORY = new DomainDaoClient.Factory<PolicyVersionClient, PolicyClient, FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient>, DomainClient>()
+	{
+
+		@Override
+		public DomainClient getInstance(final String domainId, final DomainDaoClient.Builder<FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient>> domainDaoBuilder) throws IOException
+		{
+			return new DomainClient(domainDaoBuilder.build());
+		}
+
+		@Override
+		public PolicyDaoClient.Factory<PolicyVersionClient, PolicyClient> getPolicyDaoClientFactory()
+		{
+			return POLICY_CLIENT_FACTORY;
+		}
+	};
+
+	private BenchmarkDomainsDao()
+	{
+		// hide constructor
+	}
+
+	/**
+	 * Creates a domains DAO (PAP enabled, XACML/JSON enabled, no periodic sync, no spare domain)
+	 * 
+	 * @param domainsRootDir
+	 *            domains root directory
+	 * @param domainTmplDir
+	 *            domain template directory
+	 * @return domains DAO
+	 * @throws IOException
+	 *             error loading the domains
+	 */
+	public static FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> newInstance(final Path domainsRootDir, final Path domainTmplDir) throws IOException
+	{
+		return newInstance(domainsRootDir, domainTmplDir, -1);
+	}
+
+	/**
+	 * Creates a domains DAO (PAP enabled, XACML/JSON enabled, no spare domain)
+	 * 
+	 * @param domainsRootDir
+	 *            domains root directory
+	 * @param domainTmplDir
+	 *            domain template directory
+	 * @param domainsSyncIntervalSec
+	 *            domains synchronization interval (seconds), &lt;= 0 to disable
+	 * @return domains DAO
+	 * @throws IOException
+	 *             error loading the domains
+	 */
+	public static FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> newInstance(final Path domainsRootDir, final Path domainTmplDir, final int domainsSyncIntervalSec)
+	        throws IOException
+	{
+		final PdpModelHandler pdpModelHandler = new PdpModelHandler(PdpModelHandler.DEFAULT_CATALOG_LOCATION, "classpath:org.ow2.authzforce.pap.dao.flatfile.pdp-ext.xsd");
+		return new FlatFileBasedDomainsDao<>(new FileSystemResource(domainsRootDir.toFile()), new FileSystemResource(domainTmplDir.toFile()), domainsSyncIntervalSec, pdpModelHandler, false, true,
+		        true, DOMAIN_CLIENT_FACTORY);
+	}
+
+	/**
+	 * Generates a synthetic repository in a new temporary directory and loads it (see {@link #newInstance(Path, Path)})
+	 * 
+	 * @param repo
+	 *            synthetic repository generator
+	 * @param domainCount
+	 *            number of domains
+	 * @return fixture, to be closed after use
+	 * @throws IOException
+	 *             error generating/loading the domains
+	 */
+	public static Fixture newFixture(final SyntheticDomainRepository repo, final int domainCount) throws IOException
+	{
+		return newFixture(repo, domainCount, null);
+	}
+
+	/**
+	 * Same as {@link #newFixture(SyntheticDomainRepository, int)} with a callback to modify the generated domains before they are loaded
+	 * 
+	 * @param repo
+	 *            synthetic repository generator
+	 * @param domainCount
+	 *            number of domains
+	 * @param domainsInitializer
+	 *            called after the domains are generated and before they are loaded; null if none
+	 * @return fixture, to be closed after use
+	 * @throws IOException
+	 *             error generating/loading the domains
+	 */
+	public static Fixture newFixture(final SyntheticDomainRepository repo, final int domainCount, final DomainsInitializer domainsInitializer) throws IOException
+	{
+		final Path tmpDir = Files.createTempDirectory("authzforce-benchmark-");
+		try
+		{
+			final Path domainTmplDir = tmpDir.resolve("domain.tmpl");
+			repo.writeDomain(domainTmplDir, null);
+			final Path domainsRootDir = tmpDir.resolve("domains");
+			final List<String> domainIds = repo.writeDomains(domainsRootDir, domainCount);
+			if (domainsInitializer != null)
+			{
+				domainsInitializer.initialize(domainsRootDir, domainIds);
+			}
+
+			return new Fixture(tmpDir, domainsRootDir, domainIds, newInstance(domainsRootDir, domainTmplDir));
+		}
+		catch (final IOException | RuntimeException e)
+		{
+			try
+			{
+				FlatFileDAOUtils.deleteDirectory(tmpDir, 6);
+			}
+			catch (final IOException | RuntimeException deletionError)
+			{
+				e.addSuppressed(deletionError);
+			}
+
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command-line options in the form {@code name=value}
+ */
+final class CommandLineOptions
+{
+	private final Map<String, String> values = new LinkedHashMap<>();
+	private final Set<String> usedNames = new HashSet<>();
+
+	/**
+	 * Parses command-line arguments
+	 * 
+	 * @param args
+	 *            arguments, each one in the form {@code name=value}
+	 * @throws IllegalArgumentException
+	 *             invalid argument
+	 */
+	CommandLineOptions(final String[] args) throws IllegalArgumentException
+	{
+		for (final String arg : args)
+		{
+			final int separatorIndex = arg.indexOf('=');
+			if (separatorIndex < 1)
+			{
+				throw new IllegalArgumentException("Invalid argument: '" + arg + "' (expected: name=value)");
+			}
+
+			values.put(arg.substring(0, separatorIndex), arg.substring(separatorIndex + 1));
+		}
+	}
+
+	/**
+	 * Get option value
+	 * 
+	 * @param name
+	 *            option name
+	 * @param defaultValue
+	 *            default value
+	 * @return option value, or {@code defaultValue} if the option is not set
+	 */
+	String getString(final String name, final String defaultValue)
+	{
+		usedNames.add(name);
+		final String value = values.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Get integer option value
+	 * 
+	 * @param name
+	 *            option name
+	 * @param defaultValue
+	 *            default value
+	 * @return option value, or {@code defaultValue} if the option is not set
+	 * @throws IllegalArgumentException
+	 *             invalid integer
+	 */
+	int getInt(final String name, final int defaultValue) throws IllegalArgumentException
+	{
+		final String value = getString(name, null);
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch (final NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid value of option '" + name + "': '" + value + "' (expected: integer)", e);
+		}
+	}
+
+	/**
+	 * Get decimal option value
+	 * 
+	 * @param name
+	 *            option name
+	 * @param defaultValue
+	 *            default value
+	 * @return option value, or {@code defaultValue} if the option is not set
+	 * @throws IllegalArgumentException
+	 *             invalid number
+	 */
+	double getDouble(final String name, final double defaultValue) throws IllegalArgumentException
+	{
+		final String value = getString(name, null);
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (final NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid value of option '" + name + "': '" + value + "' (expected: number)", e);
+		}
+	}
+
+	/**
+	 * Get boolean option value
+	 * 
+	 * @param name
+	 *            option name
+	 * @param defaultValue
+	 *            default value
+	 * @return option value, or {@code defaultValue} if the option is not set
+	 */
+	boolean getBoolean(final String name, final boolean defaultValue)
+	{
+		final String value = getString(name, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Checks that all options set on the command line are known, i.e. have been read with one of the getters
+	 * 
+	 * @throws IllegalArgumentException
+	 *             unknown option
+	 */
+	void checkNoUnknownOption() throws IllegalArgumentException
+	{
+		for (final String name : values.keySet())
+		{
+			if (!usedNames.contains(name))
+			{
+				throw new IllegalArgumentException("Unknown option: '" + name + "'");
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainsDao;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.DomainClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyVersionClient;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Response;
+
+/**
+ * Benchmark of {@code evaluatePolicyDecision(...)} (XACML/XML and XACML/JSON), including the domain lookup, on synthetic domains (see {@link SyntheticDomainRepository}). Requests alternate between
+ * Permit (resource permitted by one of the policies) and Deny (all policies evaluated), and between domains.
+ * <p>
+ * The {@code *Concurrent} benchmarks run with as many threads as available processors, to measure contention (domain lookup, PDP adapters); other thread counts may be set with JMH option
+ * {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecisionEvaluationBenchmark
+{
+	/**
+	 * Number of PolicySets per domain
+	 */
+	@Param({ "1", "10", "100" })
+	public int policyCount;
+
+	/**
+	 * Length of PolicySetIdReference chains
+	 */
+	@Param({ "1", "5" })
+	public int policyRefDepth;
+
+	/**
+	 * Number of domains
+	 */
+	@Param({ "1", "100" })
+	public int domainCount;
+
+	private BenchmarkDomainsDao.Fixture fixture;
+	private FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao;
+	private String[] domainIds;
+	private Request[] xacmlXmlRequests;
+	private JSONObject[] xacmlJsonRequests;
+
+	/**
+	 * Per-thread position in the request/domain sequence
+	 */
+	@State(Scope.Thread)
+	public static class Cursor
+	{
+		private int requestIndex = 0;
+		private int domainIndex = 0;
+
+		private int nextRequestIndex(final int requestCount)
+		{
+			final int i = requestIndex;
+			requestIndex = i + 1 == requestCount ? 0 : i + 1;
+			return i;
+		}
+
+		private int nextDomainIndex(final int domainCount)
+		{
+			final int i = domainIndex;
+			domainIndex = i + 1 == domainCount ? 0 : i + 1;
+			return i;
+		}
+	}
+
+	/**
+	 * Generates the domains and loads them
+	 * 
+	 * @throws IOException
+	 *             error generating/loading the domains
+	 * @throws JAXBException
+	 *             error creating the requests
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, JAXBException
+	{
+		fixture = BenchmarkDomainsDao.newFixture(new SyntheticDomainRepository(policyCount, policyRefDepth), domainCount);
+		domainIds = fixture.getDomainIds().toArray(new String[0]);
+		domainsDao = fixture.getDomainsDao();
+
+		/*
+		 * Permit for each policy, interleaved with Deny
+		 */
+		xacmlXmlRequests = new Request[2 * policyCount];
+		xacmlJsonRequests = new JSONObject[2 * policyCount];
+		for (int i = 0; i < policyCount; i++)
+		{
+			xacmlXmlRequests[2 * i] = SyntheticDecisionRequests.getXacmlXmlRequest(SyntheticDomainRepository.getResourceId(i));
+			xacmlXmlRequests[2 * i + 1] = SyntheticDecisionRequests.getXacmlXmlRequest(SyntheticDomainRepository.UNKNOWN_RESOURCE_ID);
+			xacmlJsonRequests[2 * i] = SyntheticDecisionRequests.getXacmlJsonRequest(SyntheticDomainRepository.getResourceId(i));
+			xacmlJsonRequests[2 * i + 1] = SyntheticDecisionRequests.getXacmlJsonRequest(SyntheticDomainRepository.UNKNOWN_RESOURCE_ID);
+		}
+	}
+
+	/**
+	 * Closes the domains and deletes the generated files
+	 * 
+	 * @throws IOException
+	 *             error deleting the files
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		fixture.close();
+	}
+
+	private Response evaluateXacmlXml(final Cursor cursor) throws IOException
+	{
+		return domainsDao.getDomainDaoClient(domainIds[cursor.nextDomainIndex(domainIds.length)]).getDao()
+		        .evaluatePolicyDecision(xacmlXmlRequests[cursor.nextRequestIndex(xacmlXmlRequests.length)]);
+	}
+
+	private JSONObject evaluateXacmlJson(final Cursor cursor) throws IOException
+	{
+		return domainsDao.getDomainDaoClient(domainIds[cursor.nextDomainIndex(domainIds.length)]).getDao()
+		        .evaluatePolicyDecision(xacmlJsonRequests[cursor.nextRequestIndex(xacmlJsonRequests.length)]);
+	}
+
+	/**
+	 * XACML/XML decision, single thread
+	 * 
+	 * @param cursor
+	 *            per-thread cursor
+	 * @return response
+	 * @throws IOException
+	 *             domain lookup error
+	 */
+	@Benchmark
+	public Response xacmlXml(final Cursor cursor) throws IOException
+	{
+		return evaluateXacmlXml(cursor);
+	}
+
+	/**
+	 * XACML/XML decision, as many threads as processors
+	 * 
+	 * @param cursor
+	 *            per-thread cursor
+	 * @return response
+	 * @throws IOException
+	 *             domain lookup error
+	 */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Response xacmlXmlConcurrent(final Cursor cursor) throws IOException
+	{
+		return evaluateXacmlXml(cursor);
+	}
+
+	/**
+	 * XACML/JSON decision, single thread
+	 * 
+	 * @param cursor
+	 *            per-thread cursor
+	 * @return response
+	 * @throws IOException
+	 *             domain lookup error
+	 */
+	@Benchmark
+	public JSONObject xacmlJson(final Cursor cursor) throws IOException
+	{
+		return evaluateXacmlJson(cursor);
+	}
+
+	/**
+	 * XACML/JSON decision, as many threads as processors
+	 * 
+	 * @param cursor
+	 *            per-thread cursor
+	 * @return response
+	 * @throws IOException
+	 *             domain lookup error
+	 */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public JSONObject xacmlJsonConcurrent(final Cursor cursor) throws IOException
+	{
+		return evaluateXacmlJson(cursor);
+	}
+}
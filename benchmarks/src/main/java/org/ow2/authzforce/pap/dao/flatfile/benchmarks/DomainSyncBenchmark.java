@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainsDao;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.DomainClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyVersionClient;
+
+/**
+ * Benchmark of a full synchronization tick, i.e. {@code sync()} of every domain as done by the periodic synchronization, over synthetic domains (see {@link SyntheticDomainRepository}). Before each
+ * tick, the applicable policies of a given percentage of the domains are "touched" (last modification time updated), so that their PDPs are reloaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DomainSyncBenchmark
+{
+	/**
+	 * Number of domains
+	 */
+	@Param({ "10", "100", "1000" })
+	public int domainCount;
+
+	/**
+	 * Number of PolicySets per domain
+	 */
+	@Param({ "1", "10" })
+	public int policyCount;
+
+	/**
+	 * Percentage of domains modified before each tick
+	 */
+	@Param({ "0", "10" })
+	public int modifiedDomainPercent;
+
+	private BenchmarkDomainsDao.Fixture fixture;
+	private Path domainsRootDir;
+	private FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao;
+	private List<String> domainIds;
+	private int nextModifiedDomainIndex;
+
+	/**
+	 * Generates the domains and loads them
+	 * 
+	 * @throws IOException
+	 *             error generating/loading the domains
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		fixture = BenchmarkDomainsDao.newFixture(new SyntheticDomainRepository(policyCount, 1), domainCount);
+		domainsRootDir = fixture.getDomainsRootDir();
+		domainIds = fixture.getDomainIds();
+		domainsDao = fixture.getDomainsDao();
+		nextModifiedDomainIndex = 0;
+	}
+
+	/**
+	 * Closes the domains and deletes the generated files
+	 * 
+	 * @throws IOException
+	 *             error deleting the files
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		fixture.close();
+	}
+
+	/**
+	 * Touches the applicable policy directory of the next {@code modifiedDomainPercent}% of domains (round-robin)
+	 * 
+	 * @throws IOException
+	 *             error updating the files
+	 */
+	@Setup(Level.Invocation)
+	public void modifyDomains() throws IOException
+	{
+		final int modifiedDomainCount = domainCount * modifiedDomainPercent / 100;
+		final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+		for (int i = 0; i < modifiedDomainCount; i++)
+		{
+			final Path domainDir = domainsRootDir.resolve(domainIds.get(nextModifiedDomainIndex));
+			Files.setLastModifiedTime(SyntheticDomainRepository.getPolicyDirectory(domainDir, SyntheticDomainRepository.getPolicyId(0)), now);
+			nextModifiedDomainIndex = (nextModifiedDomainIndex + 1) % domainCount;
+		}
+	}
+
+	/**
+	 * Synchronizes all domains
+	 * 
+	 * @return number of domains synchronized
+	 * @throws IOException
+	 *             error synchronizing a domain
+	 */
+	@Benchmark
+	public int syncAllDomains() throws IOException
+	{
+		int syncedDomainCount = 0;
+		for (final String domainId : domainIds)
+		{
+			if (domainsDao.getDomainDaoClient(domainId).getDao().sync() != null)
+			{
+				syncedDomainCount++;
+			}
+		}
+
+		return syncedDomainCount;
+	}
+}
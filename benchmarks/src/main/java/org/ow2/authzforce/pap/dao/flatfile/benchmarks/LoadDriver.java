@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.bind.JAXBException;
+
+import org.json.JSONObject;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainsDao;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileDAOUtils;
+import org.ow2.authzforce.pap.dao.flatfile.LatencyHistogram;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.DomainClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyVersionClient;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.PolicySet;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+
+/**
+ * Multi-threaded load driver running a mix of decision evaluations (XACML/XML and XACML/JSON) and PAP writes ({@code addPolicy()} of a new version of an applicable policy, therefore with PDP
+ * reload) against a {@link FlatFileBasedDomainsDao} in-process, on a synthetic repository (see {@link SyntheticDomainRepository}), and reporting throughput and latency percentiles per operation.
+ * Usage:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar org.ow2.authzforce.pap.dao.flatfile.benchmarks.LoadDriver [name=value...]
+ * </pre>
+ * 
+ * Options (default value):
+ * <ul>
+ * <li>{@code dir} (none): directory of a repository generated by {@link RepositoryGenerator} with the same options; if the directory does not contain any, the repository is generated there; if
+ * undefined, the repository is generated in a temporary directory deleted at the end. Beware that PAP writes modify the repository.</li>
+ * <li>the options of {@link RepositoryGenerator} except {@code dir}</li>
+ * <li>{@code threads} (number of available processors): number of client threads</li>
+ * <li>{@code warmupSec} (10): duration of the warmup phase (not measured)</li>
+ * <li>{@code durationSec} (30): duration of the measurement phase</li>
+ * <li>{@code writePercent} (1): percentage of operations that are PAP writes</li>
+ * <li>{@code jsonPercent} (0): percentage of decision evaluations that are XACML/JSON requests (the others are XACML/XML)</li>
+ * <li>{@code syncIntervalSec} (-1): domains synchronization interval (seconds), &lt;= 0 to disable</li>
+ * </ul>
+ * Decision requests are for a random domain and a random resource among the ones permitted by the domain's policies (Permit) plus one more (Deny).
+ */
+public final class LoadDriver
+{
+	private enum Operation
+	{
+		XACML_XML, XACML_JSON, ADD_POLICY
+	}
+
+	/**
+	 * Statistics of a phase (warmup or measurement)
+	 */
+	private static final class Phase
+	{
+		private final String name;
+		private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+		private final LongAdder[] errorCounts = new LongAdder[Operation.values().length];
+		private final long startNanos = System.nanoTime();
+		private volatile long endNanos = 0;
+
+		private Phase(final String name)
+		{
+			this.name = name;
+			for (int i = 0; i < latencies.length; i++)
+			{
+				latencies[i] = new LatencyHistogram();
+				errorCounts[i] = new LongAdder();
+			}
+		}
+
+		private void printReport()
+		{
+			final double durationSec = (endNanos - startNanos) / 1e9;
+			System.out.println();
+			System.out.printf(Locale.ROOT, "%s: %.1f s%n", name, durationSec);
+			System.out.printf(Locale.ROOT, "%-12s %10s %8s %12s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "errors", "ops/s", "mean(us)", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)",
+			        "max(us)");
+			long totalCount = 0;
+			for (final Operation op : Operation.values())
+			{
+				final LatencyHistogram histogram = latencies[op.ordinal()];
+				final long count = histogram.getCount();
+				totalCount += count;
+				System.out.printf(Locale.ROOT, "%-12s %10d %8d %12.1f %10.1f %10d %10d %10d %10d %10d%n", op.name().toLowerCase(Locale.ROOT), count, errorCounts[op.ordinal()].sum(), count / durationSec,
+				        histogram.getMeanNanos() / 1000, histogram.getValueAtPercentile(50) / 1000, histogram.getValueAtPercentile(90) / 1000, histogram.getValueAtPercentile(99) / 1000,
+				        histogram.getValueAtPercentile(99.9) / 1000, histogram.getMaxNanos() / 1000);
+			}
+
+			System.out.printf(Locale.ROOT, "%-12s %10d %8s %12.1f%n", "total", totalCount, "", totalCount / durationSec);
+		}
+	}
+
+	private final FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao;
+	private final String[] domainIds;
+	private final Request[] xacmlXmlRequests;
+	private final JSONObject[] xacmlJsonRequests;
+	private final PolicySet[] policySetTemplates;
+	private final double writeRatio;
+	private final double jsonRatio;
+	private final AtomicLong nextPolicyVersionIndex = new AtomicLong();
+	/*
+	 * Whether an error has been logged already, by operation type (only the first one is logged, the others are counted)
+	 */
+	private final AtomicBoolean[] errorLogged = new AtomicBoolean[Operation.values().length];
+	private volatile Phase currentPhase;
+	private volatile boolean stopped = false;
+
+	private LoadDriver(final FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao, final SyntheticDomainRepository repo, final double writePercent,
+	        final double jsonPercent) throws IOException, JAXBException
+	{
+		this.domainsDao = domainsDao;
+		this.domainIds = domainsDao.getDomainIdentifiers(null).toArray(new String[0]);
+		if (domainIds.length == 0)
+		{
+			throw new IllegalArgumentException("No domain in the repository");
+		}
+
+		final int policyCount = repo.getPolicyCount();
+		this.xacmlXmlRequests = new Request[policyCount + 1];
+		this.xacmlJsonRequests = new JSONObject[policyCount + 1];
+		for (int i = 0; i <= policyCount; i++)
+		{
+			final String resourceId = i == policyCount ? SyntheticDomainRepository.UNKNOWN_RESOURCE_ID : SyntheticDomainRepository.getResourceId(i);
+			xacmlXmlRequests[i] = SyntheticDecisionRequests.getXacmlXmlRequest(resourceId);
+			xacmlJsonRequests[i] = SyntheticDecisionRequests.getXacmlJsonRequest(resourceId);
+		}
+
+		this.policySetTemplates = new PolicySet[policyCount];
+		for (int i = 0; i < policyCount; i++)
+		{
+			policySetTemplates[i] = repo.getJaxbPolicySet(i, SyntheticDomainRepository.getPolicyVersion(0));
+		}
+
+		this.writeRatio = policyCount == 0 ? 0 : writePercent / 100;
+		this.jsonRatio = jsonPercent / 100;
+		for (int i = 0; i < errorLogged.length; i++)
+		{
+			errorLogged[i] = new AtomicBoolean(false);
+		}
+	}
+
+	private void runOperation(final Operation op, final ThreadLocalRandom random) throws Exception
+	{
+		final String domainId = domainIds[random.nextInt(domainIds.length)];
+		final DomainClient domain = domainsDao.getDomainDaoClient(domainId);
+		if (domain == null)
+		{
+			throw new IllegalStateException("Domain not found: " + domainId);
+		}
+
+		switch (op)
+		{
+			case XACML_XML:
+				domain.getDao().evaluatePolicyDecision(xacmlXmlRequests[random.nextInt(xacmlXmlRequests.length)]);
+				break;
+			case XACML_JSON:
+				domain.getDao().evaluatePolicyDecision(xacmlJsonRequests[random.nextInt(xacmlJsonRequests.length)]);
+				break;
+			default:
+				/*
+				 * New latest version (greater than the generated ones) of an applicable policy
+				 */
+				domain.getDao().addPolicy(SyntheticDomainRepository.withVersion(policySetTemplates[random.nextInt(policySetTemplates.length)], "2." + nextPolicyVersionIndex.getAndIncrement()));
+		}
+	}
+
+	private void runClient()
+	{
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (!stopped)
+		{
+			final Phase phase = currentPhase;
+			final Operation op = random.nextDouble() < writeRatio ? Operation.ADD_POLICY : random.nextDouble() < jsonRatio ? Operation.XACML_JSON : Operation.XACML_XML;
+			final long startNanos = System.nanoTime();
+			try
+			{
+				runOperation(op, random);
+			}
+			catch (final Exception e)
+			{
+				phase.errorCounts[op.ordinal()].increment();
+				if (errorLogged[op.ordinal()].compareAndSet(false, true))
+				{
+					System.err.println("First " + op.name().toLowerCase(Locale.ROOT) + " error (next ones are only counted):");
+					e.printStackTrace();
+				}
+
+				continue;
+			}
+
+			phase.latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+		}
+	}
+
+	private void run(final int threadCount, final int warmupSec, final int durationSec) throws InterruptedException
+	{
+		currentPhase = new Phase("Warmup");
+		final List<Thread> clients = new ArrayList<>(threadCount);
+		for (int i = 0; i < threadCount; i++)
+		{
+			final Thread client = new Thread(this::runClient, "load-driver-client-" + i);
+			client.setDaemon(true);
+			clients.add(client);
+			client.start();
+		}
+
+		TimeUnit.SECONDS.sleep(warmupSec);
+		final Phase warmup = currentPhase;
+		currentPhase = new Phase("Measurement");
+		warmup.endNanos = System.nanoTime();
+		warmup.printReport();
+		TimeUnit.SECONDS.sleep(durationSec);
+		stopped = true;
+		final Phase measurement = currentPhase;
+		measurement.endNanos = System.nanoTime();
+		for (final Thread client : clients)
+		{
+			client.join();
+		}
+
+		measurement.printReport();
+	}
+
+	/**
+	 * Command-line entry point
+	 * 
+	 * @param args
+	 *            options, in the form {@code name=value}
+	 * @throws Exception
+	 *             error generating/loading the repository or running the load
+	 */
+	public static void main(final String[] args) throws Exception
+	{
+		final String dirOption;
+		final SyntheticDomainRepository repo;
+		final int domainCount;
+		final int threadCount;
+		final int warmupSec;
+		final int durationSec;
+		final double writePercent;
+		final double jsonPercent;
+		final int syncIntervalSec;
+		try
+		{
+			final CommandLineOptions options = new CommandLineOptions(args);
+			dirOption = options.getString("dir", null);
+			repo = RepositoryGenerator.newRepository(options);
+			domainCount = options.getInt("domainCount", 1);
+			threadCount = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+			warmupSec = options.getInt("warmupSec", 10);
+			durationSec = options.getInt("durationSec", 30);
+			writePercent = options.getDouble("writePercent", 1);
+			jsonPercent = options.getDouble("jsonPercent", 0);
+			syncIntervalSec = options.getInt("syncIntervalSec", -1);
+			options.checkNoUnknownOption();
+			if (threadCount < 1 || warmupSec < 0 || durationSec < 1 || writePercent < 0 || writePercent > 100 || jsonPercent < 0 || jsonPercent > 100)
+			{
+				throw new IllegalArgumentException("Invalid threads, warmupSec, durationSec, writePercent or jsonPercent");
+			}
+		}
+		catch (final IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println("Usage: " + LoadDriver.class.getName() + " [name=value...] (see Javadoc for the list of options)");
+			System.exit(1);
+			return;
+		}
+
+		final Path dir = dirOption == null ? Files.createTempDirectory("authzforce-load-") : Paths.get(dirOption);
+		try
+		{
+			if (Files.exists(dir.resolve(RepositoryGenerator.DOMAINS_ROOT_DIR_NAME)))
+			{
+				System.out.println("Using existing repository: " + dir.resolve(RepositoryGenerator.DOMAINS_ROOT_DIR_NAME));
+			}
+			else
+			{
+				System.out.println("Generating repository (" + domainCount + " domains) in " + dir.resolve(RepositoryGenerator.DOMAINS_ROOT_DIR_NAME));
+				RepositoryGenerator.generate(dir, repo, domainCount);
+			}
+
+			final long loadStartTime = System.nanoTime();
+			final FlatFileBasedDomainsDao<PolicyVersionClient, PolicyClient, DomainClient> domainsDao = BenchmarkDomainsDao.newInstance(dir.resolve(RepositoryGenerator.DOMAINS_ROOT_DIR_NAME),
+			        dir.resolve(RepositoryGenerator.DOMAIN_TEMPLATE_DIR_NAME), syncIntervalSec);
+			try
+			{
+				final LoadDriver driver = new LoadDriver(domainsDao, repo, writePercent, jsonPercent);
+				System.out.println("Loaded " + driver.domainIds.length + " domains in " + (System.nanoTime() - loadStartTime) / 1_000_000 + " ms; running " + threadCount + " client threads ("
+				        + warmupSec + " s warmup, " + durationSec + " s measurement)");
+				driver.run(threadCount, warmupSec, durationSec);
+			}
+			finally
+			{
+				domainsDao.closeDomains();
+			}
+		}
+		finally
+		{
+			if (dirOption == null)
+			{
+				FlatFileDAOUtils.deleteDirectory(dir, 6);
+			}
+		}
+	}
+}
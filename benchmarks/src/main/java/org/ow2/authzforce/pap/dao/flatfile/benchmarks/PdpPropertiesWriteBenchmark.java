@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.authzforce.core.pap.api.dao.PdpFeature;
+import org.ow2.authzforce.core.pap.api.dao.ReadablePdpProperties;
+import org.ow2.authzforce.core.pap.api.dao.WritablePdpProperties;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainDao;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyVersionClient;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.IdReferenceType;
+
+/**
+ * Benchmark of {@code setOtherPdpProperties()} (PDP configuration change, incl. PDP reload) in a synthetic domain (see {@link SyntheticDomainRepository})
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PdpPropertiesWriteBenchmark
+{
+	/**
+	 * Number of (applicable) PolicySets in the domain
+	 */
+	@Param({ "1", "10", "100" })
+	public int policyCount;
+
+	private BenchmarkDomainsDao.Fixture fixture;
+	private FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> domainDao;
+	private WritablePdpProperties pdpProperties;
+
+	/**
+	 * Generates the domain and loads it
+	 * 
+	 * @throws IOException
+	 *             error generating/loading the domain
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		fixture = BenchmarkDomainsDao.newFixture(new SyntheticDomainRepository(policyCount, 1), 1);
+		domainDao = fixture.getDomainDao(0);
+		final IdReferenceType rootPolicyRef = new IdReferenceType(SyntheticDomainRepository.ROOT_POLICY_ID, null, null, null);
+		pdpProperties = new WritablePdpProperties()
+		{
+
+			@Override
+			public IdReferenceType getRootPolicyRefExpression()
+			{
+				return rootPolicyRef;
+			}
+
+			@Override
+			public List<PdpFeature> getFeatures()
+			{
+				return Collections.emptyList();
+			}
+		};
+	}
+
+	/**
+	 * Closes the domain and deletes the generated files
+	 * 
+	 * @throws IOException
+	 *             error deleting the files
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		fixture.close();
+	}
+
+	/**
+	 * Sets the PDP properties (same root policy, default features), i.e. saves the PDP configuration and reloads the PDP
+	 * 
+	 * @return new PDP properties
+	 * @throws IOException
+	 *             error saving the PDP configuration
+	 */
+	@Benchmark
+	public ReadablePdpProperties setOtherPdpProperties() throws IOException
+	{
+		return domainDao.setOtherPdpProperties(pdpProperties);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+import org.ow2.authzforce.core.pdp.impl.policy.PolicyVersions;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileDAOUtils;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileDAOUtils.SuffixMatchingDirectoryStreamFilter;
+
+/**
+ * Benchmark of policy version listing in policy directories of various sizes: {@link FlatFileDAOUtils#getPolicyVersions(Path, SuffixMatchingDirectoryStreamFilter)} and
+ * {@link FlatFileDAOUtils#getLatestPolicyVersion(Path, SuffixMatchingDirectoryStreamFilter)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PolicyVersionListingBenchmark
+{
+	private static final SuffixMatchingDirectoryStreamFilter POLICY_FILE_FILTER = new SuffixMatchingDirectoryStreamFilter(".xml");
+
+	/**
+	 * Number of versions in the policy directory
+	 */
+	@Param({ "10", "100", "1000", "10000" })
+	public int versionCount;
+
+	private Path tmpDir;
+	private Path policyDir;
+
+	/**
+	 * Generates the policy directory
+	 * 
+	 * @throws IOException
+	 *             error generating the files
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		tmpDir = Files.createTempDirectory("authzforce-benchmark-");
+		final SyntheticDomainRepository repo = new SyntheticDomainRepository(1, 1, versionCount, 0, false);
+		repo.writeDomain(tmpDir, null);
+		policyDir = SyntheticDomainRepository.getPolicyDirectory(tmpDir, SyntheticDomainRepository.getPolicyId(0));
+	}
+
+	/**
+	 * Deletes the generated files
+	 * 
+	 * @throws IOException
+	 *             error deleting the files
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		FlatFileDAOUtils.deleteDirectory(tmpDir, 4);
+	}
+
+	/**
+	 * Lists all versions
+	 * 
+	 * @return versions
+	 * @throws IOException
+	 *             error listing the files
+	 */
+	@Benchmark
+	public PolicyVersions<Path> getPolicyVersions() throws IOException
+	{
+		return FlatFileDAOUtils.getPolicyVersions(policyDir, POLICY_FILE_FILTER);
+	}
+
+	/**
+	 * Gets the latest version
+	 * 
+	 * @return latest version
+	 * @throws IOException
+	 *             error listing the files
+	 */
+	@Benchmark
+	public Entry<PolicyVersion, Path> getLatestPolicyVersion() throws IOException
+	{
+		return FlatFileDAOUtils.getLatestPolicyVersion(policyDir, POLICY_FILE_FILTER);
+	}
+}
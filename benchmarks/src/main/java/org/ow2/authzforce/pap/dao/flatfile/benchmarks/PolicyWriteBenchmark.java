@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.authzforce.core.pap.api.dao.TooManyPoliciesException;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainDao;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyVersionClient;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.PolicySet;
+
+/**
+ * Benchmark of policy writes: {@code addPolicy()} and {@code removePolicyVersion()} in a synthetic domain (see {@link SyntheticDomainRepository}), with or without version rolling, on a policy that is
+ * applicable (referenced from the root policy, so the PDP is reloaded) or not. The domain is generated again for each iteration, so that the policy directory size is the same at the beginning of
+ * each iteration; without version rolling, each {@code addPolicy()} adds one more version to the directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PolicyWriteBenchmark
+{
+	private static final int POLICY_COUNT = 10;
+
+	/**
+	 * Domain property 'versionRollingEnabled': if true, 'maxVersionCountPerPolicy' is set to {@code versionCountPerPolicy + 1}, so that - once the first version is added - each added version removes the
+	 * oldest
+	 */
+	@Param({ "true", "false" })
+	public boolean versionRollingEnabled;
+
+	/**
+	 * True iff the written policy is applicable (the PDP is reloaded when the policy changes)
+	 */
+	@Param({ "true", "false" })
+	public boolean pdpReload;
+
+	/**
+	 * Number of versions of each policy initially
+	 */
+	@Param({ "10", "100" })
+	public int versionCountPerPolicy;
+
+	private BenchmarkDomainsDao.Fixture fixture;
+	private FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> domainDao;
+	private PolicySet policySetTemplate;
+	private int nextVersionIndex;
+
+	/**
+	 * Generates the domain and loads it
+	 * 
+	 * @throws IOException
+	 *             error generating/loading the domain
+	 * @throws JAXBException
+	 *             error creating the PolicySet
+	 */
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException, JAXBException
+	{
+		final SyntheticDomainRepository repo = new SyntheticDomainRepository(POLICY_COUNT, 1, versionCountPerPolicy, versionRollingEnabled ? versionCountPerPolicy + 1 : 0, versionRollingEnabled);
+		/*
+		 * Policy number POLICY_COUNT is not referenced by the root policy, i.e. not applicable
+		 */
+		final int policyIndex = pdpReload ? 0 : POLICY_COUNT;
+		fixture = BenchmarkDomainsDao.newFixture(repo, 1, (domainsRootDir, domainIds) -> repo.writePolicyVersions(domainsRootDir.resolve(domainIds.get(0)), POLICY_COUNT));
+		domainDao = fixture.getDomainDao(0);
+		policySetTemplate = repo.getJaxbPolicySet(policyIndex, SyntheticDomainRepository.getPolicyVersion(0));
+		nextVersionIndex = 0;
+	}
+
+	/**
+	 * Closes the domain and deletes the generated files
+	 * 
+	 * @throws IOException
+	 *             error deleting the files
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException
+	{
+		fixture.close();
+	}
+
+	private PolicySet addPolicyVersion(final String version) throws IOException, TooManyPoliciesException
+	{
+		final PolicySet policySet = SyntheticDomainRepository.withVersion(policySetTemplate, version);
+		domainDao.addPolicy(policySet);
+		return policySet;
+	}
+
+	/**
+	 * Version added to the policy before each invocation of {@link PolicyWriteBenchmark#removePolicyVersion(AddedPolicyVersion)}
+	 */
+	@State(Scope.Thread)
+	public static class AddedPolicyVersion
+	{
+		private PolicyVersion version;
+
+		/**
+		 * Adds a new version of the policy, older than the generated ones, so that it is never used by the PDP and may be removed
+		 * 
+		 * @param benchmark
+		 *            benchmark state
+		 * @throws IOException
+		 *             error adding the policy
+		 * @throws TooManyPoliciesException
+		 *             max number of versions reached (should not happen since the number of versions is constant between invocations)
+		 */
+		@Setup(Level.Invocation)
+		public void addPolicyVersion(final PolicyWriteBenchmark benchmark) throws IOException, TooManyPoliciesException
+		{
+			this.version = new PolicyVersion(benchmark.addPolicyVersion("0." + benchmark.nextVersionIndex++).getVersion());
+		}
+	}
+
+	/**
+	 * Adds a new (latest) version of the policy
+	 * 
+	 * @return added PolicySet
+	 * @throws IOException
+	 *             error adding the policy
+	 * @throws TooManyPoliciesException
+	 *             max number of versions reached (version rolling disabled)
+	 */
+	@Benchmark
+	public PolicySet addPolicy() throws IOException, TooManyPoliciesException
+	{
+		return addPolicyVersion("2." + nextVersionIndex++);
+	}
+
+	/**
+	 * Removes the version of the policy added before the invocation (older than the others)
+	 * 
+	 * @param addedVersion
+	 *            added version
+	 * @return removed PolicySet
+	 * @throws IOException
+	 *             error removing the policy version
+	 */
+	@Benchmark
+	public PolicySet removePolicyVersion(final AddedPolicyVersion addedVersion) throws IOException
+	{
+		return domainDao.removePolicyVersion(policySetTemplate.getPolicySetId(), addedVersion.version);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Command-line tool generating a synthetic domains root directory (see {@link SyntheticDomainRepository}), e.g. to size hardware or to be used by {@link LoadDriver}. Usage:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar org.ow2.authzforce.pap.dao.flatfile.benchmarks.RepositoryGenerator dir=/path/to/dir [name=value...]
+ * </pre>
+ * 
+ * The domains root directory is generated in {@code dir/domains}, the domain template directory (to be used as {@code domainTmpl} of {@code FlatFileBasedDomainsDao}) in {@code dir/domain.tmpl}.
+ * Options (default value):
+ * <ul>
+ * <li>{@code domainCount} (1): number of domains</li>
+ * <li>{@code policyCount} (10): number of PolicySets per domain (besides the root PolicySet)</li>
+ * <li>{@code policyRefDepth} (1): depth of PolicySetIdReference trees from the root PolicySet</li>
+ * <li>{@code policyRefFanOut} (1): number of PolicySetIdReferences in each PolicySet of a tree</li>
+ * <li>{@code versionCountPerPolicy} (1): number of versions of each PolicySet</li>
+ * <li>{@code minPolicyFileSize} (0): minimum size of PolicySet files in bytes</li>
+ * <li>{@code maxVersionCountPerPolicy} (0): domain property 'maxVersionCountPerPolicy', 0 for no limit</li>
+ * <li>{@code versionRollingEnabled} (false): domain property 'versionRollingEnabled'</li>
+ * </ul>
+ */
+public final class RepositoryGenerator
+{
+	/**
+	 * Name of the generated domains root directory
+	 */
+	public static final String DOMAINS_ROOT_DIR_NAME = "domains";
+
+	/**
+	 * Name of the generated domain template directory
+	 */
+	public static final String DOMAIN_TEMPLATE_DIR_NAME = "domain.tmpl";
+
+	private RepositoryGenerator()
+	{
+		// hide constructor
+	}
+
+	/**
+	 * Creates a generator from command-line options (see {@link RepositoryGenerator})
+	 * 
+	 * @param options
+	 *            command-line options
+	 * @return generator
+	 * @throws IllegalArgumentException
+	 *             invalid option
+	 */
+	static SyntheticDomainRepository newRepository(final CommandLineOptions options) throws IllegalArgumentException
+	{
+		return new SyntheticDomainRepository(options.getInt("policyCount", 10), options.getInt("policyRefDepth", 1), options.getInt("policyRefFanOut", 1), options.getInt("versionCountPerPolicy", 1),
+		        options.getInt("minPolicyFileSize", 0), options.getInt("maxVersionCountPerPolicy", 0), options.getBoolean("versionRollingEnabled", false));
+	}
+
+	/**
+	 * Generates the domain template directory ({@code dir/domain.tmpl}) and the domains root directory ({@code dir/domains})
+	 * 
+	 * @param dir
+	 *            output directory
+	 * @param repo
+	 *            generator
+	 * @param domainCount
+	 *            number of domains
+	 * @return domain IDs
+	 * @throws IOException
+	 *             error writing the files
+	 */
+	public static List<String> generate(final Path dir, final SyntheticDomainRepository repo, final int domainCount) throws IOException
+	{
+		repo.writeDomain(dir.resolve(DOMAIN_TEMPLATE_DIR_NAME), null);
+		return repo.writeDomains(dir.resolve(DOMAINS_ROOT_DIR_NAME), domainCount);
+	}
+
+	/**
+	 * Command-line entry point
+	 * 
+	 * @param args
+	 *            options, in the form {@code name=value}
+	 * @throws IOException
+	 *             error writing the files
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		final Path dir;
+		final SyntheticDomainRepository repo;
+		final int domainCount;
+		try
+		{
+			final CommandLineOptions options = new CommandLineOptions(args);
+			final String dirOption = options.getString("dir", null);
+			if (dirOption == null)
+			{
+				throw new IllegalArgumentException("Missing option: 'dir'");
+			}
+
+			dir = Paths.get(dirOption);
+			repo = newRepository(options);
+			domainCount = options.getInt("domainCount", 1);
+			options.checkNoUnknownOption();
+		}
+		catch (final IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println("Usage: " + RepositoryGenerator.class.getName() + " dir=<output directory> [name=value...] (see Javadoc for the list of options)");
+			System.exit(1);
+			return;
+		}
+
+		if (Files.exists(dir.resolve(DOMAINS_ROOT_DIR_NAME)))
+		{
+			System.err.println("Domains root directory already exists: " + dir.resolve(DOMAINS_ROOT_DIR_NAME));
+			System.exit(1);
+			return;
+		}
+
+		final long startTime = System.nanoTime();
+		generate(dir, repo, domainCount);
+		final long fileCount;
+		final long byteCount;
+		try (Stream<Path> files = Files.walk(dir.resolve(DOMAINS_ROOT_DIR_NAME)))
+		{
+			final long[] counts = files.filter(Files::isRegularFile).mapToLong(file -> {
+				try
+				{
+					return Files.size(file);
+				}
+				catch (final IOException e)
+				{
+					return 0;
+				}
+			}).collect(() -> new long[2], (acc, size) -> {
+				acc[0]++;
+				acc[1] += size;
+			}, (acc1, acc2) -> {
+				acc1[0] += acc2[0];
+				acc1[1] += acc2[1];
+			});
+			fileCount = counts[0];
+			byteCount = counts[1];
+		}
+
+		System.out.println("Generated " + domainCount + " domains (" + fileCount + " files, " + byteCount + " bytes) in " + dir.resolve(DOMAINS_ROOT_DIR_NAME) + " in "
+		        + (System.nanoTime() - startTime) / 1_000_000 + " ms; domain template: " + dir.resolve(DOMAIN_TEMPLATE_DIR_NAME));
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.StringReader;
+
+import javax.xml.bind.JAXBException;
+
+import org.json.JSONObject;
+import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+
+/**
+ * Decision requests matching the policies generated by {@link SyntheticDomainRepository}
+ */
+public final class SyntheticDecisionRequests
+{
+	private static final String RESOURCE_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+	private static final String RESOURCE_ID = "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+
+	private SyntheticDecisionRequests()
+	{
+		// hide constructor
+	}
+
+	/**
+	 * Get XACML/XML request document for a given resource
+	 * 
+	 * @param resourceId
+	 *            XACML resource-id
+	 * @return XACML Request
+	 */
+	public static String getXacmlXmlRequestDocument(final String resourceId)
+	{
+		return "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" CombinedDecision=\"false\" ReturnPolicyIdList=\"false\"><Attributes Category=\"" + RESOURCE_CATEGORY
+		        + "\"><Attribute AttributeId=\"" + RESOURCE_ID + "\" IncludeInResult=\"false\"><AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">" + resourceId
+		        + "</AttributeValue></Attribute></Attributes></Request>";
+	}
+
+	/**
+	 * Get XACML/XML request for a given resource
+	 * 
+	 * @param resourceId
+	 *            XACML resource-id
+	 * @return XACML Request
+	 * @throws JAXBException
+	 *             error unmarshalling the request
+	 */
+	public static Request getXacmlXmlRequest(final String resourceId) throws JAXBException
+	{
+		return (Request) Xacml3JaxbHelper.createXacml3Unmarshaller().unmarshal(new StringReader(getXacmlXmlRequestDocument(resourceId)));
+	}
+
+	/**
+	 * Get XACML/JSON request for a given resource
+	 * 
+	 * @param resourceId
+	 *            XACML resource-id
+	 * @return XACML/JSON Request
+	 */
+	public static JSONObject getXacmlJsonRequest(final String resourceId)
+	{
+		return new JSONObject("{\"Request\":{\"Category\":[{\"CategoryId\":\"" + RESOURCE_CATEGORY + "\",\"Attribute\":[{\"AttributeId\":\"" + RESOURCE_ID + "\",\"Value\":\"" + resourceId
+		        + "\"}]}]}}");
+	}
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileDAOUtils;
+import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.PolicySet;
+
+/**
+ * Generator of synthetic domain directories (PDP configuration, domain properties, policies), valid for {@link org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainsDao}.
+ * <p>
+ * Each domain has {@code policyCount} PolicySets (plus the root PolicySet) organized in trees of PolicySetIdReferences of depth {@code policyRefDepth} and fan-out {@code policyRefFanOut} from the
+ * root PolicySet: the root references the top PolicySet of each tree, each PolicySet references (up to) {@code policyRefFanOut} PolicySets of the next level in its tree. With a fan-out of 1 (default),
+ * trees are chains of length {@code policyRefDepth}. PolicySet number {@code i} contains a Policy with a single Rule permitting access to resource {@link #getResourceId(int)}, so a request for this
+ * resource returns Permit, whereas a request for any other resource is evaluated against all PolicySets and returns Deny.
+ * <p>
+ * Each PolicySet has {@code versionCountPerPolicy} versions: {@code 1.0}, {@code 1.1}, etc. PolicySet references do not specify any version, so the latest version applies. PolicySets may be padded
+ * with a Description to reach a minimum file size ({@code minPolicyFileSize}).
+ * <p>
+ * See {@link RepositoryGenerator} to generate a repository from the command line.
+ */
+public final class SyntheticDomainRepository
+{
+	/**
+	 * ID of the root PolicySet of generated domains
+	 */
+	public static final String ROOT_POLICY_ID = "root";
+
+	/**
+	 * XACML resource-id of resources that are not permitted by any policy
+	 */
+	public static final String UNKNOWN_RESOURCE_ID = "unknown-resource";
+
+	private static final String XACML_NS = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+	private static final String PERMIT_OVERRIDES_POLICY_COMBINING_ALG_ID = "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:permit-overrides";
+	private static final String DENY_UNLESS_PERMIT_POLICY_COMBINING_ALG_ID = "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-unless-permit";
+	private static final String PERMIT_OVERRIDES_RULE_COMBINING_ALG_ID = "urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-overrides";
+	private static final String ROOT_POLICY_VERSION = "1.0";
+
+	private static final String PDP_CONF = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+	        + "<pdp xmlns=\"http://authzforce.github.io/core/xmlns/pdp/7\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:ext=\"http://authzforce.github.io/pap-dao-flat-file/xmlns/pdp-ext/4\" version=\"7.1\">\n"
+	        + "\t<policyProvider id=\"rootPolicyProvider\" xsi:type=\"ext:StaticFlatFileDaoPolicyProviderDescriptor\" policyLocationPattern=\"${PARENT_DIR}/policies/*.xml\" />\n"
+	        + "\t<rootPolicyRef>" + ROOT_POLICY_ID + "</rootPolicyRef>\n" + "</pdp>\n";
+
+	private final int policyCount;
+	private final int policyRefFanOut;
+	private final int policyRefTreeSize;
+	private final int versionCountPerPolicy;
+	private final int minPolicyFileSize;
+	private final int maxVersionCountPerPolicy;
+	private final boolean versionRollingEnabled;
+
+	/**
+	 * Creates generator of domains with a single version per policy and default domain properties (no limit)
+	 * 
+	 * @param policyCount
+	 *            number of PolicySets per domain (besides the root PolicySet), &gt;= 0
+	 * @param policyRefDepth
+	 *            length of PolicySetIdReference chains from the root PolicySet, &gt;= 1
+	 */
+	public SyntheticDomainRepository(final int policyCount, final int policyRefDepth)
+	{
+		this(policyCount, policyRefDepth, 1, 0, false);
+	}
+
+	/**
+	 * Creates generator
+	 * 
+	 * @param policyCount
+	 *            number of PolicySets per domain (besides the root PolicySet), &gt;= 0
+	 * @param policyRefDepth
+	 *            length of PolicySetIdReference chains from the root PolicySet, &gt;= 1
+	 * @param versionCountPerPolicy
+	 *            number of versions of each PolicySet (besides the root PolicySet), &gt;= 1
+	 * @param maxVersionCountPerPolicy
+	 *            domain property 'maxVersionCountPerPolicy', &lt;= 0 if undefined (no limit)
+	 * @param versionRollingEnabled
+	 *            domain property 'versionRollingEnabled'
+	 */
+	public SyntheticDomainRepository(final int policyCount, final int policyRefDepth, final int versionCountPerPolicy, final int maxVersionCountPerPolicy, final boolean versionRollingEnabled)
+	{
+		this(policyCount, policyRefDepth, 1, versionCountPerPolicy, 0, maxVersionCountPerPolicy, versionRollingEnabled);
+	}
+
+	/**
+	 * Creates generator
+	 * 
+	 * @param policyCount
+	 *            number of PolicySets per domain (besides the root PolicySet), &gt;= 0
+	 * @param policyRefDepth
+	 *            depth of PolicySetIdReference trees from the root PolicySet, &gt;= 1
+	 * @param policyRefFanOut
+	 *            max number of PolicySetIdReferences in each PolicySet of a tree (besides the root PolicySet), &gt;= 1
+	 * @param versionCountPerPolicy
+	 *            number of versions of each PolicySet (besides the root PolicySet), &gt;= 1
+	 * @param minPolicyFileSize
+	 *            minimum size of PolicySet files in bytes (PolicySets are padded with a Description if needed), &lt;= 0 for no padding
+	 * @param maxVersionCountPerPolicy
+	 *            domain property 'maxVersionCountPerPolicy', &lt;= 0 if undefined (no limit)
+	 * @param versionRollingEnabled
+	 *            domain property 'versionRollingEnabled'
+	 */
+	public SyntheticDomainRepository(final int policyCount, final int policyRefDepth, final int policyRefFanOut, final int versionCountPerPolicy, final int minPolicyFileSize,
+	        final int maxVersionCountPerPolicy, final boolean versionRollingEnabled)
+	{
+		if (policyCount < 0 || policyRefDepth < 1 || policyRefFanOut < 1 || versionCountPerPolicy < 1)
+		{
+			throw new IllegalArgumentException("Invalid policyCount (" + policyCount + "), policyRefDepth (" + policyRefDepth + "), policyRefFanOut (" + policyRefFanOut
+			        + ") or versionCountPerPolicy (" + versionCountPerPolicy + ")");
+		}
+
+		this.policyCount = policyCount;
+		this.policyRefFanOut = policyRefFanOut;
+		/*
+		 * Number of PolicySets in a full tree: 1 + fanOut + fanOut^2 + ... + fanOut^(depth - 1), capped at policyCount (trees beyond are never filled)
+		 */
+		long treeSize = 0;
+		long levelSize = 1;
+		for (int level = 0; level < policyRefDepth && treeSize < policyCount; level++)
+		{
+			treeSize += levelSize;
+			levelSize *= policyRefFanOut;
+		}
+
+		this.policyRefTreeSize = (int) Math.max(1, Math.min(treeSize, policyCount));
+		this.versionCountPerPolicy = versionCountPerPolicy;
+		this.minPolicyFileSize = minPolicyFileSize;
+		this.maxVersionCountPerPolicy = maxVersionCountPerPolicy;
+		this.versionRollingEnabled = versionRollingEnabled;
+	}
+
+	/**
+	 * Get the ID of a generated PolicySet
+	 * 
+	 * @param policyIndex
+	 *            PolicySet number in [0, policyCount)
+	 * @return PolicySet ID
+	 */
+	public static String getPolicyId(final int policyIndex)
+	{
+		return "policy-" + policyIndex;
+	}
+
+	/**
+	 * Get the resource permitted by a generated PolicySet
+	 * 
+	 * @param policyIndex
+	 *            PolicySet number in [0, policyCount)
+	 * @return XACML resource-id
+	 */
+	public static String getResourceId(final int policyIndex)
+	{
+		return "resource-" + policyIndex;
+	}
+
+	/**
+	 * Get the version of a generated PolicySet
+	 * 
+	 * @param versionIndex
+	 *            version number in [0, versionCountPerPolicy)
+	 * @return version
+	 */
+	public static String getPolicyVersion(final int versionIndex)
+	{
+		return "1." + versionIndex;
+	}
+
+	/**
+	 * Get the directory of a policy's versions in a domain directory
+	 * 
+	 * @param domainDir
+	 *            domain directory
+	 * @param policyId
+	 *            PolicySet ID
+	 * @return policy directory
+	 */
+	public static Path getPolicyDirectory(final Path domainDir, final String policyId)
+	{
+		return domainDir.resolve("policies").resolve(FlatFileDAOUtils.base64UrlEncode(policyId));
+	}
+
+	/**
+	 * Get the number of versions of each PolicySet
+	 * 
+	 * @return version count
+	 */
+	public int getVersionCountPerPolicy()
+	{
+		return versionCountPerPolicy;
+	}
+
+	/**
+	 * Get the number of PolicySets per domain (besides the root PolicySet)
+	 * 
+	 * @return policy count
+	 */
+	public int getPolicyCount()
+	{
+		return policyCount;
+	}
+
+	private static String policySetIdReference(final String policyId)
+	{
+		return "\t<PolicySetIdReference>" + policyId + "</PolicySetIdReference>\n";
+	}
+
+	private static String policySetStartTag(final String policyId, final String policyVersion, final String policyCombiningAlgId)
+	{
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<PolicySet xmlns=\"" + XACML_NS + "\" PolicySetId=\"" + policyId + "\" Version=\"" + policyVersion + "\" PolicyCombiningAlgId=\""
+		        + policyCombiningAlgId + "\">\n";
+	}
+
+	private static final String POLICY_SET_TARGET = "\t<Target />\n";
+	private static final String DESCRIPTION_START_TAG = "\t<Description>";
+	private static final String DESCRIPTION_END_TAG = "</Description>\n";
+
+	/**
+	 * Get the XML document of the root PolicySet
+	 * 
+	 * @return root PolicySet
+	 */
+	public String getRootPolicySet()
+	{
+		final StringBuilder sb = new StringBuilder(policySetStartTag(ROOT_POLICY_ID, ROOT_POLICY_VERSION, DENY_UNLESS_PERMIT_POLICY_COMBINING_ALG_ID)).append(POLICY_SET_TARGET);
+		for (int i = 0; i < policyCount; i += policyRefTreeSize)
+		{
+			sb.append(policySetIdReference(getPolicyId(i)));
+		}
+
+		return sb.append("</PolicySet>\n").toString();
+	}
+
+	/**
+	 * Get the XML document of a generated PolicySet
+	 * 
+	 * @param policyIndex
+	 *            PolicySet number in [0, policyCount); or a greater number for a PolicySet that is not referenced by any other (not applicable)
+	 * @param policyVersion
+	 *            PolicySet version
+	 * @return PolicySet
+	 */
+	public String getPolicySet(final int policyIndex, final String policyVersion)
+	{
+		final String policyId = getPolicyId(policyIndex);
+		final String startTag = policySetStartTag(policyId, policyVersion, PERMIT_OVERRIDES_POLICY_COMBINING_ALG_ID);
+		final StringBuilder sb = new StringBuilder(Math.max(minPolicyFileSize, 1024)).append(POLICY_SET_TARGET);
+		sb.append("\t<Policy PolicyId=\"").append(policyId).append("-policy\" Version=\"").append(policyVersion).append("\" RuleCombiningAlgId=\"").append(PERMIT_OVERRIDES_RULE_COMBINING_ALG_ID)
+		        .append("\">\n\t\t<Target />\n\t\t<Rule RuleId=\"permit-").append(getResourceId(policyIndex)).append("\" Effect=\"Permit\">\n\t\t\t<Target>\n\t\t\t\t<AnyOf>\n\t\t\t\t\t<AllOf>\n")
+		        .append("\t\t\t\t\t\t<Match MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">\n")
+		        .append("\t\t\t\t\t\t\t<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">").append(getResourceId(policyIndex)).append("</AttributeValue>\n")
+		        .append("\t\t\t\t\t\t\t<AttributeDesignator Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\" AttributeId=\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\" DataType=\"http://www.w3.org/2001/XMLSchema#string\" MustBePresent=\"false\" />\n")
+		        .append("\t\t\t\t\t\t</Match>\n\t\t\t\t\t</AllOf>\n\t\t\t\t</AnyOf>\n\t\t\t</Target>\n\t\t</Rule>\n\t</Policy>\n");
+		if (policyIndex < policyCount)
+		{
+			/*
+			 * Children of node k in a tree (breadth-first numbering): k * fanOut + 1, ..., k * fanOut + fanOut
+			 */
+			final int treeStartIndex = policyIndex - policyIndex % policyRefTreeSize;
+			final long firstChildIndex = treeStartIndex + (long) (policyIndex - treeStartIndex) * policyRefFanOut + 1;
+			final long endChildIndex = Math.min(Math.min(firstChildIndex + policyRefFanOut, treeStartIndex + (long) policyRefTreeSize), policyCount);
+			for (long childIndex = firstChildIndex; childIndex < endChildIndex; childIndex++)
+			{
+				sb.append(policySetIdReference(getPolicyId((int) childIndex)));
+			}
+		}
+
+		sb.append("</PolicySet>\n");
+		/*
+		 * Padding (ASCII characters only, so the number of chars is the number of bytes)
+		 */
+		final int paddingSize = minPolicyFileSize - startTag.length() - sb.length() - DESCRIPTION_START_TAG.length() - DESCRIPTION_END_TAG.length();
+		if (paddingSize > 0)
+		{
+			final char[] padding = new char[paddingSize];
+			Arrays.fill(padding, 'x');
+			sb.insert(0, DESCRIPTION_END_TAG).insert(0, padding).insert(0, DESCRIPTION_START_TAG);
+		}
+
+		return sb.insert(0, startTag).toString();
+	}
+
+	/**
+	 * Get a generated PolicySet as JAXB object, e.g. to be added with {@link org.ow2.authzforce.core.pap.api.dao.DomainDao#addPolicy(PolicySet)}
+	 * 
+	 * @param policyIndex
+	 *            PolicySet number (see {@link #getPolicySet(int, String)})
+	 * @param policyVersion
+	 *            PolicySet version
+	 * @return PolicySet
+	 * @throws JAXBException
+	 *             error unmarshalling the PolicySet
+	 */
+	public PolicySet getJaxbPolicySet(final int policyIndex, final String policyVersion) throws JAXBException
+	{
+		return (PolicySet) Xacml3JaxbHelper.createXacml3Unmarshaller().unmarshal(new StringReader(getPolicySet(policyIndex, policyVersion)));
+	}
+
+	/**
+	 * Copies a PolicySet with a different version (shallow copy, without any XML processing)
+	 * 
+	 * @param policySet
+	 *            original PolicySet
+	 * @param policyVersion
+	 *            new version
+	 * @return new PolicySet
+	 */
+	public static PolicySet withVersion(final PolicySet policySet, final String policyVersion)
+	{
+		return new PolicySet(policySet.getDescription(), policySet.getPolicyIssuer(), policySet.getPolicySetDefaults(), policySet.getTarget(), policySet.getPolicySetsAndPoliciesAndPolicySetIdReferences(),
+		        policySet.getObligationExpressions(), policySet.getAdviceExpressions(), policySet.getPolicySetId(), policyVersion, policySet.getPolicyCombiningAlgId(),
+		        policySet.getMaxDelegationDepth());
+	}
+
+	/**
+	 * Writes a policy version file in a domain directory
+	 * 
+	 * @param domainDir
+	 *            domain directory
+	 * @param policyId
+	 *            PolicySet ID
+	 * @param policyVersion
+	 *            PolicySet version
+	 * @param policySet
+	 *            PolicySet document
+	 * @throws IOException
+	 *             error writing the file
+	 */
+	public static void writePolicy(final Path domainDir, final String policyId, final String policyVersion, final String policySet) throws IOException
+	{
+		final Path policyDir = getPolicyDirectory(domainDir, policyId);
+		Files.createDirectories(policyDir);
+		Files.write(policyDir.resolve(policyVersion + ".xml"), policySet.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes all versions of a generated PolicySet in a domain directory
+	 * 
+	 * @param domainDir
+	 *            domain directory
+	 * @param policyIndex
+	 *            PolicySet number (see {@link #getPolicySet(int, String)})
+	 * @throws IOException
+	 *             error writing the files
+	 */
+	public void writePolicyVersions(final Path domainDir, final int policyIndex) throws IOException
+	{
+		for (int j = 0; j < versionCountPerPolicy; j++)
+		{
+			final String version = getPolicyVersion(j);
+			writePolicy(domainDir, getPolicyId(policyIndex), version, getPolicySet(policyIndex, version));
+		}
+	}
+
+	/**
+	 * Writes a domain directory
+	 * 
+	 * @param domainDir
+	 *            domain directory (created if it does not exist)
+	 * @param externalId
+	 *            domain externalId, null if none
+	 * @throws IOException
+	 *             error writing the files
+	 */
+	public void writeDomain(final Path domainDir, final String externalId) throws IOException
+	{
+		Files.createDirectories(domainDir);
+		Files.write(domainDir.resolve("pdp.xml"), PDP_CONF.getBytes(StandardCharsets.UTF_8));
+		final String props = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<domainProperties xmlns=\"http://authzforce.github.io/pap-dao-flat-file/xmlns/properties/3.6\""
+		        + (externalId == null ? "" : " externalId=\"" + externalId + "\"") + (maxVersionCountPerPolicy > 0 ? " maxVersionCountPerPolicy=\"" + maxVersionCountPerPolicy + "\"" : "")
+		        + " versionRollingEnabled=\"" + versionRollingEnabled + "\" />\n";
+		Files.write(domainDir.resolve("properties.xml"), props.getBytes(StandardCharsets.UTF_8));
+		writePolicy(domainDir, ROOT_POLICY_ID, ROOT_POLICY_VERSION, getRootPolicySet());
+		for (int i = 0; i < policyCount; i++)
+		{
+			writePolicyVersions(domainDir, i);
+		}
+	}
+
+	/**
+	 * Writes domain directories in a domains root directory, with domain IDs {@code domain-0}, {@code domain-1}, etc. and externalIds {@code ext-0}, {@code ext-1}, etc.
+	 * 
+	 * @param domainsRootDir
+	 *            domains root directory (created if it does not exist)
+	 * @param domainCount
+	 *            number of domains
+	 * @return domain IDs
+	 * @throws IOException
+	 *             error writing the files
+	 */
+	public List<String> writeDomains(final Path domainsRootDir, final int domainCount) throws IOException
+	{
+		Files.createDirectories(domainsRootDir);
+		final List<String> domainIds = new ArrayList<>(domainCount);
+		for (int i = 0; i < domainCount; i++)
+		{
+			final String domainId = "domain-" + i;
+			writeDomain(domainsRootDir.resolve(domainId), "ext-" + i);
+			domainIds.add(domainId);
+		}
+
+		return domainIds;
+	}
+}
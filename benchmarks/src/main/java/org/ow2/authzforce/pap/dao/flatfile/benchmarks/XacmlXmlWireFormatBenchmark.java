@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.authzforce.pap.dao.flatfile.FlatFileBasedDomainDao;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyClient;
+import org.ow2.authzforce.pap.dao.flatfile.benchmarks.BenchmarkDomainsDao.PolicyVersionClient;
+import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Response;
+
+/**
+ * Benchmark of XACML/XML decision requests from wire format (bytes) to wire format, on a synthetic domain (see {@link SyntheticDomainRepository}): client-side JAXB (un)marshalling around
+ * {@code evaluatePolicyDecision(Request)}, versus {@code evaluateXacmlXmlPolicyDecision(byte[], OutputStream, EvaluationDeadline)} (StAX request parsing, pooled response marshaller). Requests alternate between Permit and Deny.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class XacmlXmlWireFormatBenchmark
+{
+	/**
+	 * Number of PolicySets in the domain
+	 */
+	@Param({ "1", "100" })
+	public int policyCount;
+
+	private BenchmarkDomainsDao.Fixture fixture;
+	private FlatFileBasedDomainDao<PolicyVersionClient, PolicyClient> domainDao;
+	private byte[][] xacmlXmlRequests;
+
+	/**
+	 * Per-thread position in the request sequence, JAXB (un)marshaller (not thread-safe) and response buffer
+	 */
+	@State(Scope.Thread)
+	public static class ThreadContext
+	{
+		private int requestIndex = 0;
+		private Unmarshaller unmarshaller;
+		private Marshaller marshaller;
+		private final ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream(4096);
+
+		/**
+		 * Creates the JAXB (un)marshaller
+		 * 
+		 * @throws JAXBException
+		 *             error creating the (un)marshaller
+		 */
+		@Setup(Level.Trial)
+		public void setUp() throws JAXBException
+		{
+			unmarshaller = Xacml3JaxbHelper.createXacml3Unmarshaller();
+			marshaller = Xacml3JaxbHelper.createXacml3Marshaller();
+		}
+
+		private int nextRequestIndex(final int requestCount)
+		{
+			final int i = requestIndex;
+			requestIndex = i + 1 == requestCount ? 0 : i + 1;
+			return i;
+		}
+	}
+
+	/**
+	 * Generates the domain and loads it
+	 * 
+	 * @throws IOException
+	 *             error generating/loading the domain
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		fixture = BenchmarkDomainsDao.newFixture(new SyntheticDomainRepository(policyCount, 1), 1);
+		domainDao = fixture.getDomainDao(0);
+
+		/*
+		 * Permit for each policy, interleaved with Deny
+		 */
+		xacmlXmlRequests = new byte[2 * policyCount][];
+		for (int i = 0; i < policyCount; i++)
+		{
+			xacmlXmlRequests[2 * i] = SyntheticDecisionRequests.getXacmlXmlRequestDocument(SyntheticDomainRepository.getResourceId(i)).getBytes(StandardCharsets.UTF_8);
+			xacmlXmlRequests[2 * i + 1] = SyntheticDecisionRequests.getXacmlXmlRequestDocument(SyntheticDomainRepository.UNKNOWN_RESOURCE_ID).getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Closes the domain and deletes the generated files
+	 * 
+	 * @throws IOException
+	 *             error deleting the files
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		fixture.close();
+	}
+
+	/**
+	 * Client-side JAXB unmarshalling of the request and marshalling of the response around {@code evaluatePolicyDecision(Request)}
+	 * 
+	 * @param ctx
+	 *            per-thread context
+	 * @return response size
+	 * @throws JAXBException
+	 *             (un)marshalling error
+	 */
+	@Benchmark
+	public int jaxb(final ThreadContext ctx) throws JAXBException
+	{
+		final Request request = (Request) ctx.unmarshaller.unmarshal(new ByteArrayInputStream(xacmlXmlRequests[ctx.nextRequestIndex(xacmlXmlRequests.length)]));
+		final Response response = domainDao.evaluatePolicyDecision(request);
+		ctx.responseBuffer.reset();
+		ctx.marshaller.marshal(response, ctx.responseBuffer);
+		return ctx.responseBuffer.size();
+	}
+
+	/**
+	 * {@code evaluateXacmlXmlPolicyDecision(byte[], OutputStream, EvaluationDeadline)}
+	 * 
+	 * @param ctx
+	 *            per-thread context
+	 * @return response size
+	 * @throws IOException
+	 *             error writing the response
+	 */
+	@Benchmark
+	public int stax(final ThreadContext ctx) throws IOException
+	{
+		ctx.responseBuffer.reset();
+		domainDao.evaluateXacmlXmlPolicyDecision(xacmlXmlRequests[ctx.nextRequestIndex(xacmlXmlRequests.length)], ctx.responseBuffer, null);
+		return ctx.responseBuffer.size();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+
+/**
+ * Registry of per-domain decision metrics, used by {@link FlatFileBasedDomainsDao} to record the decision requests evaluated by the domains' PDPs: number of decisions by outcome (Permit, Deny,
+ * NotApplicable, Indeterminate), request latency and number of requests being evaluated (in-flight), for each request format (XACML/XML or XACML/JSON).
+ * <p>
+ * This is the extension point to plug a metrics library. For instance, a Micrometer-based implementation would map a domain's metrics to a {@code Counter} named e.g.
+ * {@code authzforce.pdp.decisions} (tags: {@code domain}, {@code format}, {@code decision}), a {@code Timer} {@code authzforce.pdp.requests} (tags: {@code domain}, {@code format}) with percentile
+ * histogram enabled, and a {@code Gauge} {@code authzforce.pdp.requests.inflight} (tags: {@code domain}, {@code format}), and remove these meters in {@link #removeDomainMetrics(String)}.
+ * {@link DefaultDecisionMetricsRegistry} is the dependency-free default implementation.
+ * <p>
+ * Implementations must be thread-safe, and the recording methods of {@link DomainDecisionMetrics} cheap enough to be called on every decision request.
+ */
+public interface DecisionMetricsRegistry
+{
+	/**
+	 * Decision request format
+	 */
+	enum RequestFormat
+	{
+		/**
+		 * XACML/XML (JAXB)
+		 */
+		XACML_XML,
+
+		/**
+		 * XACML/JSON (JSON Profile of XACML)
+		 */
+		XACML_JSON
+	}
+
+	/**
+	 * Decision metrics of a given domain
+	 */
+	interface DomainDecisionMetrics
+	{
+		/**
+		 * Records the start of a decision request evaluation (in-flight request)
+		 * 
+		 * @param format
+		 *            request format
+		 */
+		void requestStarted(RequestFormat format);
+
+		/**
+		 * Records a decision returned by the PDP. In case of Multiple Decision Profile, there is one decision per individual request (result).
+		 * 
+		 * @param format
+		 *            request format
+		 * @param decision
+		 *            decision
+		 */
+		void recordDecision(RequestFormat format, DecisionType decision);
+
+		/**
+		 * Records the end of a decision request evaluation (previously started, see {@link #requestStarted(RequestFormat)}), successful or not
+		 * 
+		 * @param format
+		 *            request format
+		 * @param latencyNanos
+		 *            request evaluation time in nanoseconds
+		 */
+		void requestCompleted(RequestFormat format, long latencyNanos);
+
+		/**
+		 * Records a decision request evaluation that was aborted because its deadline passed or it was cancelled (see {@link EvaluationDeadline}), in addition to the Indeterminate decision
+		 * returned instead. The default implementation does nothing.
+		 * 
+		 * @param format
+		 *            request format
+		 */
+		default void recordTimeout(final RequestFormat format)
+		{
+			// no-op
+		}
+	}
+
+	/**
+	 * Registry that does not record anything, to disable decision metrics
+	 */
+	DecisionMetricsRegistry DISABLED = new DecisionMetricsRegistry()
+	{
+		private final DomainDecisionMetrics noopDomainMetrics = new DomainDecisionMetrics()
+		{
+
+			@Override
+			public void requestStarted(final RequestFormat format)
+			{
+				// no-op
+			}
+
+			@Override
+			public void recordDecision(final RequestFormat format, final DecisionType decision)
+			{
+				// no-op
+			}
+
+			@Override
+			public void requestCompleted(final RequestFormat format, final long latencyNanos)
+			{
+				// no-op
+			}
+		};
+
+		@Override
+		public DomainDecisionMetrics getDomainMetrics(final String domainId)
+		{
+			return noopDomainMetrics;
+		}
+
+		@Override
+		public void removeDomainMetrics(final String domainId)
+		{
+			// no-op
+		}
+	};
+
+	/**
+	 * Get (create if necessary) the metrics of a given domain. Called once when the domain is loaded.
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return domain metrics
+	 */
+	DomainDecisionMetrics getDomainMetrics(String domainId);
+
+	/**
+	 * Removes the metrics of a domain, called when the domain is removed
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 */
+	void removeDomainMetrics(String domainId);
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+
+/**
+ * Default (dependency-free) {@link DecisionMetricsRegistry} keeping the metrics in memory: counters are {@link LongAdder}s and latencies are recorded in {@link LatencyHistogram}s, so recording does
+ * not allocate nor lock.
+ */
+public final class DefaultDecisionMetricsRegistry implements DecisionMetricsRegistry
+{
+	/**
+	 * In-memory decision metrics of a domain
+	 */
+	public static final class DefaultDomainDecisionMetrics implements DomainDecisionMetrics
+	{
+		private static final RequestFormat[] REQUEST_FORMATS = RequestFormat.values();
+		private static final DecisionType[] DECISION_TYPES = DecisionType.values();
+
+		private final String domainId;
+		private final LongAdder[][] decisionCounts = new LongAdder[REQUEST_FORMATS.length][DECISION_TYPES.length];
+		private final LongAdder[] inFlightCounts = new LongAdder[REQUEST_FORMATS.length];
+		private final LongAdder[] timeoutCounts = new LongAdder[REQUEST_FORMATS.length];
+		private final LatencyHistogram[] latencyHistograms = new LatencyHistogram[REQUEST_FORMATS.length];
+
+		private DefaultDomainDecisionMetrics(final String domainId)
+		{
+			this.domainId = domainId;
+			for (int i = 0; i < REQUEST_FORMATS.length; i++)
+			{
+				for (int j = 0; j < DECISION_TYPES.length; j++)
+				{
+					decisionCounts[i][j] = new LongAdder();
+				}
+
+				inFlightCounts[i] = new LongAdder();
+				timeoutCounts[i] = new LongAdder();
+				latencyHistograms[i] = new LatencyHistogram();
+			}
+		}
+
+		@Override
+		public void requestStarted(final RequestFormat format)
+		{
+			inFlightCounts[format.ordinal()].increment();
+		}
+
+		@Override
+		public void recordDecision(final RequestFormat format, final DecisionType decision)
+		{
+			decisionCounts[format.ordinal()][decision.ordinal()].increment();
+		}
+
+		@Override
+		public void requestCompleted(final RequestFormat format, final long latencyNanos)
+		{
+			inFlightCounts[format.ordinal()].decrement();
+			latencyHistograms[format.ordinal()].record(latencyNanos);
+		}
+
+		@Override
+		public void recordTimeout(final RequestFormat format)
+		{
+			timeoutCounts[format.ordinal()].increment();
+		}
+
+		/**
+		 * Get domain ID
+		 * 
+		 * @return domain ID
+		 */
+		public String getDomainId()
+		{
+			return domainId;
+		}
+
+		/**
+		 * Get the number of decisions of a given type
+		 * 
+		 * @param format
+		 *            request format
+		 * @param decision
+		 *            decision type
+		 * @return decision count
+		 */
+		public long getDecisionCount(final RequestFormat format, final DecisionType decision)
+		{
+			return decisionCounts[format.ordinal()][decision.ordinal()].sum();
+		}
+
+		/**
+		 * Get the number of decisions by type
+		 * 
+		 * @param format
+		 *            request format
+		 * @return decision counts by decision type
+		 */
+		public Map<DecisionType, Long> getDecisionCounts(final RequestFormat format)
+		{
+			final Map<DecisionType, Long> counts = new EnumMap<>(DecisionType.class);
+			for (final DecisionType decision : DECISION_TYPES)
+			{
+				counts.put(decision, getDecisionCount(format, decision));
+			}
+
+			return counts;
+		}
+
+		/**
+		 * Get the number of requests being evaluated
+		 * 
+		 * @param format
+		 *            request format
+		 * @return in-flight request count
+		 */
+		public long getInFlightCount(final RequestFormat format)
+		{
+			return inFlightCounts[format.ordinal()].sum();
+		}
+
+		/**
+		 * Get the number of requests whose evaluation timed out or was cancelled
+		 * 
+		 * @param format
+		 *            request format
+		 * @return timeout count
+		 */
+		public long getTimeoutCount(final RequestFormat format)
+		{
+			return timeoutCounts[format.ordinal()].sum();
+		}
+
+		/**
+		 * Get the latency histogram of requests
+		 * 
+		 * @param format
+		 *            request format
+		 * @return latency histogram
+		 */
+		public LatencyHistogram getLatencyHistogram(final RequestFormat format)
+		{
+			return latencyHistograms[format.ordinal()];
+		}
+
+		@Override
+		public String toString()
+		{
+			final StringBuilder sb = new StringBuilder("DomainDecisionMetrics[").append(domainId).append(']');
+			for (final RequestFormat format : REQUEST_FORMATS)
+			{
+				sb.append(' ').append(format).append(": decisions=").append(getDecisionCounts(format)).append(", inFlight=").append(getInFlightCount(format)).append(", timeouts=")
+				        .append(getTimeoutCount(format)).append(", latency=(")
+				        .append(getLatencyHistogram(format)).append(')');
+			}
+
+			return sb.toString();
+		}
+	}
+
+	private final ConcurrentMap<String, DefaultDomainDecisionMetrics> metricsByDomainId = new ConcurrentHashMap<>();
+
+	@Override
+	public DefaultDomainDecisionMetrics getDomainMetrics(final String domainId)
+	{
+		return metricsByDomainId.computeIfAbsent(domainId, DefaultDomainDecisionMetrics::new);
+	}
+
+	@Override
+	public void removeDomainMetrics(final String domainId)
+	{
+		metricsByDomainId.remove(domainId);
+	}
+
+	/**
+	 * Get IDs of domains with metrics
+	 * 
+	 * @return domain IDs (read-only view)
+	 */
+	public Set<String> getDomainIds()
+	{
+		return Collections.unmodifiableSet(metricsByDomainId.keySet());
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deadline and cancellation handle of a decision request evaluation, to be passed to {@link FlatFileBasedDomainDao#evaluatePolicyDecision(oasis.names.tc.xacml._3_0.core.schema.wd_17.Request,
+ * EvaluationDeadline)} (or the XACML/JSON equivalent). Once the deadline has passed or {@link #cancel()} has been called, the evaluation returns an Indeterminate result with a processing-error
+ * status: immediately if the request is still waiting for admission by the {@link EvaluationScheduler} (or not admitted yet), else when the PDP engine returns, the result being discarded. The
+ * evaluation in progress is not preempted by default.
+ * <p>
+ * If created with {@code interruptOnExpiry = true}, the evaluating thread (the caller's thread) is also interrupted when the deadline passes or {@link #cancel()} is called during the evaluation, so
+ * that the PDP engine may give up earlier (e.g. attribute providers blocked on I/O). Beware that interrupting a thread closes any {@link java.nio.channels.InterruptibleChannel} it is using (or
+ * blocked on), e.g. a connection used by an attribute provider; so enable it only if attribute providers cope with that. Either way, the interrupt status of the caller's thread is the same after
+ * the evaluation as before, unless it is interrupted by someone else meanwhile.
+ * <p>
+ * A deadline is meant for a single evaluation (not reusable), and {@link #cancel()} may be called from any thread.
+ */
+public final class EvaluationDeadline
+{
+	/*
+	 * States of the evaluating thread with respect to this deadline
+	 */
+	private static final int NEW = 0;
+	// attached, waiting for admission
+	private static final int WAITING = 1;
+	// attached, evaluating
+	private static final int EVALUATING = 2;
+	private static final int INTERRUPTING = 3;
+	private static final int INTERRUPTED = 4;
+	// interrupt status already set by someone else, left as is
+	private static final int INTERRUPT_SKIPPED = 5;
+	private static final int DETACHED = 6;
+
+	private final boolean hasTimeLimit;
+	private final long deadlineNanoTime;
+	private final boolean interruptOnExpiry;
+	private final AtomicInteger state = new AtomicInteger(NEW);
+	private volatile boolean cancelled = false;
+	private volatile Thread evaluatingThread = null;
+	/*
+	 * Fields accessed by the evaluating thread only: expiration timer, and interrupt status of the thread when attached
+	 */
+	private ScheduledFuture<?> timer = null;
+	private boolean wasInterrupted = false;
+
+	private EvaluationDeadline(final boolean hasTimeLimit, final long deadlineNanoTime, final boolean interruptOnExpiry)
+	{
+		this.hasTimeLimit = hasTimeLimit;
+		this.deadlineNanoTime = deadlineNanoTime;
+		this.interruptOnExpiry = interruptOnExpiry;
+	}
+
+	/**
+	 * Creates deadline after a given timeout from now, not interrupting the evaluation in progress (see {@link #after(long, TimeUnit, boolean)})
+	 * 
+	 * @param timeout
+	 *            timeout
+	 * @param unit
+	 *            timeout unit
+	 * @return new deadline
+	 */
+	public static EvaluationDeadline after(final long timeout, final TimeUnit unit)
+	{
+		return after(timeout, unit, false);
+	}
+
+	/**
+	 * Creates deadline after a given timeout from now
+	 * 
+	 * @param timeout
+	 *            timeout
+	 * @param unit
+	 *            timeout unit
+	 * @param interruptOnExpiry
+	 *            true iff the evaluating thread must be interrupted when the deadline passes or the evaluation is cancelled during the evaluation (see the class description)
+	 * @return new deadline
+	 */
+	public static EvaluationDeadline after(final long timeout, final TimeUnit unit, final boolean interruptOnExpiry)
+	{
+		return new EvaluationDeadline(true, System.nanoTime() + unit.toNanos(timeout), interruptOnExpiry);
+	}
+
+	/**
+	 * Creates deadline at a given time, not interrupting the evaluation in progress (see {@link #at(long, boolean)})
+	 * 
+	 * @param nanoTime
+	 *            deadline, as a value of {@link System#nanoTime()}
+	 * @return new deadline
+	 */
+	public static EvaluationDeadline at(final long nanoTime)
+	{
+		return at(nanoTime, false);
+	}
+
+	/**
+	 * Creates deadline at a given time
+	 * 
+	 * @param nanoTime
+	 *            deadline, as a value of {@link System#nanoTime()}
+	 * @param interruptOnExpiry
+	 *            true iff the evaluating thread must be interrupted when the deadline passes or the evaluation is cancelled during the evaluation (see the class description)
+	 * @return new deadline
+	 */
+	public static EvaluationDeadline at(final long nanoTime, final boolean interruptOnExpiry)
+	{
+		return new EvaluationDeadline(true, nanoTime, interruptOnExpiry);
+	}
+
+	/**
+	 * Creates handle without time limit, to be able to cancel an evaluation only, not interrupting the evaluation in progress (see {@link #none(boolean)})
+	 * 
+	 * @return new handle
+	 */
+	public static EvaluationDeadline none()
+	{
+		return none(false);
+	}
+
+	/**
+	 * Creates handle without time limit, to be able to cancel an evaluation only
+	 * 
+	 * @param interruptOnExpiry
+	 *            true iff the evaluating thread must be interrupted when the evaluation is cancelled during the evaluation (see the class description)
+	 * @return new handle
+	 */
+	public static EvaluationDeadline none(final boolean interruptOnExpiry)
+	{
+		return new EvaluationDeadline(false, 0, interruptOnExpiry);
+	}
+
+	/**
+	 * Cancels the evaluation, whether it is waiting for admission by the evaluation scheduler, in progress, or not started yet
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		interruptEvaluatingThread();
+	}
+
+	/**
+	 * Tells whether {@link #cancel()} has been called
+	 * 
+	 * @return true iff cancelled
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Tells whether the deadline has passed, or the evaluation has been cancelled
+	 * 
+	 * @return true iff the deadline has passed or {@link #cancel()} has been called
+	 */
+	public boolean isExpired()
+	{
+		return cancelled || hasTimeLimit && System.nanoTime() - deadlineNanoTime >= 0;
+	}
+
+	/**
+	 * Get the time left before the deadline
+	 * 
+	 * @return remaining time in nanoseconds (negative or zero if the deadline has passed); {@link Long#MAX_VALUE} if no time limit
+	 */
+	public long getRemainingNanos()
+	{
+		return hasTimeLimit ? deadlineNanoTime - System.nanoTime() : Long.MAX_VALUE;
+	}
+
+	boolean hasTimeLimit()
+	{
+		return hasTimeLimit;
+	}
+
+	/**
+	 * Tells whether a timer calling {@link #interruptEvaluatingThread()} must be set when the deadline passes (see {@link #setTimer(ScheduledFuture)})
+	 * 
+	 * @return true iff there is a time limit and the evaluating thread must be interrupted on expiry
+	 */
+	boolean needsTimer()
+	{
+		return hasTimeLimit && interruptOnExpiry;
+	}
+
+	/**
+	 * Attaches the current thread (evaluating thread) to this deadline while waiting for admission, so that it is interrupted on {@link #cancel()}, or when the deadline passes if a timer is set
+	 * (see {@link #setTimer(ScheduledFuture)}). {@link #detach()} must be called afterwards, whatever the result.
+	 * 
+	 * @throws IllegalStateException
+	 *             if this deadline has been used for another evaluation already
+	 */
+	void attach() throws IllegalStateException
+	{
+		final Thread currentThread = Thread.currentThread();
+		this.evaluatingThread = currentThread;
+		this.wasInterrupted = currentThread.isInterrupted();
+		if (!state.compareAndSet(NEW, WAITING))
+		{
+			throw new IllegalStateException("Evaluation deadline already used");
+		}
+
+		if (cancelled)
+		{
+			// cancelled before attached
+			interruptEvaluatingThread();
+		}
+	}
+
+	/**
+	 * Set the timer calling {@link #interruptEvaluatingThread()} when the deadline passes, cancelled by {@link #detach()}. Must be called by the evaluating thread, after {@link #attach()}.
+	 * 
+	 * @param timer
+	 *            timer
+	 */
+	void setTimer(final ScheduledFuture<?> timer)
+	{
+		this.timer = timer;
+	}
+
+	/**
+	 * Called by the evaluating thread once admitted, before evaluating. From then on, the evaluating thread is interrupted on expiry only if {@code interruptOnExpiry} is true.
+	 * 
+	 * @return true iff the request may be evaluated; false if the deadline has passed or the evaluation has been cancelled already
+	 */
+	boolean startEvaluation()
+	{
+		return state.compareAndSet(WAITING, EVALUATING) && !isExpired();
+	}
+
+	/**
+	 * Interrupts the evaluating thread, if attached and still waiting for admission, or evaluating with {@code interruptOnExpiry = true}
+	 */
+	void interruptEvaluatingThread()
+	{
+		int currentState = state.get();
+		while (currentState == WAITING || currentState == EVALUATING && interruptOnExpiry)
+		{
+			if (state.compareAndSet(currentState, INTERRUPTING))
+			{
+				final Thread thread = evaluatingThread;
+				if (thread.isInterrupted())
+				{
+					// interrupted by someone else, the caller's business
+					state.set(INTERRUPT_SKIPPED);
+				}
+				else
+				{
+					thread.interrupt();
+					state.set(INTERRUPTED);
+				}
+
+				return;
+			}
+
+			currentState = state.get();
+		}
+	}
+
+	/**
+	 * Detaches the evaluating thread from this deadline, and restores its interrupt status as it was when attached if interrupted because of this deadline. Must be called by the evaluating thread.
+	 */
+	void detach()
+	{
+		if (timer != null)
+		{
+			timer.cancel(false);
+		}
+
+		int currentState = state.get();
+		while ((currentState == WAITING || currentState == EVALUATING) && !state.compareAndSet(currentState, DETACHED) || currentState == INTERRUPTING)
+		{
+			// interruption in progress (very short)
+			Thread.onSpinWait();
+			currentState = state.get();
+		}
+
+		if (currentState == INTERRUPTED)
+		{
+			/*
+			 * Interrupted because of this deadline, not the caller's business (an interrupt by someone else after this one cannot be told apart, and is lost)
+			 */
+			Thread.interrupted();
+			if (wasInterrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		state.set(DETACHED);
+		evaluatingThread = null;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "EvaluationDeadline: " + (hasTimeLimit ? "remainingNanos=" + getRemainingNanos() : "no time limit") + ", cancelled=" + cancelled;
+	}
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Scheduler of decision evaluations across domains, to prevent a domain (tenant) with heavy policies or a burst of requests from taking all the CPU: evaluations run on the calling threads, but at
+ * most {@code maxConcurrency} at a time overall and {@code maxConcurrencyPerDomain} per domain (bulkhead). Requests beyond these limits wait in a per-domain queue of at most
+ * {@code maxQueueSizePerDomain} requests, beyond which they are rejected immediately. Queued requests are admitted by weighted fair queuing across domains (Start-time Fair Queuing, each request
+ * costing {@code 1/weight}), the weight of a domain being set by the {@code evaluationWeight} domain property (default: {@value #DEFAULT_WEIGHT}).
+ * <p>
+ * To be passed to the {@link FlatFileBasedDomainsDao} constructor. A scheduler must not be shared by several {@link FlatFileBasedDomainsDao}s.
+ */
+public final class EvaluationScheduler
+{
+	/**
+	 * Default weight of a domain, if the {@code evaluationWeight} domain property is undefined
+	 */
+	public static final int DEFAULT_WEIGHT = 1;
+
+	/**
+	 * Max weight of a domain, higher {@code evaluationWeight} values are reduced to this one
+	 */
+	public static final int MAX_WEIGHT = 1000;
+
+	/*
+	 * Virtual cost of a request with weight 1, the cost of a request with weight w being VIRTUAL_COST_SCALE/w (integer arithmetic)
+	 */
+	private static final long VIRTUAL_COST_SCALE = 1_000_000L;
+
+	private static final RejectedExecutionException QUEUE_FULL_EXCEPTION = new RejectedExecutionException(
+	        "Decision request rejected: too many requests being evaluated or waiting for evaluation for the domain. Retry later.");
+
+	/**
+	 * Decision request waiting for evaluation
+	 */
+	private static final class Ticket
+	{
+		private final long virtualStartTime;
+		private final Condition admission;
+		private boolean admitted = false;
+
+		private Ticket(final long virtualStartTime, final Condition admission)
+		{
+			this.virtualStartTime = virtualStartTime;
+			this.admission = admission;
+		}
+	}
+
+	/**
+	 * Bulkhead of a domain: in-flight evaluations and queue of decision requests waiting for evaluation. Fields guarded by the scheduler lock, except the counters.
+	 */
+	static final class DomainBulkhead
+	{
+		private final String domainId;
+		private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+		private int inFlightCount = 0;
+		private long virtualFinishTime = 0;
+		// true iff in readyBulkheads
+		private boolean ready = false;
+		private final LongAdder admittedCount = new LongAdder();
+		private final LongAdder rejectedCount = new LongAdder();
+
+		private DomainBulkhead(final String domainId)
+		{
+			this.domainId = domainId;
+		}
+
+		private long getHeadVirtualStartTime()
+		{
+			return queue.getFirst().virtualStartTime;
+		}
+	}
+
+	private final int maxConcurrency;
+	private final int maxConcurrencyPerDomain;
+	private final int maxQueueSizePerDomain;
+	private final ConcurrentMap<String, DomainBulkhead> bulkheadsByDomainId = new ConcurrentHashMap<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/*
+	 * Bulkheads with queued requests and below their concurrency limit, ordered by virtual start time of the first queued request
+	 */
+	private final PriorityQueue<DomainBulkhead> readyBulkheads = new PriorityQueue<>(Comparator.comparingLong(DomainBulkhead::getHeadVirtualStartTime));
+	private int freeSlotCount;
+	private int queuedCount = 0;
+	private long virtualTime = 0;
+	private final LongAdder rejectedCount = new LongAdder();
+
+	/**
+	 * Creates scheduler
+	 * 
+	 * @param maxConcurrency
+	 *            max number of decision requests evaluated at the same time overall, e.g. the number of CPU cores
+	 * @param maxConcurrencyPerDomain
+	 *            max number of decision requests evaluated at the same time for the same domain
+	 * @param maxQueueSizePerDomain
+	 *            max number of decision requests waiting for evaluation for the same domain; requests beyond this limit are rejected with a {@link RejectedExecutionException}. Value 0 means
+	 *            requests are rejected as soon as the concurrency limit is reached.
+	 * @throws IllegalArgumentException
+	 *             if {@code maxConcurrency < 1 || maxConcurrencyPerDomain < 1 || maxQueueSizePerDomain < 0}
+	 */
+	@ConstructorProperties({ "maxConcurrency", "maxConcurrencyPerDomain", "maxQueueSizePerDomain" })
+	public EvaluationScheduler(final int maxConcurrency, final int maxConcurrencyPerDomain, final int maxQueueSizePerDomain) throws IllegalArgumentException
+	{
+		if (maxConcurrency < 1 || maxConcurrencyPerDomain < 1 || maxQueueSizePerDomain < 0)
+		{
+			throw new IllegalArgumentException("Invalid evaluation scheduler arguments: maxConcurrency = " + maxConcurrency + " (< 1), or maxConcurrencyPerDomain = " + maxConcurrencyPerDomain
+			        + " (< 1), or maxQueueSizePerDomain = " + maxQueueSizePerDomain + " (< 0)");
+		}
+
+		this.maxConcurrency = maxConcurrency;
+		this.maxConcurrencyPerDomain = maxConcurrencyPerDomain;
+		this.maxQueueSizePerDomain = maxQueueSizePerDomain;
+		this.freeSlotCount = maxConcurrency;
+	}
+
+	/**
+	 * Get the bulkhead of a domain, created if necessary
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return domain's bulkhead
+	 */
+	DomainBulkhead getBulkhead(final String domainId)
+	{
+		return bulkheadsByDomainId.computeIfAbsent(domainId, DomainBulkhead::new);
+	}
+
+	/**
+	 * Forget the bulkhead of a domain (removed). Requests of the domain being evaluated or waiting for evaluation are not affected.
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 */
+	void removeBulkhead(final String domainId)
+	{
+		bulkheadsByDomainId.remove(domainId);
+	}
+
+	/**
+	 * Waits until a decision request of a given domain may be evaluated. If (and only if) this returns true, the caller must call {@link #release(DomainBulkhead)} after the evaluation.
+	 * 
+	 * @param bulkhead
+	 *            domain's bulkhead
+	 * @param weight
+	 *            domain's weight
+	 * @param deadline
+	 *            evaluation deadline, null if none
+	 * @return true iff the request is admitted; false if the deadline passed or the evaluation was cancelled while waiting
+	 * @throws RejectedExecutionException
+	 *             if the domain's queue is full, or the calling thread is interrupted while waiting (interrupt status restored) but not because of the deadline
+	 */
+	boolean acquire(final DomainBulkhead bulkhead, final int weight, final EvaluationDeadline deadline) throws RejectedExecutionException
+	{
+		assert bulkhead != null;
+		final long virtualCost = VIRTUAL_COST_SCALE / Math.max(DEFAULT_WEIGHT, Math.min(weight, MAX_WEIGHT));
+		final Ticket ticket;
+		lock.lock();
+		try
+		{
+			final long virtualStartTime = Math.max(virtualTime, bulkhead.virtualFinishTime);
+			/*
+			 * If there is any free slot, no request is waiting (any ready bulkhead would have been given the slot), so this one may go unless the domain's limit is reached
+			 */
+			if (freeSlotCount > 0 && bulkhead.inFlightCount < maxConcurrencyPerDomain)
+			{
+				assert readyBulkheads.isEmpty() && bulkhead.queue.isEmpty();
+				bulkhead.virtualFinishTime = virtualStartTime + virtualCost;
+				virtualTime = virtualStartTime;
+				freeSlotCount--;
+				bulkhead.inFlightCount++;
+				bulkhead.admittedCount.increment();
+				return true;
+			}
+
+			if (bulkhead.queue.size() >= maxQueueSizePerDomain)
+			{
+				bulkhead.rejectedCount.increment();
+				rejectedCount.increment();
+				throw QUEUE_FULL_EXCEPTION;
+			}
+
+			ticket = new Ticket(virtualStartTime, lock.newCondition());
+			bulkhead.virtualFinishTime = virtualStartTime + virtualCost;
+			bulkhead.queue.addLast(ticket);
+			queuedCount++;
+			if (!bulkhead.ready && bulkhead.inFlightCount < maxConcurrencyPerDomain)
+			{
+				bulkhead.ready = true;
+				readyBulkheads.add(bulkhead);
+			}
+
+			try
+			{
+				if (deadline != null && deadline.hasTimeLimit())
+				{
+					long remainingNanos = deadline.getRemainingNanos();
+					while (!ticket.admitted && remainingNanos > 0)
+					{
+						remainingNanos = ticket.admission.awaitNanos(remainingNanos);
+					}
+
+					if (!ticket.admitted)
+					{
+						cancel(bulkhead, ticket);
+						return false;
+					}
+				}
+				else
+				{
+					while (!ticket.admitted)
+					{
+						ticket.admission.await();
+					}
+				}
+
+				return true;
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				if (ticket.admitted)
+				{
+					// too late to give up, the caller will release the slot
+					return true;
+				}
+
+				cancel(bulkhead, ticket);
+				if (deadline != null && deadline.isExpired())
+				{
+					return false;
+				}
+
+				bulkhead.rejectedCount.increment();
+				rejectedCount.increment();
+				throw new RejectedExecutionException("Decision request of domain '" + bulkhead.domainId + "' interrupted while waiting for evaluation", e);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a ticket from the queue. Must be called with the lock held.
+	 */
+	private void cancel(final DomainBulkhead bulkhead, final Ticket ticket)
+	{
+		final boolean wasFirst = bulkhead.queue.peekFirst() == ticket;
+		if (bulkhead.ready && wasFirst)
+		{
+			// the bulkhead's position in readyBulkheads depends on the first ticket
+			readyBulkheads.remove(bulkhead);
+			bulkhead.ready = false;
+		}
+
+		bulkhead.queue.remove(ticket);
+		queuedCount--;
+		if (!bulkhead.ready && !bulkhead.queue.isEmpty() && bulkhead.inFlightCount < maxConcurrencyPerDomain)
+		{
+			bulkhead.ready = true;
+			readyBulkheads.add(bulkhead);
+		}
+	}
+
+	/**
+	 * Releases the evaluation slot acquired by {@link #acquire(DomainBulkhead, int)}, and admits the next request(s) waiting for evaluation, if any
+	 * 
+	 * @param bulkhead
+	 *            domain's bulkhead
+	 */
+	void release(final DomainBulkhead bulkhead)
+	{
+		assert bulkhead != null;
+		lock.lock();
+		try
+		{
+			freeSlotCount++;
+			bulkhead.inFlightCount--;
+			if (!bulkhead.ready && !bulkhead.queue.isEmpty())
+			{
+				bulkhead.ready = true;
+				readyBulkheads.add(bulkhead);
+			}
+
+			/*
+			 * Admit the requests with the earliest virtual start time while there are free slots
+			 */
+			while (freeSlotCount > 0 && !readyBulkheads.isEmpty())
+			{
+				final DomainBulkhead nextBulkhead = readyBulkheads.poll();
+				final Ticket ticket = nextBulkhead.queue.removeFirst();
+				queuedCount--;
+				virtualTime = Math.max(virtualTime, ticket.virtualStartTime);
+				freeSlotCount--;
+				nextBulkhead.inFlightCount++;
+				nextBulkhead.admittedCount.increment();
+				ticket.admitted = true;
+				ticket.admission.signal();
+				if (!nextBulkhead.queue.isEmpty() && nextBulkhead.inFlightCount < maxConcurrencyPerDomain)
+				{
+					readyBulkheads.add(nextBulkhead);
+				}
+				else
+				{
+					nextBulkhead.ready = false;
+				}
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get max number of decision requests evaluated at the same time overall
+	 * 
+	 * @return max concurrency
+	 */
+	public int getMaxConcurrency()
+	{
+		return maxConcurrency;
+	}
+
+	/**
+	 * Get max number of decision requests evaluated at the same time for the same domain
+	 * 
+	 * @return max concurrency per domain
+	 */
+	public int getMaxConcurrencyPerDomain()
+	{
+		return maxConcurrencyPerDomain;
+	}
+
+	/**
+	 * Get max number of decision requests waiting for evaluation for the same domain
+	 * 
+	 * @return max queue size per domain
+	 */
+	public int getMaxQueueSizePerDomain()
+	{
+		return maxQueueSizePerDomain;
+	}
+
+	/**
+	 * Get the number of decision requests being evaluated
+	 * 
+	 * @return number of in-flight requests
+	 */
+	public int getInFlightCount()
+	{
+		lock.lock();
+		try
+		{
+			return maxConcurrency - freeSlotCount;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of decision requests waiting for evaluation
+	 * 
+	 * @return number of queued requests
+	 */
+	public int getQueuedCount()
+	{
+		lock.lock();
+		try
+		{
+			return queuedCount;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of decision requests rejected since this scheduler was created
+	 * 
+	 * @return number of rejected requests
+	 */
+	public long getRejectedCount()
+	{
+		return rejectedCount.sum();
+	}
+
+	/**
+	 * Get the number of decision requests of a given domain admitted for evaluation since the domain was loaded
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return number of admitted requests; 0 if unknown domain
+	 */
+	public long getAdmittedCount(final String domainId)
+	{
+		final DomainBulkhead bulkhead = bulkheadsByDomainId.get(domainId);
+		return bulkhead == null ? 0 : bulkhead.admittedCount.sum();
+	}
+
+	/**
+	 * Get the number of decision requests of a given domain rejected since the domain was loaded
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return number of rejected requests; 0 if unknown domain
+	 */
+	public long getRejectedCount(final String domainId)
+	{
+		final DomainBulkhead bulkhead = bulkheadsByDomainId.get(domainId);
+		return bulkhead == null ? 0 : bulkhead.rejectedCount.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "EvaluationScheduler: maxConcurrency=" + maxConcurrency + ", maxConcurrencyPerDomain=" + maxConcurrencyPerDomain + ", maxQueueSizePerDomain=" + maxQueueSizePerDomain + ", inFlight="
+		        + getInFlightCount() + ", queued=" + getQueuedCount() + ", rejected=" + getRejectedCount();
+	}
+}
@@ -19,13 +19,32 @@
 package org.ow2.authzforce.pap.dao.flatfile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.NavigableSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
+import org.json.JSONObject;
 import org.ow2.authzforce.core.pap.api.dao.DomainDao;
 import org.ow2.authzforce.core.pap.api.dao.PolicyDaoClient;
 import org.ow2.authzforce.core.pap.api.dao.PolicyVersionDaoClient;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
 import org.ow2.authzforce.pap.dao.flatfile.xmlns.DomainProperties;
 
-interface FlatFileBasedDomainDao<VERSION_DAO_CLIENT extends PolicyVersionDaoClient, POLICY_DAO_CLIENT extends PolicyDaoClient>
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Response;
+
+/**
+ * Domain DAO based on a flat-file repository (domain directory)
+ * 
+ * @param <VERSION_DAO_CLIENT>
+ *            Domain policy version DAO client implementation class
+ * 
+ * @param <POLICY_DAO_CLIENT>
+ *            Domain policy DAO client implementation class
+ */
+public interface FlatFileBasedDomainDao<VERSION_DAO_CLIENT extends PolicyVersionDaoClient, POLICY_DAO_CLIENT extends PolicyDaoClient>
 		extends DomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>
 {
 	/**
@@ -54,4 +73,180 @@ interface FlatFileBasedDomainDao<VERSION_DAO_CLIENT extends PolicyVersionDaoClie
 	 */
 	DomainProperties sync() throws IOException, IllegalArgumentException;
 
+	/**
+	 * Get the raw content of a policy version as stored in the repository (XML document), with metadata (size, last modification time, ETag), without any XML parsing. The result must be closed
+	 * after use.
+	 * 
+	 * @param policyId
+	 *            policy (PolicySet) ID
+	 * @param version
+	 *            policy version
+	 * @return raw policy version; or null if there is no such policy version
+	 * @throws IOException
+	 *             error opening the policy version file
+	 */
+	RawPolicyVersion getRawPolicyVersion(String policyId, PolicyVersion version) throws IOException;
+
+	/**
+	 * Get a page of the domain's policy identifiers, in lexicographical order. Only the requested page is held in memory, whatever the total number of policies.
+	 * 
+	 * @param startAfter
+	 *            policy ID after which the page starts (exclusive), typically the last one of the previous page; null to get the first page
+	 * @param limit
+	 *            max number of policy IDs in the page
+	 * @return policy IDs; if less than {@code limit}, this is the last page
+	 * @throws IllegalArgumentException
+	 *             {@code limit < 1}
+	 * @throws IOException
+	 *             error listing the policies in the repository
+	 */
+	NavigableSet<String> getPolicyIdentifiers(String startAfter, int limit) throws IOException, IllegalArgumentException;
+
+	/**
+	 * Get a page of versions of a given policy, from the latest to the oldest. Only the requested page is held in memory, whatever the total number of versions.
+	 * 
+	 * @param policyId
+	 *            policy (PolicySet) ID
+	 * @param startAfter
+	 *            version after which the page starts (exclusive), i.e. only older versions are returned, typically the last one of the previous page; null to get the first page (latest versions)
+	 * @param limit
+	 *            max number of versions in the page
+	 * @return policy versions, latest first; empty if there is no such policy
+	 * @throws IllegalArgumentException
+	 *             {@code limit < 1}
+	 * @throws IOException
+	 *             error listing the policy versions in the repository
+	 */
+	NavigableSet<PolicyVersion> getPolicyVersions(String policyId, PolicyVersion startAfter, int limit) throws IOException, IllegalArgumentException;
+
+	/**
+	 * Stream the domain's policy identifiers (in no particular order) from the repository, without loading the policies. The returned stream should be closed after use, e.g. with a
+	 * try-with-resources statement.
+	 * <p>
+	 * The stream is a consistent snapshot: the policies directory is listed at once (no policy being added or removed through this DAO meanwhile), and the policy IDs are decoded from the listing
+	 * as the stream is consumed. Changes made afterwards are not reflected in the stream.
+	 * 
+	 * @return stream of policy IDs
+	 * @throws IOException
+	 *             error opening the policies directory in the repository
+	 */
+	Stream<String> streamPolicyIdentifiers() throws IOException;
+
+	/**
+	 * Same as {@link #evaluatePolicyDecision(Request)} but with a deadline: if the deadline passes or the evaluation is cancelled (see {@link EvaluationDeadline#cancel()}) before the decision is
+	 * made, the evaluation is aborted as soon as possible and the response is a single Indeterminate result with a processing-error status.
+	 * 
+	 * @param request
+	 *            XACML/XML decision request
+	 * @param deadline
+	 *            evaluation deadline and cancellation handle (for this request only); null if none (equivalent to {@link #evaluatePolicyDecision(Request)})
+	 * @return XACML/XML response
+	 * @throws UnsupportedOperationException
+	 *             PDP internal error
+	 * @throws RejectedExecutionException
+	 *             if the evaluation scheduler is enabled and rejects the request (too many requests of the domain waiting for evaluation already)
+	 */
+	Response evaluatePolicyDecision(Request request, EvaluationDeadline deadline) throws UnsupportedOperationException, RejectedExecutionException;
+
+	/**
+	 * Same as {@link #evaluatePolicyDecision(JSONObject)} (XACML/JSON Profile) but with a deadline, as {@link #evaluatePolicyDecision(Request, EvaluationDeadline)}
+	 * 
+	 * @param request
+	 *            XACML/JSON decision request
+	 * @param deadline
+	 *            evaluation deadline and cancellation handle (for this request only); null if none (equivalent to {@link #evaluatePolicyDecision(JSONObject)})
+	 * @return XACML/JSON response
+	 * @throws UnsupportedOperationException
+	 *             PDP internal error, or XACML/JSON Profile not supported
+	 * @throws RejectedExecutionException
+	 *             if the evaluation scheduler is enabled and rejects the request (too many requests of the domain waiting for evaluation already)
+	 */
+	JSONObject evaluatePolicyDecision(JSONObject request, EvaluationDeadline deadline) throws UnsupportedOperationException, RejectedExecutionException;
+
+	/**
+	 * Same as {@link #evaluatePolicyDecision(Request, EvaluationDeadline)} but the XACML/XML request is parsed directly from an input stream - as received from the client - with StAX (and XML
+	 * schema validation) and the response serialized directly to an output stream (UTF-8), so that the caller does not have to (un)marshal the JAXB request/response objects.
+	 * 
+	 * @param request
+	 *            XACML/XML decision request, read until the end of the document but not closed by this method
+	 * @param response
+	 *            output stream where the XACML/XML response is written (UTF-8), flushed but not closed by this method
+	 * @param deadline
+	 *            evaluation deadline and cancellation handle (for this request only); null if none
+	 * @throws IOException
+	 *             error reading the request or writing the response
+	 * @throws IllegalArgumentException
+	 *             the request is not a valid XACML 3.0 Request document
+	 * @throws UnsupportedOperationException
+	 *             PDP internal error
+	 * @throws RejectedExecutionException
+	 *             if the evaluation scheduler is enabled and rejects the request (too many requests of the domain waiting for evaluation already)
+	 */
+	void evaluateXacmlXmlPolicyDecision(InputStream request, OutputStream response, EvaluationDeadline deadline)
+	        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException;
+
+	/**
+	 * Same as {@link #evaluateXacmlXmlPolicyDecision(InputStream, OutputStream, EvaluationDeadline)} with the request already in memory
+	 * 
+	 * @param request
+	 *            XACML/XML decision request
+	 * @param response
+	 *            output stream where the XACML/XML response is written (UTF-8), flushed but not closed by this method
+	 * @param deadline
+	 *            evaluation deadline and cancellation handle (for this request only); null if none
+	 * @throws IOException
+	 *             error writing the response
+	 * @throws IllegalArgumentException
+	 *             the request is not a valid XACML 3.0 Request document
+	 * @throws UnsupportedOperationException
+	 *             PDP internal error
+	 * @throws RejectedExecutionException
+	 *             if the evaluation scheduler is enabled and rejects the request (too many requests of the domain waiting for evaluation already)
+	 */
+	void evaluateXacmlXmlPolicyDecision(byte[] request, OutputStream response, EvaluationDeadline deadline)
+	        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException;
+
+	/**
+	 * Same as {@link #evaluatePolicyDecision(JSONObject, EvaluationDeadline)} (XACML/JSON Profile) but the request is parsed directly from a stream of UTF-8 bytes - as received from the client - and
+	 * the response serialized directly to an output stream (UTF-8), so that the caller does not have to build the JSON request object or the response string.
+	 * 
+	 * @param request
+	 *            XACML/JSON decision request (UTF-8), read until the end of the stream but not closed by this method
+	 * @param response
+	 *            output stream where the XACML/JSON response is written (UTF-8), flushed but not closed by this method
+	 * @param deadline
+	 *            evaluation deadline and cancellation handle (for this request only); null if none
+	 * @throws IOException
+	 *             error reading the request or writing the response
+	 * @throws IllegalArgumentException
+	 *             the request is not a (single) JSON object
+	 * @throws UnsupportedOperationException
+	 *             PDP internal error, or XACML/JSON Profile not supported
+	 * @throws RejectedExecutionException
+	 *             if the evaluation scheduler is enabled and rejects the request (too many requests of the domain waiting for evaluation already)
+	 */
+	void evaluateXacmlJsonPolicyDecision(InputStream request, OutputStream response, EvaluationDeadline deadline)
+	        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException;
+
+	/**
+	 * Same as {@link #evaluateXacmlJsonPolicyDecision(InputStream, OutputStream, EvaluationDeadline)} with the request already in memory
+	 * 
+	 * @param request
+	 *            XACML/JSON decision request (UTF-8)
+	 * @param response
+	 *            output stream where the XACML/JSON response is written (UTF-8), flushed but not closed by this method
+	 * @param deadline
+	 *            evaluation deadline and cancellation handle (for this request only); null if none
+	 * @throws IOException
+	 *             error writing the response
+	 * @throws IllegalArgumentException
+	 *             the request is not a (single) JSON object
+	 * @throws UnsupportedOperationException
+	 *             PDP internal error, or XACML/JSON Profile not supported
+	 * @throws RejectedExecutionException
+	 *             if the evaluation scheduler is enabled and rejects the request (too many requests of the domain waiting for evaluation already)
+	 */
+	void evaluateXacmlJsonPolicyDecision(byte[] request, OutputStream response, EvaluationDeadline deadline)
+	        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException;
+
 }
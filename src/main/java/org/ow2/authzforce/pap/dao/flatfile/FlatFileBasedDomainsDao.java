@@ -19,29 +19,61 @@
 package org.ow2.authzforce.pap.dao.flatfile;
 
 import java.beans.ConstructorProperties;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import javax.xml.XMLConstants;
@@ -54,7 +86,10 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.ow2.authzforce.core.pap.api.dao.DomainDaoClient;
 import org.ow2.authzforce.core.pap.api.dao.DomainsDao;
 import org.ow2.authzforce.core.pap.api.dao.PdpFeature;
@@ -99,10 +134,11 @@ import org.ow2.authzforce.core.xmlns.pdp.InOutProcChain;
 import org.ow2.authzforce.core.xmlns.pdp.Pdp;
 import org.ow2.authzforce.core.xmlns.pdp.StaticPolicyProvider;
 import org.ow2.authzforce.core.xmlns.pdp.TopLevelPolicyElementRef;
+import org.ow2.authzforce.pap.dao.flatfile.DecisionMetricsRegistry.RequestFormat;
 import org.ow2.authzforce.pap.dao.flatfile.FlatFileDAOUtils.SuffixMatchingDirectoryStreamFilter;
 import org.ow2.authzforce.pap.dao.flatfile.xmlns.DomainProperties;
 import org.ow2.authzforce.pap.dao.flatfile.xmlns.StaticFlatFileDaoPolicyProviderDescriptor;
-import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
 import org.ow2.authzforce.xmlns.pdp.ext.AbstractAttributeProvider;
 import org.ow2.authzforce.xmlns.pdp.ext.AbstractPolicyProvider;
 import org.slf4j.Logger;
@@ -115,12 +151,17 @@ import com.fasterxml.uuid.EthernetAddress;
 import com.fasterxml.uuid.Generators;
 import com.fasterxml.uuid.impl.TimeBasedGenerator;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.IdReferenceType;
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.PolicySet;
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.Response;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Result;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Status;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.StatusCode;
 
 /**
  * Filesystem-based policy domain repository DAO
@@ -182,6 +223,67 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 	 */
 	public static final String DOMAIN_PDP_CONFIG_FILENAME = "pdp.xml";
 
+	/**
+	 * Prefix of names of files in the domains root directory that are reserved for internal use by this DAO (e.g. staging directories of domains being created), therefore never considered as domain
+	 * directories. Domain IDs generated by this DAO never start with this prefix.
+	 */
+	private static final String RESERVED_FILENAME_PREFIX = ".";
+
+	/**
+	 * Prefix of names of staging directories where new domain directories are prepared from the domain template before being moved to their final location
+	 */
+	private static final String DOMAIN_STAGING_DIRNAME_PREFIX = RESERVED_FILENAME_PREFIX + "staging-";
+
+	/**
+	 * Prefix of names of spare domain directories, i.e. created from the domain template in advance, waiting to be claimed by new domains
+	 */
+	private static final String SPARE_DOMAIN_DIRNAME_PREFIX = RESERVED_FILENAME_PREFIX + "spare-";
+
+	/**
+	 * Start of the PARENT_DIR property placeholder in PDP configuration strings (with or without default value)
+	 */
+	private static final String PARENT_DIR_PLACEHOLDER_PREFIX = "${" + EnvironmentPropertyName.PARENT_DIR.name();
+
+	/**
+	 * Name of the directory where directories of removed domains are moved, until they are actually deleted in the background
+	 */
+	private static final String TRASH_DIRNAME = RESERVED_FILENAME_PREFIX + "trash";
+
+	/**
+	 * Name of the persistent externalId index file (see {@link ExternalIdIndexFile})
+	 */
+	private static final String EXTERNAL_ID_INDEX_FILENAME = RESERVED_FILENAME_PREFIX + "externalIds";
+
+	/**
+	 * Number of lock stripes guarding the domain map
+	 */
+	private static final int DOMAIN_MAP_LOCK_STRIPE_COUNT = 64;
+
+	/**
+	 * Pattern of domain IDs generated by this DAO: base64url-encoded (without padding) time-based UUID (16 bytes)
+	 */
+	private static final Pattern GENERATED_DOMAIN_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{22}");
+
+	/**
+	 * How long (nanoseconds) a domain ID that was looked up on the filesystem but not found is considered unknown, i.e. not looked up on the filesystem again
+	 */
+	private static final long UNKNOWN_DOMAIN_ID_TTL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+	/**
+	 * Max number of unknown domain IDs remembered (see {@link #UNKNOWN_DOMAIN_ID_TTL_NANOS})
+	 */
+	private static final int MAX_UNKNOWN_DOMAIN_ID_COUNT = 100_000;
+
+	/**
+	 * Max number of excess policy versions removed by the background collector (see {@link PolicyVersionCollector}) while holding the domain lock
+	 */
+	private static final int POLICY_VERSION_COLLECTION_BATCH_SIZE = 32;
+
+	/**
+	 * Pause (milliseconds) of the background collector of excess policy versions between two batches, to limit the I/O load and let other domain operations acquire the lock
+	 */
+	private static final long POLICY_VERSION_COLLECTION_BATCH_PAUSE_MILLIS = 20;
+
 	private static final JAXBContext DOMAIN_PROPERTIES_JAXB_CONTEXT;
 
 	static
@@ -215,6 +317,19 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		}
 	}
 
+	private static final JaxbObjectPool<Marshaller> DOMAIN_PROPERTIES_MARSHALLER_POOL = new JaxbObjectPool<>("Domain properties marshaller", () -> {
+		final Marshaller marshaller = DOMAIN_PROPERTIES_JAXB_CONTEXT.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.name());
+		marshaller.setSchema(DOMAIN_PROPERTIES_SCHEMA);
+		return marshaller;
+	}, JaxbObjectPool.DEFAULT_CAPACITY);
+
+	private static final JaxbObjectPool<Unmarshaller> DOMAIN_PROPERTIES_UNMARSHALLER_POOL = new JaxbObjectPool<>("Domain properties unmarshaller", () -> {
+		final Unmarshaller unmarshaller = DOMAIN_PROPERTIES_JAXB_CONTEXT.createUnmarshaller();
+		unmarshaller.setSchema(DOMAIN_PROPERTIES_SCHEMA);
+		return unmarshaller;
+	}, JaxbObjectPool.DEFAULT_CAPACITY);
+
 	private static final IllegalArgumentException INVALID_FEATURE_ID_EXCEPTION = new IllegalArgumentException("Invalid feature ID: undefined");
 
 	private static class ReadableDomainPropertiesImpl implements ReadableDomainProperties
@@ -478,6 +593,46 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 	private static final UnsupportedOperationException NULL_PDP_ERROR = new UnsupportedOperationException("PDP internal error. Contact the system or domain administrator.");
 
+	private static String getTimeoutMessage(final EvaluationDeadline deadline)
+	{
+		return deadline.isCancelled() ? "Decision request evaluation cancelled" : "Decision request evaluation timed out";
+	}
+
+	/**
+	 * Creates XACML/XML response to a decision request whose evaluation timed out or was cancelled
+	 */
+	private static Response newXacmlXmlTimeoutResponse(final EvaluationDeadline deadline)
+	{
+		final Status status = new Status(new StatusCode(null, XacmlStatusCode.PROCESSING_ERROR.value()), getTimeoutMessage(deadline), null);
+		return new Response(Collections.singletonList(new Result(DecisionType.INDETERMINATE, status, null, null, null, null)));
+	}
+
+	/**
+	 * Creates XACML/JSON response to a decision request whose evaluation timed out or was cancelled
+	 */
+	private static JSONObject newXacmlJsonTimeoutResponse(final EvaluationDeadline deadline)
+	{
+		final JSONObject status = new JSONObject().put("StatusCode", new JSONObject().put("Value", XacmlStatusCode.PROCESSING_ERROR.value())).put("StatusMessage", getTimeoutMessage(deadline));
+		return new JSONObject().put("Response", new JSONArray().put(new JSONObject().put("Decision", DecisionType.INDETERMINATE.value()).put("Status", status)));
+	}
+
+	/**
+	 * Creates thread factory for background maintenance tasks, i.e. low-priority daemon threads
+	 * 
+	 * @param threadName
+	 *            name of the created thread(s)
+	 * @return thread factory
+	 */
+	private static ThreadFactory newBackgroundThreadFactory(final String threadName)
+	{
+		return runnable -> {
+			final Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		};
+	}
+
 	/**
 	 * Initializes a UUID generator that generates UUID version 1. It is thread-safe and uses the host MAC address as the node field if useRandomAddressBasedUUID = false, in which case UUID uniqueness
 	 * across multiple hosts (e.g. in a High-Availability architecture) is guaranteed. If this is used by multiple hosts to generate UUID for common objects (e.g. in a High Availability architecture),
@@ -512,10 +667,55 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 	private static final class PdpBundle
 	{
+		/*
+		 * Decisions of the pre-serialized responses
+		 */
+		private static final DecisionType[] PRE_SERIALIZED_DECISIONS = { DecisionType.PERMIT, DecisionType.DENY, DecisionType.NOT_APPLICABLE };
+
 		private final CloseablePdpEngine engine;
 		private final PdpEngineInoutAdapter<Request, Response> xacmlJaxbIoAdapter;
 		private final PdpEngineInoutAdapter<JSONObject, JSONObject> xacmlJsonIoAdapter;
 
+		/*
+		 * Pre-serialized responses made of a single Permit, Deny or NotApplicable result without status, obligations, advice, attributes or policy identifiers (i.e. most responses), by decision
+		 */
+		private final Map<DecisionType, byte[]> preSerializedXacmlXmlResponses;
+		private final Map<DecisionType, byte[]> preSerializedXacmlJsonResponses;
+
+		private static Map<DecisionType, byte[]> preSerializeXacmlXmlResponses()
+		{
+			final Map<DecisionType, byte[]> responses = new EnumMap<>(DecisionType.class);
+			for (final DecisionType decision : PRE_SERIALIZED_DECISIONS)
+			{
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				try
+				{
+					FlatFileDAOUtils.marshalResponse(new Response(Collections.singletonList(new Result(decision, null, null, null, null, null))), out);
+				}
+				catch (final JAXBException | IOException e)
+				{
+					LOGGER.warn("Failed to pre-serialize XACML/XML response ({}): responses will be serialized on every request", decision, e);
+					return Collections.emptyMap();
+				}
+
+				responses.put(decision, out.toByteArray());
+			}
+
+			return responses;
+		}
+
+		private static Map<DecisionType, byte[]> preSerializeXacmlJsonResponses()
+		{
+			final Map<DecisionType, byte[]> responses = new EnumMap<>(DecisionType.class);
+			for (final DecisionType decision : PRE_SERIALIZED_DECISIONS)
+			{
+				final JSONObject response = new JSONObject().put("Response", new JSONArray().put(new JSONObject().put("Decision", decision.value())));
+				responses.put(decision, response.toString().getBytes(StandardCharsets.UTF_8));
+			}
+
+			return responses;
+		}
+
 		private PdpBundle(final PdpEngineConfiguration pdpConf, final boolean enableXacmlJsonProfile) throws IllegalArgumentException, IOException
 		{
 			this.engine = new BasePdpEngine(pdpConf);
@@ -561,6 +761,9 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			{
 				this.xacmlJsonIoAdapter = null;
 			}
+
+			this.preSerializedXacmlXmlResponses = preSerializeXacmlXmlResponses();
+			this.preSerializedXacmlJsonResponses = enableXacmlJsonProfile ? preSerializeXacmlJsonResponses() : Collections.emptyMap();
 		}
 
 		private boolean isXacmlXmlSupportEnabled()
@@ -589,6 +792,56 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			return xacmlJsonIoAdapter.evaluate(request);
 		}
 
+		/**
+		 * Get the pre-serialized form of a XACML/XML response, if it is a single Permit, Deny or NotApplicable result without anything else
+		 * 
+		 * @param response
+		 *            response
+		 * @return serialized response; null if no pre-serialized form
+		 */
+		private byte[] getPreSerializedResponse(final Response response)
+		{
+			final List<Result> results = response.getResults();
+			if (results.size() != 1)
+			{
+				return null;
+			}
+
+			final Result result = results.get(0);
+			if (result.getStatus() != null || result.getObligations() != null && !result.getObligations().getObligations().isEmpty()
+			        || result.getAssociatedAdvice() != null && !result.getAssociatedAdvice().getAdvices().isEmpty() || !result.getAttributes().isEmpty() || result.getPolicyIdentifierList() != null)
+			{
+				return null;
+			}
+
+			return preSerializedXacmlXmlResponses.get(result.getDecision());
+		}
+
+		/**
+		 * Get the pre-serialized form of a XACML/JSON response, if it is a single Permit, Deny or NotApplicable result without anything else
+		 * 
+		 * @param response
+		 *            response
+		 * @return serialized response; null if no pre-serialized form
+		 */
+		private byte[] getPreSerializedResponse(final JSONObject response)
+		{
+			final JSONArray results = response.length() == 1 ? response.optJSONArray("Response") : null;
+			if (results == null || results.length() != 1)
+			{
+				return null;
+			}
+
+			final JSONObject result = results.optJSONObject(0);
+			if (result == null || result.length() != 1)
+			{
+				return null;
+			}
+
+			final Object decision = result.opt("Decision");
+			return decision instanceof String ? preSerializedXacmlJsonResponses.get(toDecisionType((String) decision)) : null;
+		}
+
 	}
 
 	private final TimeBasedGenerator uuidGen;
@@ -601,7 +854,27 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 	private final ConcurrentMap<String, DOMAIN_DAO_CLIENT> domainMap = new ConcurrentHashMap<>();
 
 	/**
-	 * Maps domain externalId to unique API-defined domainId in domainMap keys
+	 * IDs of the domains in domainMap, sorted, so that domains may be listed (page by page) without scanning the domains root directory. Updated along with domainMap.
+	 */
+	private final ConcurrentSkipListSet<String> sortedDomainIds = new ConcurrentSkipListSet<>();
+
+	/**
+	 * Domain IDs looked up on the filesystem recently but not found, with the time of the lookup ({@link System#nanoTime()}), so that repeated lookups of unknown domains do not hit the filesystem
+	 */
+	private final ConcurrentMap<String, Long> unknownDomainIds = new ConcurrentHashMap<>();
+
+	private final LongAdder rejectedDomainLookupCount = new LongAdder();
+
+	private final LongAdder filesystemDomainLookupCount = new LongAdder();
+
+	/**
+	 * Lock stripes guarding the addition/removal of domains to/from domainMap: a given domain ID is always guarded by the same stripe (see {@link #getDomainMapLock(String)})
+	 */
+	private final Object[] domainMapLockStripes = new Object[DOMAIN_MAP_LOCK_STRIPE_COUNT];
+
+	/**
+	 * Maps domain externalId to unique API-defined domainId in domainMap keys. Modified with atomic operations only (putIfAbsent, remove(key, value)), so that externalId uniqueness is enforced
+	 * without any global lock.
 	 */
 	private final ConcurrentMap<String, String> domainIDsByExternalId = new ConcurrentHashMap<>();
 
@@ -622,147 +895,1366 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 	private final PolicyVersionDaoClient.Factory<VERSION_DAO_CLIENT> policyVersionDaoClientFactory;
 
 	/**
-	 * Must be called this method in a block synchronized on 'domainsRootDir'
-	 * 
-	 * @param domainId
-	 *            ID of domain to be removed
+	 * Pool of spare domains, null if disabled
+	 */
+	private final SpareDomainPool spareDomainPool;
+
+	private final DecisionMetricsRegistry decisionMetricsRegistry;
+
+	/**
+	 * Scheduler of decision evaluations across domains, null if disabled
 	 */
-	private synchronized void removeDomainFromCache(final String domainId) throws IOException
+	private final EvaluationScheduler evaluationScheduler;
+
+	/**
+	 * Timer interrupting decision request evaluations when their deadline passes (see {@link EvaluationDeadline})
+	 */
+	private final ScheduledThreadPoolExecutor evaluationDeadlineTimer;
+
+	/**
+	 * Max time (in nanoseconds) a decision request waits for the evaluation of an identical request in progress (coalescing) before being evaluated independently; 0 if coalescing disabled
+	 */
+	private final long decisionRequestCoalescingTimeoutNanos;
+
+	private final LongAdder coalescedRequestCount = new LongAdder();
+
+	/**
+	 * Scheduler of the periodic reconciliation of domainMap with the domains root directory (see {@link #reconcileDomains()}), null if synchronization disabled
+	 */
+	private final ScheduledExecutorService domainRegistryReconciler;
+
+	/**
+	 * Spare domain, i.e. domain directory created from the domain template in advance, with the PDP already loaded (unless the PDP configuration depends on the domain directory location), waiting to
+	 * be claimed by a new domain
+	 */
+	private static final class SpareDomain
 	{
+		private final Path dirPath;
 		/*
-		 * Assumed called within synchronized(domainsRootDir) block
+		 * Null if the PDP must be loaded again once the directory is moved to its final location (see isPdpConfLocationIndependent())
 		 */
-		assert domainId != null;
-		final DOMAIN_DAO_CLIENT domain = domainMap.remove(domainId);
-		if (domain == null)
-		{
-			// already removed
-			return;
-		}
+		private final PdpBundle pdp;
+		private final long pdpLoadTime;
 
-		try (final FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT> domainDAO = domain.getDao())
+		private SpareDomain(final Path dirPath, final PdpBundle pdp, final long pdpLoadTime)
 		{
-			final String externalId = domainDAO.getExternalId();
-			if (externalId != null)
-			{
-				domainIDsByExternalId.remove(externalId);
-			}
+			assert dirPath != null;
+			this.dirPath = dirPath;
+			this.pdp = pdp;
+			this.pdpLoadTime = pdpLoadTime;
 		}
 	}
 
-	private final class FileBasedDomainDaoImpl implements FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>
+	private static int countOccurrences(final String s, final String substring)
 	{
+		int count = 0;
+		for (int index = s.indexOf(substring); index != -1; index = s.indexOf(substring, index + substring.length()))
+		{
+			count++;
+		}
 
-		private final String domainId;
-
-		private final Path domainDirPath;
-
-		private final File propertiesFile;
-
-		private final File pdpConfFile;
-
-		private final Path policyParentDirPath;
-
-		private final DefaultEnvironmentProperties pdpConfEnvProps;
-
-		private final SuffixMatchingDirectoryStreamFilter policyFilePathFilter;
+		return count;
+	}
 
-		private final ScheduledExecutorService dirToMemSyncScheduler;
+	/**
+	 * Checks whether a PDP loaded from a domain's PDP configuration file remains valid once the domain directory is moved, i.e. the PARENT_DIR property (domain directory) is used nowhere in the
+	 * configuration but in the policy location pattern of the (flat-file) policy provider, whose policies are all resolved when the PDP is loaded.
+	 * 
+	 * @param pdpConfFile
+	 *            PDP configuration file
+	 * @return true iff the PDP does not depend on the domain directory location
+	 * @throws IOException
+	 *             error reading the PDP configuration file
+	 */
+	private boolean isPdpConfLocationIndependent(final File pdpConfFile) throws IOException
+	{
+		final Pdp pdpConf;
+		final ByteArrayOutputStream pdpConfOut = new ByteArrayOutputStream();
+		try
+		{
+			pdpConf = pdpModelHandler.unmarshal(new StreamSource(pdpConfFile), Pdp.class);
+			/*
+			 * Marshalled again (in UTF-8) to get rid of comments and character references, so that the placeholder is found wherever it is actually used
+			 */
+			pdpModelHandler.marshal(pdpConf, pdpConfOut);
+		}
+		catch (final JAXBException e)
+		{
+			throw new IOException("Error reading PDP configuration file '" + pdpConfFile + "'", e);
+		}
 
-		/*
-		 * Last time when external ID in domain maps was synced with repository (properties file in domain directory (set respectively by saveProperties() and loadProperties() methods only)
-		 */
-		private volatile long propertiesFileLastSyncedTime = 0;
+		final int placeholderCount = countOccurrences(new String(pdpConfOut.toByteArray(), StandardCharsets.UTF_8), PARENT_DIR_PLACEHOLDER_PREFIX);
+		if (placeholderCount == 0)
+		{
+			return true;
+		}
 
-		private volatile String cachedExternalId = null;
+		final List<AbstractPolicyProvider> policyProviders = pdpConf.getPolicyProviders();
+		if (policyProviders.size() != 1 || !(policyProviders.get(0) instanceof StaticFlatFileDaoPolicyProviderDescriptor))
+		{
+			// invalid domain PDP configuration anyway
+			return false;
+		}
 
-		private volatile PdpBundle pdp = null;
+		return countOccurrences(((StaticFlatFileDaoPolicyProviderDescriptor) policyProviders.get(0)).getPolicyLocationPattern(), PARENT_DIR_PLACEHOLDER_PREFIX) == placeholderCount;
+	}
 
-		/**
-		 * Do not make it static (STCAL_INVOKE_ON_STATIC_DATE_FORMAT_INSTANCE raised by spotbugs then) because not thread-safe
-		 */
-		private final DateFormat utcDateWithMillisFormatter;
+	/**
+	 * Pool of spare domains, refilled in the background (low-priority thread) whenever a spare domain is claimed
+	 */
+	private final class SpareDomainPool
+	{
+		private final int capacity;
+		private final BlockingQueue<SpareDomain> spareDomains;
+		private final AtomicInteger pendingSpareDomainCount = new AtomicInteger(0);
+		private final ExecutorService filler;
 
-		/*
-		 * Last time when PDP was (re)loaded from repository (pdp conf and policy files in domain directory) (set only by reloadPDP)
-		 */
-		private volatile long lastPdpSyncedTime = 0;
+		private SpareDomainPool(final int capacity)
+		{
+			assert capacity > 0;
+			this.capacity = capacity;
+			this.spareDomains = new ArrayBlockingQueue<>(capacity);
+			this.filler = Executors.newSingleThreadExecutor(newBackgroundThreadFactory("authzforce-spare-domain-pool-filler"));
+		}
 
-		@Override
-		public DomainProperties sync() throws IOException, IllegalArgumentException
+		private SpareDomain newSpareDomain() throws IOException, IllegalArgumentException
 		{
-			/*
-			 * synchronized block makes sure no other thread is messing with the domain directory while we synchronize it to domainMap. See also method #add(Properties)
-			 */
-			final DomainProperties props;
-			synchronized (domainsRootDir)
+			final Path spareDomainDir = domainsRootDir.resolve(SPARE_DOMAIN_DIRNAME_PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+			FlatFileDAOUtils.linkOrCopyDirectory(domainTmplDirPath, spareDomainDir, 3);
+			try
 			{
-				LOGGER.debug("Domain '{}': synchronizing...", domainId);
-				if (Files.notExists(domainDirPath, LinkOption.NOFOLLOW_LINKS))
-				{
-					// DOMAIN DIRECTORY REMOVED
-					LOGGER.info("Domain '{}' removed from filesystem -> removing from cache", domainId);
-					removeDomainFromCache(domainId);
-					return null;
-				}
-
-				// SYNC DOMAIN DIRECTORY
-				props = syncDomainProperties(false);
-				final boolean isChanged = syncPDP();
-				if (isChanged)
+				final long pdpLoadTime = System.currentTimeMillis();
+				final File pdpConfFile = spareDomainDir.resolve(DOMAIN_PDP_CONFIG_FILENAME).toFile();
+				if (!isPdpConfLocationIndependent(pdpConfFile))
 				{
-					LOGGER.info("Domain '{}': synchronization: change to PDP files since last sync -> PDP reloaded", domainId);
+					LOGGER.debug("PDP configuration of domain template '{}' depends on the domain directory location: PDP of spare domain '{}' to be loaded when claimed", domainTmplDirPath,
+					        spareDomainDir);
+					return new SpareDomain(spareDomainDir, null, pdpLoadTime);
 				}
 
-				LOGGER.debug("Domain '{}': synchronization done.", domainId);
+				final PdpEngineConfiguration pdpEngineConf = PdpEngineConfiguration.getInstance(pdpConfFile, pdpModelHandler);
+				return new SpareDomain(spareDomainDir, new PdpBundle(pdpEngineConf, enableXacmlJsonProfile), pdpLoadTime);
+			}
+			catch (final IOException | RuntimeException e)
+			{
+				FlatFileDAOUtils.deleteDirectory(spareDomainDir, 3);
+				throw e;
 			}
-
-			return props;
 		}
 
 		/**
-		 * this is run by domainDirToMemSyncScheduler
+		 * Schedule creation of as many spare domains as necessary to fill the pool
 		 */
-		private final class DirectoryToMemorySyncTask implements Runnable
+		private void fill()
 		{
-			@Override
-			public void run()
+			while (spareDomains.size() + pendingSpareDomainCount.get() < capacity)
 			{
+				pendingSpareDomainCount.incrementAndGet();
 				try
 				{
-					sync();
-
+					filler.execute(() -> {
+						try
+						{
+							final SpareDomain spareDomain = newSpareDomain();
+							if (!spareDomains.offer(spareDomain))
+							{
+								discard(spareDomain);
+							}
+						}
+						catch (final Throwable e)
+						{
+							LOGGER.error("Failed to create spare domain from domain template '{}'", domainTmplDirPath, e);
+						}
+						finally
+						{
+							pendingSpareDomainCount.decrementAndGet();
+						}
+					});
 				}
-				catch (final Throwable e)
+				catch (final RejectedExecutionException e)
 				{
-					LOGGER.error("Domain '{}': error occurred during synchronization", domainId, e);
+					// pool closed
+					pendingSpareDomainCount.decrementAndGet();
+					return;
 				}
 			}
 		}
 
 		/**
-		 * Constructs end-user policy admin domain. Must be called must use synchronized (domainsRootDir) block.
+		 * Claim a spare domain and schedule its replacement
 		 * 
-		 * @param domainDirPath
-		 *            domain directory
-		 * @param props
-		 *            new domain properties for new domain creation, null if no specific properties (use default properties)
-		 * @throws IllegalArgumentException
-		 *             Invalid configuration files in {@code domainDir}
-		 * @throws IOException
-		 *             Error loading configuration file(s) from or persisting {@code props} (if not null) to {@code domainDir}
+		 * @return spare domain, or null if none available yet
 		 */
-		private FileBasedDomainDaoImpl(final Path domainDirPath, final WritableDomainProperties props) throws IOException
+		private SpareDomain claim()
 		{
-			assert domainDirPath != null;
+			final SpareDomain spareDomain = spareDomains.poll();
+			fill();
+			return spareDomain;
+		}
 
-			final Path domainFileName = domainDirPath.getFileName();
-			if (domainFileName == null)
-			{
+		private void discard(final SpareDomain spareDomain)
+		{
+			try
+			{
+				if (spareDomain.pdp != null)
+				{
+					spareDomain.pdp.engine.close();
+				}
+
+				FlatFileDAOUtils.deleteDirectory(spareDomain.dirPath, 3);
+			}
+			catch (final IOException e)
+			{
+				LOGGER.error("Failed to remove spare domain directory '{}'", spareDomain.dirPath, e);
+			}
+		}
+
+		private void close()
+		{
+			filler.shutdownNow();
+			try
+			{
+				if (!filler.awaitTermination(SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS))
+				{
+					LOGGER.error("Spare domain pool: timeout ({}s) occurred before spare domain creation could terminate after shutdown request.", SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC);
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				LOGGER.error("Spare domain pool: interrupted while waiting for spare domain creation to complete", e);
+				Thread.currentThread().interrupt();
+			}
+
+			SpareDomain spareDomain;
+			while ((spareDomain = spareDomains.poll()) != null)
+			{
+				discard(spareDomain);
+			}
+		}
+	}
+
+	/**
+	 * Deleter of removed domains' directories, moved to the trash directory first
+	 */
+	private final TrashedDirectoryDeleter trashedDomainDirDeleter;
+
+	/**
+	 * Entry of the persistent externalId index: externalId of a domain as read from the domain properties file, with the last modification time and size of this file at the time
+	 */
+	private static final class ExternalIdIndexEntry
+	{
+		private final long propertiesFileLastModifiedTime;
+		private final long propertiesFileSize;
+		private final String externalId;
+
+		private ExternalIdIndexEntry(final long propertiesFileLastModifiedTime, final long propertiesFileSize, final String externalId)
+		{
+			this.propertiesFileLastModifiedTime = propertiesFileLastModifiedTime;
+			this.propertiesFileSize = propertiesFileSize;
+			this.externalId = externalId;
+		}
+
+		/**
+		 * @return true iff the properties file attributes match the ones of the file from which the externalId was read
+		 */
+		private boolean matches(final BasicFileAttributes propertiesFileAttributes)
+		{
+			return propertiesFileAttributes.lastModifiedTime().toMillis() == propertiesFileLastModifiedTime && propertiesFileAttributes.size() == propertiesFileSize;
+		}
+	}
+
+	/**
+	 * Persistent externalId index, i.e. file in the domains root directory mapping each domain ID to the domain's externalId, with the last modification time and size of the properties file from
+	 * which the externalId was read. At startup, domains whose properties file still matches the index entry get their externalId from the index instead of parsing the properties file (parsed
+	 * later, only when needed). The file is written atomically in the background after changes (successive changes are coalesced), so it may be stale after a crash; but then the stale entries no
+	 * longer match the properties files and are ignored.
+	 */
+	private final class ExternalIdIndexFile
+	{
+		private static final String FILE_HEADER = "# AuthzForce domain externalId index v1";
+		private static final String FIELD_SEPARATOR = "\t";
+
+		private final Path filePath;
+		private final ExecutorService writer;
+		private final AtomicBoolean isWriteRequested = new AtomicBoolean(false);
+
+		private ExternalIdIndexFile(final Path filePath)
+		{
+			assert filePath != null;
+			this.filePath = filePath;
+			this.writer = Executors.newSingleThreadExecutor(newBackgroundThreadFactory("authzforce-externalId-index-writer"));
+		}
+
+		/**
+		 * Reads the index file
+		 * 
+		 * @return index entries by domain ID; empty if the file does not exist or is invalid
+		 */
+		private Map<String, ExternalIdIndexEntry> read()
+		{
+			if (Files.notExists(filePath))
+			{
+				return Collections.emptyMap();
+			}
+
+			final Map<String, ExternalIdIndexEntry> entries = new HashMap<>();
+			try (final BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8))
+			{
+				if (!FILE_HEADER.equals(reader.readLine()))
+				{
+					LOGGER.warn("Ignoring externalId index file '{}': unknown format", filePath);
+					return Collections.emptyMap();
+				}
+
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					// domainId, properties file lastModifiedTime, properties file size[, base64url-encoded externalId]
+					final String[] fields = line.split(FIELD_SEPARATOR, -1);
+					if (fields.length != 3 && fields.length != 4)
+					{
+						throw new IllegalArgumentException("Invalid entry: " + line);
+					}
+
+					entries.put(fields[0], new ExternalIdIndexEntry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields.length == 4 ? FlatFileDAOUtils.base64UrlDecode(fields[3]) : null));
+				}
+			}
+			catch (final IOException | IllegalArgumentException e)
+			{
+				LOGGER.warn("Ignoring invalid externalId index file '{}' (domain properties files will be parsed)", filePath, e);
+				return Collections.emptyMap();
+			}
+
+			return entries;
+		}
+
+		/**
+		 * Requests to write the index in the background, unless already requested and not written yet
+		 */
+		private void requestWrite()
+		{
+			if (isWriteRequested.compareAndSet(false, true))
+			{
+				try
+				{
+					writer.execute(this::write);
+				}
+				catch (final RejectedExecutionException e)
+				{
+					// closed
+					isWriteRequested.set(false);
+				}
+			}
+		}
+
+		private void write()
+		{
+			// changes after this point trigger a new write
+			isWriteRequested.set(false);
+			final StringBuilder content = new StringBuilder(FILE_HEADER).append('\n');
+			for (final DOMAIN_DAO_CLIENT domain : domainMap.values())
+			{
+				final FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT> domainDao = domain.getDao();
+				if (!(domainDao instanceof FlatFileBasedDomainsDao<?, ?, ?>.FileBasedDomainDaoImpl))
+				{
+					continue;
+				}
+
+				final ExternalIdIndexEntry entry = ((FlatFileBasedDomainsDao<?, ?, ?>.FileBasedDomainDaoImpl) domainDao).getExternalIdIndexEntry();
+				if (entry != null)
+				{
+					content.append(domainDao.getDomainId()).append(FIELD_SEPARATOR).append(entry.propertiesFileLastModifiedTime).append(FIELD_SEPARATOR).append(entry.propertiesFileSize);
+					if (entry.externalId != null)
+					{
+						content.append(FIELD_SEPARATOR).append(FlatFileDAOUtils.base64UrlEncode(entry.externalId));
+					}
+
+					content.append('\n');
+				}
+			}
+
+			try
+			{
+				FlatFileDAOUtils.writeFileAtomically(filePath, file -> Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8)));
+			}
+			catch (final IOException e)
+			{
+				LOGGER.error("Failed to write externalId index file '{}'", filePath, e);
+			}
+		}
+
+		/**
+		 * Writes pending changes and stops the writer
+		 */
+		private void close()
+		{
+			writer.shutdown();
+			try
+			{
+				if (!writer.awaitTermination(SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS))
+				{
+					LOGGER.warn("externalId index writer: timeout ({}s) occurred before the index could be written after shutdown request.", SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC);
+					writer.shutdownNow();
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				LOGGER.error("externalId index writer: interrupted while waiting for the index to be written", e);
+				writer.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Persistent externalId index, null if disabled (PDP-only mode)
+	 */
+	private final ExternalIdIndexFile externalIdIndexFile;
+
+	/**
+	 * Entries of the persistent externalId index read at startup, to be used by domains loaded at startup; null after startup
+	 */
+	private volatile Map<String, ExternalIdIndexEntry> externalIdIndexAtStartup;
+
+	private void requestExternalIdIndexWrite()
+	{
+		// at startup, the index is written once all domains are loaded
+		if (externalIdIndexFile != null && externalIdIndexAtStartup == null)
+		{
+			externalIdIndexFile.requestWrite();
+		}
+	}
+
+	/**
+	 * Deletes directories in the background (low-priority thread) once they have been moved to the trash directory. Directories left in the trash directory (e.g. after a shutdown) are deleted when
+	 * {@link #resume()} is called.
+	 */
+	private static final class TrashedDirectoryDeleter
+	{
+		private final Path trashDirPath;
+		private final ExecutorService executor;
+		private final AtomicInteger pendingDirCount = new AtomicInteger(0);
+		private final LongAdder deletedDirCount = new LongAdder();
+		private final LongAdder deletedFileCount = new LongAdder();
+		private final LongAdder deletedByteCount = new LongAdder();
+
+		private TrashedDirectoryDeleter(final Path trashDirPath)
+		{
+			assert trashDirPath != null;
+			this.trashDirPath = trashDirPath;
+			this.executor = Executors.newSingleThreadExecutor(newBackgroundThreadFactory("authzforce-trashed-domain-deleter"));
+		}
+
+		/**
+		 * Move directory to the trash directory (atomically) and schedule its deletion
+		 * 
+		 * @param dirPath
+		 *            directory to be deleted, must be on the same filesystem as the trash directory
+		 * @param name
+		 *            name to be used as prefix of the directory name in the trash
+		 * @throws IOException
+		 *             error moving {@code dirPath} to the trash directory
+		 */
+		private void delete(final Path dirPath, final String name) throws IOException
+		{
+			Files.createDirectories(trashDirPath);
+			final Path trashedDirPath = trashDirPath.resolve(name + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+			Files.move(dirPath, trashedDirPath, StandardCopyOption.ATOMIC_MOVE);
+			scheduleDeletion(trashedDirPath);
+		}
+
+		private void scheduleDeletion(final Path trashedDirPath)
+		{
+			pendingDirCount.incrementAndGet();
+			try
+			{
+				executor.execute(() -> {
+					try
+					{
+						FlatFileDAOUtils.deleteDirectory(trashedDirPath, 3, fileSize -> {
+							deletedFileCount.increment();
+							deletedByteCount.add(fileSize);
+						});
+						deletedDirCount.increment();
+						LOGGER.debug("Deleted trashed directory '{}'", trashedDirPath);
+					}
+					catch (final Throwable e)
+					{
+						LOGGER.error("Failed to delete trashed directory '{}' (deletion will be retried after restart)", trashedDirPath, e);
+					}
+					finally
+					{
+						pendingDirCount.decrementAndGet();
+					}
+				});
+			}
+			catch (final RejectedExecutionException e)
+			{
+				pendingDirCount.decrementAndGet();
+				LOGGER.warn("Deletion of trashed directory '{}' postponed until restart (deleter closed)", trashedDirPath);
+			}
+		}
+
+		/**
+		 * Schedule deletion of any directory left in the trash directory
+		 * 
+		 * @throws IOException
+		 *             error listing files in the trash directory
+		 */
+		private void resume() throws IOException
+		{
+			if (!Files.isDirectory(trashDirPath, LinkOption.NOFOLLOW_LINKS))
+			{
+				return;
+			}
+
+			try (final DirectoryStream<Path> trashDirStream = Files.newDirectoryStream(trashDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
+			{
+				for (final Path trashedDirPath : trashDirStream)
+				{
+					LOGGER.info("Resuming deletion of trashed directory '{}'", trashedDirPath);
+					scheduleDeletion(trashedDirPath);
+				}
+			}
+		}
+
+		private void close()
+		{
+			executor.shutdown();
+			try
+			{
+				if (!executor.awaitTermination(SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS))
+				{
+					LOGGER.warn("Trashed directory deleter: timeout ({}s) occurred before pending deletions could terminate after shutdown request. Deletions will be resumed after restart.",
+					        SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC);
+					executor.shutdownNow();
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				LOGGER.error("Trashed directory deleter: interrupted while waiting for pending deletions to complete", e);
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Remover of excess policy versions of a given policy, called by the {@link PolicyVersionCollector}
+	 */
+	@FunctionalInterface
+	private interface ExcessPolicyVersionRemover
+	{
+		/**
+		 * Removes excess versions of the policy, at most {@code maxCount}
+		 * 
+		 * @param maxCount
+		 *            max number of versions to be removed
+		 * @return number of versions actually removed; if less than {@code maxCount}, there is no excess version left
+		 * @throws IOException
+		 *             error removing a policy version file
+		 */
+		int removeExcessVersions(int maxCount) throws IOException;
+	}
+
+	/**
+	 * Removes the oldest versions of policies in excess of the domain's max number of versions per policy (version rolling), in the background (low-priority thread) and in small batches paused in
+	 * between (I/O throttling), so that adding a policy version never has to remove files while holding the domain lock. Requests for the same policy are coalesced until the policy is actually
+	 * processed.
+	 */
+	private static final class PolicyVersionCollector
+	{
+		private final ExecutorService executor;
+		private final Set<String> pendingPolicyKeys = ConcurrentHashMap.newKeySet();
+		private final LongAdder removedVersionCount = new LongAdder();
+
+		private PolicyVersionCollector()
+		{
+			this.executor = Executors.newSingleThreadExecutor(newBackgroundThreadFactory("authzforce-policy-version-collector"));
+		}
+
+		/**
+		 * Schedule the removal of excess versions of a policy
+		 * 
+		 * @param domainId
+		 *            domain ID
+		 * @param policyId
+		 *            policy ID
+		 * @param remover
+		 *            remover of the policy's excess versions
+		 */
+		private void request(final String domainId, final String policyId, final ExcessPolicyVersionRemover remover)
+		{
+			// domain IDs never contain '/'
+			final String policyKey = domainId + "/" + policyId;
+			if (!pendingPolicyKeys.add(policyKey))
+			{
+				// already pending
+				return;
+			}
+
+			try
+			{
+				executor.execute(() -> {
+					/*
+					 * Not pending anymore from now on, so that versions added while this is running are handled by a new request
+					 */
+					pendingPolicyKeys.remove(policyKey);
+					try
+					{
+						int removedCount;
+						do
+						{
+							removedCount = remover.removeExcessVersions(POLICY_VERSION_COLLECTION_BATCH_SIZE);
+							removedVersionCount.add(removedCount);
+							if (removedCount == POLICY_VERSION_COLLECTION_BATCH_SIZE)
+							{
+								Thread.sleep(POLICY_VERSION_COLLECTION_BATCH_PAUSE_MILLIS);
+							}
+						}
+						while (removedCount == POLICY_VERSION_COLLECTION_BATCH_SIZE);
+					}
+					catch (final InterruptedException e)
+					{
+						LOGGER.info("Removal of excess versions of policy '{}' in domain '{}' interrupted (collector closed)", policyId, domainId);
+						Thread.currentThread().interrupt();
+					}
+					catch (final Throwable e)
+					{
+						LOGGER.error("Failed to remove excess versions of policy '{}' in domain '{}' (removal will be retried next time a version of the policy is added)", policyId, domainId, e);
+					}
+				});
+			}
+			catch (final RejectedExecutionException e)
+			{
+				pendingPolicyKeys.remove(policyKey);
+				LOGGER.warn("Removal of excess versions of policy '{}' in domain '{}' skipped (collector closed)", policyId, domainId);
+			}
+		}
+
+		private void close()
+		{
+			executor.shutdown();
+			try
+			{
+				if (!executor.awaitTermination(SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS))
+				{
+					LOGGER.warn(
+					        "Policy version collector: timeout ({}s) occurred before pending removals could terminate after shutdown request. Excess versions will be removed next time a version of the policy is added.",
+					        SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC);
+					executor.shutdownNow();
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				LOGGER.error("Policy version collector: interrupted while waiting for pending removals to complete", e);
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Background collector of excess policy versions (version rolling)
+	 */
+	private final PolicyVersionCollector policyVersionCollector;
+
+	/**
+	 * Get the lock guarding the registration/unregistration of a given domain in domainMap, i.e. one of the lock stripes (so that operations on different domains rarely contend)
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return domain's lock stripe
+	 */
+	private Object getDomainMapLock(final String domainId)
+	{
+		return domainMapLockStripes[(domainId.hashCode() & Integer.MAX_VALUE) % domainMapLockStripes.length];
+	}
+
+	/**
+	 * Checks whether a domain ID may have been generated by this DAO (or another instance sharing the same domains root directory), i.e. is a base64url-encoded time-based UUID, without any
+	 * filesystem access
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return true iff {@code domainId} is a valid generated domain ID
+	 */
+	private static boolean isGeneratedDomainId(final String domainId)
+	{
+		if (!GENERATED_DOMAIN_ID_PATTERN.matcher(domainId).matches())
+		{
+			return false;
+		}
+
+		final ByteBuffer uuidBytes;
+		try
+		{
+			uuidBytes = ByteBuffer.wrap(Base64.getUrlDecoder().decode(domainId));
+		}
+		catch (final IllegalArgumentException e)
+		{
+			return false;
+		}
+
+		// UUID version 1 (time-based), IETF variant
+		final long mostSigBits = uuidBytes.getLong();
+		final long leastSigBits = uuidBytes.getLong();
+		return (mostSigBits >>> 12 & 0xF) == 1 && leastSigBits >>> 62 == 2;
+	}
+
+	/**
+	 * Looks for a domain missing from domainMap on the filesystem, in case it has been created by other means than this DAO (e.g. another instance sharing the same domains root directory) since
+	 * the last synchronization, and loads it if found. Domain IDs that cannot have been generated by a DAO instance (see {@link #isGeneratedDomainId(String)}), or that were not found on the
+	 * filesystem recently, are rejected without any filesystem access. Domain directories with other names are only loaded at startup or by {@link #reconcileDomains()}.
+	 * 
+	 * @param domainId
+	 *            domain ID
+	 * @return domain; null if unknown
+	 * @throws IOException
+	 *             error loading the domain
+	 */
+	private DOMAIN_DAO_CLIENT lookUpDomainOnFilesystem(final String domainId) throws IOException
+	{
+		if (!isGeneratedDomainId(domainId))
+		{
+			rejectedDomainLookupCount.increment();
+			return null;
+		}
+
+		final Long unknownSinceTime = unknownDomainIds.get(domainId);
+		if (unknownSinceTime != null)
+		{
+			if (System.nanoTime() - unknownSinceTime < UNKNOWN_DOMAIN_ID_TTL_NANOS)
+			{
+				rejectedDomainLookupCount.increment();
+				return null;
+			}
+
+			unknownDomainIds.remove(domainId, unknownSinceTime);
+		}
+
+		/*
+		 * Check whether domain directory exists (in case it is not synchronized with domain map) outside the lock first, as a fast filter: only found domains are checked again and added with the
+		 * lock
+		 */
+		filesystemDomainLookupCount.increment();
+		final Path domainDir = this.domainsRootDir.resolve(domainId);
+		if (!Files.exists(domainDir, LinkOption.NOFOLLOW_LINKS))
+		{
+			if (unknownDomainIds.size() >= MAX_UNKNOWN_DOMAIN_ID_COUNT)
+			{
+				unknownDomainIds.clear();
+			}
+
+			unknownDomainIds.put(domainId, System.nanoTime());
+			return null;
+		}
+
+		/*
+		 * Synchronized block to avoid that two threads add the same desynced domain entry to the map
+		 */
+		synchronized (getDomainMapLock(domainId))
+		{
+			final DOMAIN_DAO_CLIENT domain = domainMap.get(domainId);
+			if (domain != null)
+			{
+				return domain;
+			}
+
+			/*
+			 * The domain may have been removed (directory moved to the trash) since the check above, e.g. by removeDomain() or reconcileDomains()
+			 */
+			if (!Files.exists(domainDir, LinkOption.NOFOLLOW_LINKS))
+			{
+				return null;
+			}
+
+			return addDomainToCacheAfterDirectoryCreated(domainId, domainDir, null, null);
+		}
+	}
+
+	private static DecisionType toDecisionType(final String xacmlJsonDecision)
+	{
+		switch (xacmlJsonDecision)
+		{
+			case "Permit":
+				return DecisionType.PERMIT;
+			case "Deny":
+				return DecisionType.DENY;
+			case "NotApplicable":
+				return DecisionType.NOT_APPLICABLE;
+			default:
+				return DecisionType.INDETERMINATE;
+		}
+	}
+
+	/**
+	 * Key of a decision request evaluation in progress, for coalescing identical requests: the request (or a normalized form of it) and the PDP evaluating it, so that a request never gets the
+	 * result of an evaluation by a PDP replaced since (e.g. after a policy change)
+	 */
+	private static final class InFlightRequestKey
+	{
+		private final PdpBundle pdp;
+		private final Object request;
+		private final int hashCode;
+
+		private InFlightRequestKey(final PdpBundle pdp, final Object request, final int requestHashCode)
+		{
+			assert pdp != null && request != null;
+			this.pdp = pdp;
+			this.request = request;
+			this.hashCode = 31 * System.identityHashCode(pdp) + requestHashCode;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+
+			if (!(obj instanceof InFlightRequestKey))
+			{
+				return false;
+			}
+
+			final InFlightRequestKey other = (InFlightRequestKey) obj;
+			return hashCode == other.hashCode && pdp == other.pdp && request.equals(other.request);
+		}
+	}
+
+	/**
+	 * Waits for the result of the evaluation of an identical decision request (coalescing)
+	 * 
+	 * @param sharedEvaluation
+	 *            evaluation of the identical request
+	 * @param timeoutNanos
+	 *            max time to wait, in nanoseconds
+	 * @param domainId
+	 *            domain ID (for error messages)
+	 * @return result; null if the evaluation is not done before the timeout
+	 * @throws RejectedExecutionException
+	 *             if the calling thread is interrupted while waiting (interrupt status restored)
+	 */
+	private static <RESPONSE> RESPONSE awaitSharedEvaluation(final CompletableFuture<RESPONSE> sharedEvaluation, final long timeoutNanos, final String domainId) throws RejectedExecutionException
+	{
+		try
+		{
+			return sharedEvaluation.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+		catch (final TimeoutException e)
+		{
+			return null;
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Decision request of domain '" + domainId + "' interrupted while waiting for the evaluation of an identical request", e);
+		}
+		catch (final ExecutionException e)
+		{
+			// same error as the identical request
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Get the first {@link IOException} in the chain of causes of an error, e.g. to tell I/O errors apart from invalid input when parsing a request
+	 * 
+	 * @param error
+	 *            error
+	 * @return first I/O exception cause; null if none
+	 */
+	private static IOException getIOExceptionCause(final Throwable error)
+	{
+		for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof IOException)
+			{
+				return (IOException) cause;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Parses a XACML/XML request directly from a stream with StAX, i.e. without reading it into memory or building a DOM first
+	 * 
+	 * @param input
+	 *            input stream (not closed by this method)
+	 * @return JAXB request
+	 * @throws IOException
+	 *             error reading the input stream
+	 * @throws IllegalArgumentException
+	 *             input is not a valid XACML 3.0 Request document
+	 */
+	private static Request readXacmlXmlRequest(final InputStream input) throws IOException, IllegalArgumentException
+	{
+		try
+		{
+			return FlatFileDAOUtils.unmarshalRequest(input);
+		}
+		catch (final JAXBException e)
+		{
+			final IOException ioException = getIOExceptionCause(e);
+			if (ioException != null)
+			{
+				throw ioException;
+			}
+
+			throw new IllegalArgumentException("Invalid XACML/XML request", e);
+		}
+	}
+
+	/**
+	 * Serializes a XACML/XML response directly to an output stream (UTF-8)
+	 * 
+	 * @param response
+	 *            JAXB response
+	 * @param output
+	 *            output stream (flushed but not closed by this method)
+	 * @throws IOException
+	 *             error writing to the output stream
+	 */
+	private static void writeXacmlXmlResponse(final Response response, final OutputStream output) throws IOException
+	{
+		try
+		{
+			FlatFileDAOUtils.marshalResponse(response, output);
+		}
+		catch (final JAXBException e)
+		{
+			final IOException ioException = getIOExceptionCause(e);
+			throw ioException != null ? ioException : new IOException("Error writing XACML/XML response", e);
+		}
+	}
+
+	/**
+	 * Parses a XACML/JSON request directly from a stream of UTF-8 bytes, i.e. without reading it into a string first
+	 * 
+	 * @param input
+	 *            input stream (not closed by this method)
+	 * @return JSON request
+	 * @throws IOException
+	 *             error reading the input stream
+	 * @throws IllegalArgumentException
+	 *             input is not a (single) JSON object
+	 */
+	private static JSONObject readXacmlJsonRequest(final InputStream input) throws IOException, IllegalArgumentException
+	{
+		final JSONTokener tokener = new JSONTokener(new InputStreamReader(input, StandardCharsets.UTF_8));
+		try
+		{
+			final JSONObject request = new JSONObject(tokener);
+			if (tokener.nextClean() != 0)
+			{
+				throw tokener.syntaxError("Unexpected content after the JSON object");
+			}
+
+			return request;
+		}
+		catch (final JSONException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+
+			throw new IllegalArgumentException("Invalid XACML/JSON request: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Serializes a XACML/JSON response directly to an output stream (UTF-8), i.e. without serializing it to a string first
+	 * 
+	 * @param response
+	 *            JSON response
+	 * @param output
+	 *            output stream (flushed but not closed by this method)
+	 * @throws IOException
+	 *             error writing to the output stream
+	 */
+	private static void writeXacmlJsonResponse(final JSONObject response, final OutputStream output) throws IOException
+	{
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+		try
+		{
+			response.write(writer);
+		}
+		catch (final JSONException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+
+			throw e;
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Serializes a JSON object in a canonical form (keys sorted, no whitespace), so that two JSON objects with the same content have the same canonical form
+	 * 
+	 * @param json
+	 *            JSON object
+	 * @return canonical JSON
+	 */
+	private static String toCanonicalJson(final JSONObject json)
+	{
+		final StringBuilder sb = new StringBuilder();
+		appendCanonicalJson(json, sb);
+		return sb.toString();
+	}
+
+	private static void appendCanonicalJson(final Object value, final StringBuilder sb)
+	{
+		if (value instanceof JSONObject)
+		{
+			final JSONObject jsonObject = (JSONObject) value;
+			sb.append('{');
+			boolean isFirst = true;
+			for (final String key : new TreeSet<>(jsonObject.keySet()))
+			{
+				if (!isFirst)
+				{
+					sb.append(',');
+				}
+
+				isFirst = false;
+				sb.append(JSONObject.quote(key)).append(':');
+				appendCanonicalJson(jsonObject.opt(key), sb);
+			}
+
+			sb.append('}');
+		}
+		else if (value instanceof JSONArray)
+		{
+			final JSONArray jsonArray = (JSONArray) value;
+			sb.append('[');
+			for (int i = 0; i < jsonArray.length(); i++)
+			{
+				if (i > 0)
+				{
+					sb.append(',');
+				}
+
+				appendCanonicalJson(jsonArray.opt(i), sb);
+			}
+
+			sb.append(']');
+		}
+		else
+		{
+			sb.append(JSONObject.valueToString(value));
+		}
+	}
+
+	/**
+	 * Must be called this method in a block synchronized on {@code getDomainMapLock(domainId)}
+	 * 
+	 * @param domainId
+	 *            ID of domain to be removed
+	 */
+	private void removeDomainFromCache(final String domainId) throws IOException
+	{
+		/*
+		 * Assumed called within synchronized(getDomainMapLock(domainId)) block
+		 */
+		assert domainId != null;
+		final DOMAIN_DAO_CLIENT domain = domainMap.remove(domainId);
+		if (domain == null)
+		{
+			// already removed
+			return;
+		}
+
+		sortedDomainIds.remove(domainId);
+		requestExternalIdIndexWrite();
+
+		decisionMetricsRegistry.removeDomainMetrics(domainId);
+		if (evaluationScheduler != null)
+		{
+			evaluationScheduler.removeBulkhead(domainId);
+		}
+
+		try (final FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT> domainDAO = domain.getDao())
+		{
+			final String externalId = domainDAO.getExternalId();
+			if (externalId != null)
+			{
+				domainIDsByExternalId.remove(externalId, domainId);
+			}
+		}
+	}
+
+	/**
+	 * Domain properties as parsed from the properties file, with the file's last modification time and size at the time it was parsed. Immutable: the properties must never be modified but copied
+	 * (see {@link #copyProperties()}).
+	 */
+	private static final class CachedDomainProperties
+	{
+		private final DomainProperties props;
+		private final long fileLastModifiedTime;
+		private final long fileSize;
+		private final int evaluationWeight;
+
+		private CachedDomainProperties(final DomainProperties props, final BasicFileAttributes fileAttributes)
+		{
+			assert props != null && fileAttributes != null;
+			this.props = props;
+			this.fileLastModifiedTime = fileAttributes.lastModifiedTime().toMillis();
+			this.fileSize = fileAttributes.size();
+			this.evaluationWeight = props.getEvaluationWeight() == null ? EvaluationScheduler.DEFAULT_WEIGHT : props.getEvaluationWeight();
+		}
+
+		/**
+		 * @return true iff the file attributes match the ones of the file from which the cached properties were parsed
+		 */
+		private boolean isUpToDate(final BasicFileAttributes fileAttributes)
+		{
+			return fileAttributes.lastModifiedTime().toMillis() == fileLastModifiedTime && fileAttributes.size() == fileSize;
+		}
+
+		private DomainProperties copyProperties()
+		{
+			return copy(props);
+		}
+
+		private static DomainProperties copy(final DomainProperties props)
+		{
+			return new DomainProperties(props.getDescription(), props.getExternalId(), props.getMaxPolicyCount(), props.getMaxVersionCountPerPolicy(), props.isVersionRollingEnabled(),
+			        props.getEvaluationWeight());
+		}
+	}
+
+	private final class FileBasedDomainDaoImpl implements FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>
+	{
+
+		private final String domainId;
+
+		private final Path domainDirPath;
+
+		private final File propertiesFile;
+
+		private final File pdpConfFile;
+
+		private final Path policyParentDirPath;
+
+		private final DefaultEnvironmentProperties pdpConfEnvProps;
+
+		private final SuffixMatchingDirectoryStreamFilter policyFilePathFilter;
+
+		private final ScheduledExecutorService dirToMemSyncScheduler;
+
+		/*
+		 * Last time when external ID in domain maps was synced with repository (properties file in domain directory (set respectively by saveProperties() and loadProperties() methods only)
+		 */
+		private volatile long propertiesFileLastSyncedTime = 0;
+
+		/*
+		 * Domain properties last loaded from or saved to the properties file, null if none yet
+		 */
+		private volatile CachedDomainProperties cachedProperties = null;
+
+		private volatile String cachedExternalId = null;
+
+		/*
+		 * externalId index entry from which cachedExternalId was initialized at startup (instead of parsing the properties file), null if none
+		 */
+		private volatile ExternalIdIndexEntry loadedExternalIdIndexEntry = null;
+
+		private volatile PdpBundle pdp = null;
+
+		private final DecisionMetricsRegistry.DomainDecisionMetrics decisionMetrics;
+
+		/*
+		 * Domain's bulkhead in the evaluation scheduler, null if no scheduler
+		 */
+		private final EvaluationScheduler.DomainBulkhead evaluationBulkhead;
+
+		/*
+		 * XACML/XML and XACML/JSON decision request evaluations in progress, for coalescing identical requests; null if coalescing disabled
+		 */
+		private final ConcurrentMap<InFlightRequestKey, CompletableFuture<Response>> xacmlXmlEvaluationsInFlight;
+		private final ConcurrentMap<InFlightRequestKey, CompletableFuture<JSONObject>> xacmlJsonEvaluationsInFlight;
+
+		/*
+		 * Last time when PDP was (re)loaded from repository (pdp conf and policy files in domain directory) (set only by reloadPDP)
+		 */
+		private volatile long lastPdpSyncedTime = 0;
+
+		/*
+		 * Lock on the domain directory and PDP: PAP read-only operations hold the read lock so that they can proceed in parallel, whereas operations changing the domain directory or reloading the PDP
+		 * hold the write lock
+		 */
+		private final ReentrantReadWriteLock domainDirLock = new ReentrantReadWriteLock();
+
+
+		@Override
+		public DomainProperties sync() throws IOException, IllegalArgumentException
+		{
+			LOGGER.debug("Domain '{}': synchronizing...", domainId);
+			final FlatFileDaoEvents.DomainSync syncEvent = new FlatFileDaoEvents.DomainSync();
+			syncEvent.begin();
+			syncEvent.filesChecked = 1;
+			if (Files.notExists(domainDirPath, LinkOption.NOFOLLOW_LINKS))
+			{
+				// DOMAIN DIRECTORY REMOVED
+				LOGGER.info("Domain '{}' removed from filesystem -> removing from cache", domainId);
+				/*
+				 * synchronized block makes sure no other thread is adding/removing the same domain to/from domainMap at the same time. See also method #addDomain(Properties)
+				 */
+				synchronized (getDomainMapLock(domainId))
+				{
+					removeDomainFromCache(domainId);
+				}
+
+				syncEvent.changesFound = 1;
+				commitSyncEvent(syncEvent);
+				return null;
+			}
+
+			// SYNC DOMAIN DIRECTORY
+			final DomainProperties props;
+			synchronized (propertiesFile)
+			{
+				final CachedDomainProperties propsBeforeSync = cachedProperties;
+				props = syncDomainProperties(false);
+				syncEvent.filesChecked++;
+				if (cachedProperties != propsBeforeSync)
+				{
+					// properties file parsed again, i.e. changed
+					syncEvent.changesFound++;
+				}
+			}
+
+			/*
+			 * Sync the PDP with the domain lock, only if something changed
+			 */
+			if (isPdpSyncRequired(syncEvent))
+			{
+				final boolean isChanged;
+				lockForWriting();
+				try
+				{
+					isChanged = syncPDP();
+				}
+				finally
+				{
+					domainDirLock.writeLock().unlock();
+				}
+
+				if (isChanged)
+				{
+					LOGGER.info("Domain '{}': synchronization: change to PDP files since last sync -> PDP reloaded", domainId);
+					syncEvent.changesFound++;
+				}
+			}
+
+			commitSyncEvent(syncEvent);
+			LOGGER.debug("Domain '{}': synchronization done.", domainId);
+			return props;
+		}
+
+		/**
+		 * Get the externalId index entry of this domain, from the last properties loaded from or saved to the properties file, or else from the index entry used at startup
+		 * 
+		 * @return index entry; null if none
+		 */
+		private ExternalIdIndexEntry getExternalIdIndexEntry()
+		{
+			final CachedDomainProperties props = cachedProperties;
+			if (props == null)
+			{
+				return loadedExternalIdIndexEntry;
+			}
+
+			return new ExternalIdIndexEntry(props.fileLastModifiedTime, props.fileSize, props.props.getExternalId());
+		}
+
+		private void commitSyncEvent(final FlatFileDaoEvents.DomainSync syncEvent)
+		{
+			syncEvent.end();
+			if (syncEvent.shouldCommit())
+			{
+				syncEvent.domainId = domainId;
+				syncEvent.commit();
+			}
+		}
+
+		/**
+		 * this is run by domainDirToMemSyncScheduler
+		 */
+		private final class DirectoryToMemorySyncTask implements Runnable
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					sync();
+
+				}
+				catch (final Throwable e)
+				{
+					LOGGER.error("Domain '{}': error occurred during synchronization", domainId, e);
+				}
+			}
+		}
+
+		/**
+		 * Constructs end-user policy admin domain. Must be called within synchronized (getDomainMapLock(domainId)) block.
+		 * 
+		 * @param domainDirPath
+		 *            domain directory
+		 * @param props
+		 *            new domain properties for new domain creation, null if no specific properties (use default properties)
+		 * @param spareDomain
+		 *            spare domain claimed for the new domain, i.e. already moved to {@code domainDirPath}, whose PDP (if loaded already) is to be used as is, instead of loading it from the files
+		 *            (again); null if none. The spare domain's PDP was loaded with PARENT_DIR set to the spare domain directory, therefore it is used only if PARENT_DIR is used nowhere in the PDP
+		 *            configuration but in the policy location pattern of the policy provider (whose policies are all resolved when the PDP is loaded), else the PDP is loaded again (see
+		 *            {@link FlatFileBasedDomainsDao#isPdpConfLocationIndependent(File)}).
+		 * @throws IllegalArgumentException
+		 *             Invalid configuration files in {@code domainDir}
+		 * @throws IOException
+		 *             Error loading configuration file(s) from or persisting {@code props} (if not null) to {@code domainDir}
+		 */
+		private FileBasedDomainDaoImpl(final Path domainDirPath, final WritableDomainProperties props, final SpareDomain spareDomain) throws IOException
+		{
+			assert domainDirPath != null;
+
+			final Path domainFileName = domainDirPath.getFileName();
+			if (domainFileName == null)
+			{
 				throw new IllegalArgumentException("Invalid domain directory path: " + domainDirPath);
 			}
 
 			this.domainId = domainFileName.toString();
+			this.decisionMetrics = decisionMetricsRegistry.getDomainMetrics(domainId);
+			this.evaluationBulkhead = evaluationScheduler == null ? null : evaluationScheduler.getBulkhead(domainId);
+			this.xacmlXmlEvaluationsInFlight = decisionRequestCoalescingTimeoutNanos > 0 ? new ConcurrentHashMap<>() : null;
+			this.xacmlJsonEvaluationsInFlight = decisionRequestCoalescingTimeoutNanos > 0 && enableXacmlJsonProfile ? new ConcurrentHashMap<>() : null;
 
 			// domainDir
 			FlatFileDAOUtils.checkFile("Domain directory", domainDirPath, true, true);
@@ -811,12 +2303,36 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			 * in the externalId-to-domainId map
 			 */
 			/*
-			 * Caller must use synchronized (domainsRootDir) block
+			 * This instance is not visible to other threads yet, so no need to lock propertiesFile here. At startup, the externalId is taken from the externalId index if up-to-date, and the
+			 * properties file is parsed later, only when needed.
 			 */
-			updateDomainProperties(props);
+			final Map<String, ExternalIdIndexEntry> startupExternalIdIndex = externalIdIndexAtStartup;
+			final ExternalIdIndexEntry externalIdIndexEntry = props == null && startupExternalIdIndex != null ? startupExternalIdIndex.get(domainId) : null;
+			if (externalIdIndexEntry != null && externalIdIndexEntry.matches(Files.readAttributes(propertiesFile.toPath(), BasicFileAttributes.class)))
+			{
+				propertiesFileLastSyncedTime = System.currentTimeMillis();
+				updateCachedExternalId(externalIdIndexEntry.externalId);
+				loadedExternalIdIndexEntry = externalIdIndexEntry;
+			}
+			else
+			{
+				updateDomainProperties(props);
+			}
 
-			// Just load the PDP from the files
-			reloadPDP();
+			if (spareDomain == null || spareDomain.pdp == null)
+			{
+				// Just load the PDP from the files
+				reloadPDP("init");
+			}
+			else
+			{
+				/*
+				 * The spare domain's PDP was loaded from the same files (the directory has just been moved), and does not depend on the directory location. Any change to the files since then will
+				 * be detected by syncPDP() as usual.
+				 */
+				lastPdpSyncedTime = spareDomain.pdpLoadTime;
+				pdp = spareDomain.pdp;
+			}
 
 			/*
 			 * Schedule periodic domain directory-to-memory synchronization task if sync enabled (strictly positive interval defined)
@@ -834,14 +2350,6 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			{
 				dirToMemSyncScheduler = null;
 			}
-
-			if(LOGGER.isDebugEnabled()) {
-				utcDateWithMillisFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS ('UTC')");
-				utcDateWithMillisFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-			} else
-			{
-				utcDateWithMillisFormatter = null;
-			}
 		}
 
 		@Override
@@ -859,17 +2367,33 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		/**
 		 * Reload PDP from configuration files, (including policy files, aka "PRP" in XACML). This method first sets lastPdpSyncedTime to the current time.
 		 * 
+		 * @param trigger
+		 *            cause of the reload (for monitoring)
 		 * @throws IOException
 		 *             I/O error reading from confFile
 		 * @throws IllegalArgumentException
 		 *             Invalid PDP configuration in confFile
 		 */
-		private void reloadPDP() throws IOException, IllegalArgumentException
+		private void reloadPDP(final String trigger) throws IOException, IllegalArgumentException
 		{
+			final FlatFileDaoEvents.PdpReload reloadEvent = new FlatFileDaoEvents.PdpReload();
+			reloadEvent.begin();
+			final long startTime = System.nanoTime();
 			lastPdpSyncedTime = System.currentTimeMillis();
 			// test if PDP conf valid, and update the domain's PDP only if valid
-			final PdpEngineConfiguration pdpEngineConf = PdpEngineConfiguration.getInstance(pdpConfFile, pdpModelHandler);
-			final PdpBundle newPdpBundle = new PdpBundle(pdpEngineConf, enableXacmlJsonProfile);
+			final PdpBundle newPdpBundle;
+			try
+			{
+				final PdpEngineConfiguration pdpEngineConf = PdpEngineConfiguration.getInstance(pdpConfFile, pdpModelHandler);
+				newPdpBundle = new PdpBundle(pdpEngineConf, enableXacmlJsonProfile);
+			}
+			catch (final IOException | RuntimeException e)
+			{
+				commitPdpReloadEvent(reloadEvent, trigger, true, null, System.nanoTime() - startTime, 0);
+				throw e;
+			}
+
+			final long swapStartTime = System.nanoTime();
 			// update the domain's PDP
 			if (pdp != null && pdp.engine != null)
 			{
@@ -877,6 +2401,33 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			}
 
 			pdp = newPdpBundle;
+			commitPdpReloadEvent(reloadEvent, trigger, true, newPdpBundle, swapStartTime - startTime, System.nanoTime() - swapStartTime);
+		}
+
+		/**
+		 * Ends the PDP reload event and commits it if enabled
+		 * 
+		 * @param pdpConfFileParsed
+		 *            true iff the PDP configuration was parsed from the file
+		 * @param newPdpBundle
+		 *            the new PDP, null if the reload failed
+		 */
+		private void commitPdpReloadEvent(final FlatFileDaoEvents.PdpReload reloadEvent, final String trigger, final boolean pdpConfFileParsed, final PdpBundle newPdpBundle, final long buildTime,
+		        final long swapTime)
+		{
+			reloadEvent.end();
+			if (!reloadEvent.shouldCommit())
+			{
+				return;
+			}
+
+			reloadEvent.domainId = domainId;
+			reloadEvent.trigger = trigger;
+			reloadEvent.filesParsed = (pdpConfFileParsed ? 1 : 0) + (newPdpBundle == null ? 0 : Iterables.size(newPdpBundle.engine.getApplicablePolicies()));
+			reloadEvent.buildTime = buildTime;
+			reloadEvent.swapTime = swapTime;
+			reloadEvent.succeeded = newPdpBundle != null;
+			reloadEvent.commit();
 		}
 
 		/**
@@ -884,26 +2435,53 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		 * 
 		 * @param pdpConfTmpl
 		 *            original PDP configuration template from file, i.e. before any replacement of property placeholders like ${PARENT_DIR}; saved/marshalled to file PDP update succeeds
+		 * @param trigger
+		 *            cause of the reload (for monitoring)
 		 * @throws IllegalArgumentException invalid pdpConfTmpl
 		 * @throws IOException I/0 error with Attribute/Policy provider in pdpConfTmpl
 		 */
-		private void reloadPDP(final Pdp pdpConfTmpl) throws IllegalArgumentException, IOException
+		private void reloadPDP(final Pdp pdpConfTmpl, final String trigger) throws IllegalArgumentException, IOException
 		{
+			final FlatFileDaoEvents.PdpReload reloadEvent = new FlatFileDaoEvents.PdpReload();
+			reloadEvent.begin();
+			final long startTime = System.nanoTime();
 			// test if PDP conf valid, and update the domain's PDP only if valid
-			final PdpEngineConfiguration pdpEngineConf = new PdpEngineConfiguration(pdpConfTmpl, pdpConfEnvProps);
-			final PdpBundle newPdpBundle = new PdpBundle(pdpEngineConf, enableXacmlJsonProfile);
+			final PdpBundle newPdpBundle;
+			try
+			{
+				final PdpEngineConfiguration pdpEngineConf = new PdpEngineConfiguration(pdpConfTmpl, pdpConfEnvProps);
+				newPdpBundle = new PdpBundle(pdpEngineConf, enableXacmlJsonProfile);
+			}
+			catch (final IOException | RuntimeException e)
+			{
+				commitPdpReloadEvent(reloadEvent, trigger, false, null, System.nanoTime() - startTime, 0);
+				throw e;
+			}
+
+			final long buildTime = System.nanoTime() - startTime;
 			// Commit/save the new PDP conf
 			try
 			{
-				pdpModelHandler.marshal(pdpConfTmpl, pdpConfFile);
+				FlatFileDAOUtils.writeFileAtomically(pdpConfFile.toPath(), file -> {
+					try
+					{
+						pdpModelHandler.marshal(pdpConfTmpl, file);
+					}
+					catch (final JAXBException e)
+					{
+						// critical error: we should not end up with an invalid PDP
+						// configuration file, so we consider an I/O error
+						throw new IOException("Error writing new PDP configuration of domain '" + domainId + "'", e);
+					}
+				});
 			}
-			catch (final JAXBException e)
+			catch (final IOException | RuntimeException e)
 			{
-				// critical error: we should not end up with an invalid PDP
-				// configuration file, so we consider an I/O error
-				throw new IOException("Error writing new PDP configuration of domain '" + domainId + "'", e);
+				commitPdpReloadEvent(reloadEvent, trigger, false, null, buildTime, 0);
+				throw e;
 			}
 
+			final long swapStartTime = System.nanoTime();
 			// update the domain's PDP
 			if (pdp != null && pdp.engine != null)
 			{
@@ -911,6 +2489,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			}
 
 			pdp = newPdpBundle;
+			commitPdpReloadEvent(reloadEvent, trigger, false, newPdpBundle, buildTime, System.nanoTime() - swapStartTime);
 		}
 
 		private void setPdpInErrorState() throws IOException
@@ -928,37 +2507,78 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			final Marshaller marshaller;
 			try
 			{
-				marshaller = DOMAIN_PROPERTIES_JAXB_CONTEXT.createMarshaller();
-				marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.name());
+				marshaller = DOMAIN_PROPERTIES_MARSHALLER_POOL.borrow();
 			}
 			catch (final JAXBException e)
 			{
 				// critical error
-				throw new RuntimeException("Error creating JAXB unmarshaller for domain properties (XML)", e);
+				throw new RuntimeException("Error creating JAXB marshaller for domain properties (XML)", e);
+			}
+
+			try
+			{
+				FlatFileDAOUtils.writeFileAtomically(propertiesFile.toPath(), file -> {
+					try
+					{
+						/*
+						 * The rootPolicyRef is in another file (PDP configuration file). We cannot marshall more generic ManagedResourceProperties because it does not have
+						 * 
+						 * @XmlRootElement
+						 */
+						marshaller.marshal(props, file);
+					}
+					catch (final JAXBException e)
+					{
+						throw new IOException("Error persisting properties (XML) of domain '" + domainId + "'", e);
+					}
+				});
+			}
+			finally
+			{
+				DOMAIN_PROPERTIES_MARSHALLER_POOL.release(marshaller);
 			}
 
-			marshaller.setSchema(DOMAIN_PROPERTIES_SCHEMA);
+			// props may be modified by the caller afterwards, so cache a copy
+			cachedProperties = new CachedDomainProperties(CachedDomainProperties.copy(props), Files.readAttributes(propertiesFile.toPath(), BasicFileAttributes.class));
+			requestExternalIdIndexWrite();
+		}
+
+		/**
+		 * Get domain properties from the properties file, parsed again only if the file has changed (last modification time or size) since the properties were last loaded or saved
+		 * 
+		 * @return domain properties, a new instance that the caller may modify
+		 * @throws IOException
+		 *             error reading/parsing the properties file
+		 */
+		private DomainProperties loadProperties() throws IOException
+		{
+			final BasicFileAttributes fileAttributes;
 			try
 			{
-				/*
-				 * The rootPolicyRef is in another file (PDP configuration file). We cannot marshall more generic ManagedResourceProperties because it does not have
-				 * 
-				 * @XmlRootElement
-				 */
-				marshaller.marshal(props, propertiesFile);
+				fileAttributes = Files.readAttributes(propertiesFile.toPath(), BasicFileAttributes.class);
+			}
+			catch (final IOException e)
+			{
+				throw new IOException("Error getting properties (XML) of domain '" + domainId + "'", e);
 			}
-			catch (final JAXBException e)
+
+			final CachedDomainProperties currentProps = cachedProperties;
+			if (currentProps != null && currentProps.isUpToDate(fileAttributes))
 			{
-				throw new IOException("Error persisting properties (XML) of domain '" + domainId + "'", e);
+				return currentProps.copyProperties();
 			}
+
+			final CachedDomainProperties newProps = new CachedDomainProperties(unmarshalProperties(), fileAttributes);
+			cachedProperties = newProps;
+			return newProps.copyProperties();
 		}
 
-		private DomainProperties loadProperties() throws IOException
+		private DomainProperties unmarshalProperties() throws IOException
 		{
 			final Unmarshaller unmarshaller;
 			try
 			{
-				unmarshaller = DOMAIN_PROPERTIES_JAXB_CONTEXT.createUnmarshaller();
+				unmarshaller = DOMAIN_PROPERTIES_UNMARSHALLER_POOL.borrow();
 			}
 			catch (final JAXBException e)
 			{
@@ -966,7 +2586,6 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				throw new RuntimeException("Error creating JAXB unmarshaller for domain properties (XML)", e);
 			}
 
-			unmarshaller.setSchema(DOMAIN_PROPERTIES_SCHEMA);
 			final JAXBElement<DomainProperties> jaxbElt;
 			try
 			{
@@ -976,14 +2595,19 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			{
 				throw new IOException("Error getting properties (XML) of domain '" + domainId + "'", e);
 			}
+			finally
+			{
+				DOMAIN_PROPERTIES_UNMARSHALLER_POOL.release(unmarshaller);
+			}
 
 			return jaxbElt.getValue();
 		}
 
 		/**
-		 * Update externalId (cached value) and external-id-to-domain map. The caller must call this within a {@code synchronized(domainsRootDir)} block in which it guarantees the synchronization
+		 * Update externalId (cached value) and external-id-to-domain map. The caller must call this within a {@code synchronized(propertiesFile)} block in which it guarantees the synchronization
 		 * between the domain's {@code newExternalId} and the externalId value in the domain properties on the filesystem. This method updates the externalId value only in the externalId-domainId
-		 * cache/map.
+		 * cache/map, with atomic operations only (no global lock): the new externalId is associated with this domain first (fails if already associated with another one), then the old one is
+		 * released.
 		 * 
 		 * @param newExternalId
 		 *            new domain's externalId; null value means to unset the domain's externalId (undefined)
@@ -992,35 +2616,58 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		 */
 		private void updateCachedExternalId(final String newExternalId) throws IllegalArgumentException
 		{
-			if (cachedExternalId != null)
+			if (cachedExternalId != null && cachedExternalId.equals(newExternalId))
 			{
-				if (cachedExternalId.equals(newExternalId))
-				{
-					// nothing changed
-					return;
-				}
+				// nothing changed
+				return;
+			}
 
+			reserveExternalId(newExternalId);
+			if (cachedExternalId != null)
+			{
 				/*
-				 * externalId changed -> remove the old one from externalId-domainId map
+				 * externalId changed -> remove the old one from externalId-domainId map (if still associated with this domain)
 				 */
-				domainIDsByExternalId.remove(cachedExternalId);
+				domainIDsByExternalId.remove(cachedExternalId, domainId);
 			}
 
-			if (newExternalId != null)
+			cachedExternalId = newExternalId;
+			requestExternalIdIndexWrite();
+		}
+
+		/**
+		 * Associates an externalId with this domain in the externalId-domainId map, unless already associated with this domain
+		 * 
+		 * @param externalId
+		 *            externalId; nothing is done if null
+		 * @return true iff {@code externalId} was not associated with any domain before this call
+		 * @throws IllegalArgumentException
+		 *             if {@code externalId} is already associated with another domain (conflict)
+		 */
+		private boolean reserveExternalId(final String externalId) throws IllegalArgumentException
+		{
+			if (externalId == null)
 			{
-				final String alreadyAssociatedDomainId = domainIDsByExternalId.putIfAbsent(newExternalId, domainId);
-				if (alreadyAssociatedDomainId != null)
-				{
-					throw new IllegalArgumentException("externalId conflict: '" + newExternalId + "' cannot be associated with domainId '" + domainId + "' because already associated with another");
-				}
+				return false;
 			}
 
-			cachedExternalId = newExternalId;
+			final String alreadyAssociatedDomainId = domainIDsByExternalId.putIfAbsent(externalId, domainId);
+			if (alreadyAssociatedDomainId == null)
+			{
+				return true;
+			}
+
+			if (!alreadyAssociatedDomainId.equals(domainId))
+			{
+				throw new IllegalArgumentException("externalId conflict: '" + externalId + "' cannot be associated with domainId '" + domainId + "' because already associated with another");
+			}
+
+			return false;
 		}
 
 		/**
 		 * Update domain properties from input {@code props} and/or from changes on the filesystem and synchronize with cached data (e.g. cachedExternalId, externalId-domainId map (if externalId
-		 * changed), etc.). Must be called within a {@code synchronized(domainsRootDir)} block
+		 * changed), etc.). Must be called within a {@code synchronized(propertiesFile)} block
 		 * 
 		 * @param props
 		 *            new domain properties; if null, sync with properties file on the filesystem only
@@ -1035,23 +2682,33 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			if (props != null)
 			{
 				/*
-				 * Check whether externalId already used if changed
+				 * Associate the new externalId with this domain before saving it, which fails if already used by another domain. Atomic operation, so no other domain may take it in the meantime.
 				 */
 				final String newExternalId = props.getExternalId();
-				if (newExternalId != null && !newExternalId.equals(this.cachedExternalId) && domainIDsByExternalId.containsKey(newExternalId))
+				final boolean isNewExternalIdReserved = reserveExternalId(newExternalId);
+				try
 				{
-					throw new IllegalArgumentException("externalId conflict: '" + newExternalId + "' cannot be associated with domainId '" + domainId + "' because already associated with another");
+					// set/save properties
+					final DomainProperties updatedProps = loadProperties();
+					updatedProps.setDescription(props.getDescription());
+					updatedProps.setExternalId(newExternalId);
+
+					// validate and save new properties to disk
+					saveProperties(updatedProps);
 				}
+				catch (final IOException | RuntimeException e)
+				{
+					if (isNewExternalIdReserved)
+					{
+						// rollback
+						domainIDsByExternalId.remove(newExternalId, domainId);
+					}
 
-				// set/save properties
-				final DomainProperties updatedProps = loadProperties();
-				updatedProps.setDescription(props.getDescription());
-				updatedProps.setExternalId(props.getExternalId());
+					throw e;
+				}
 
-				// validate and save new properties to disk
-				saveProperties(updatedProps);
 				/*
-				 * sync properties file with memory (e.g. externalId-domainId map). Must be called within domainsRootDir block.
+				 * sync properties file with memory (e.g. externalId-domainId map). Must be called within synchronized(propertiesFile) block.
 				 */
 				syncDomainProperties(true);
 			}
@@ -1074,7 +2731,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				throw NULL_DOMAIN_PROPERTIES_ARGUMENT_EXCEPTION;
 			}
 
-			synchronized (domainsRootDir)
+			synchronized (propertiesFile)
 			{
 				updateDomainProperties(props);
 			}
@@ -1084,7 +2741,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		}
 
 		/**
-		 * Must be called within synchronized(domainsRootDir) block.
+		 * Must be called within synchronized(propertiesFile) block.
 		 * 
 		 * @param force
 		 *            force synchronization regardless of lastmodified timestamp on properties file, esp. when we know we just made/detected a change
@@ -1096,7 +2753,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			if (LOGGER.isDebugEnabled())
 			{
 				LOGGER.debug("Domain '{}': domain properties file '{}': lastModifiedTime (= {}) {} last sync time (= {}){}", domainId, propertiesFile,
-				        utcDateWithMillisFormatter.format(new Date(lastModifiedTime)), isFileModified ? ">" : "<=", utcDateWithMillisFormatter.format(new Date(propertiesFileLastSyncedTime)),
+				        Instant.ofEpochMilli(lastModifiedTime), isFileModified ? ">" : "<=", Instant.ofEpochMilli(propertiesFileLastSyncedTime),
 				        isFileModified ? " -> updating externalId in externalId-to-domain map" : "");
 			}
 
@@ -1106,7 +2763,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			if (force || isFileModified)
 			{
 				/*
-				 * Must be called within synchronized(domainsRootDir) block
+				 * Must be called within synchronized(propertiesFile) block
 				 */
 				updateCachedExternalId(props.getExternalId());
 			}
@@ -1123,7 +2780,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			}
 
 			final DomainProperties props;
-			synchronized (domainsRootDir)
+			synchronized (propertiesFile)
 			{
 				props = syncDomainProperties(false);
 			}
@@ -1192,7 +2849,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 					// change
 					try
 					{
-						reloadPDP();
+						reloadPDP("sync: applicable policy removed");
 					}
 					catch (final Throwable t)
 					{
@@ -1216,7 +2873,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				if (LOGGER.isDebugEnabled())
 				{
 					LOGGER.debug("Domain '{}': policy '{}': file '{}': lastModifiedTime (= {}) {} last sync time (= {}){}", domainId, policyId, policyDir,
-					        utcDateWithMillisFormatter.format(new Date(lastModifiedTime)), isFileModified ? ">" : "<=", utcDateWithMillisFormatter.format(new Date(lastPdpSyncedTime)),
+					        Instant.ofEpochMilli(lastModifiedTime), isFileModified ? ">" : "<=", Instant.ofEpochMilli(lastPdpSyncedTime),
 					        isFileModified ? " -> reloading PDP" : "");
 				}
 
@@ -1224,7 +2881,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				{
 					try
 					{
-						reloadPDP();
+						reloadPDP("sync: applicable policy changed");
 					}
 					catch (final Throwable t)
 					{
@@ -1246,7 +2903,160 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		}
 
 		/**
-		 * Reload PDP only if a change to one of PDP files (main configuration, policies...) has been detected. Should be called inside a synchronized(domainDirPath) block
+		 * Checks - without changing anything - whether one of PDP files (main configuration, policies...) has changed since the last PDP (re)load, i.e. whether {@link #syncPDP()} would reload the
+		 * PDP.
+		 * 
+		 * @return true iff the PDP is out of sync with the domain directory
+		 * @throws IOException
+		 *             I/O error accessing policies in the policy repository
+		 */
+		private boolean isPdpSyncRequired() throws IOException
+		{
+			return isPdpSyncRequired(null);
+		}
+
+		/**
+		 * Same as {@link #isPdpSyncRequired()} but counting the files checked in a sync event
+		 * 
+		 * @param syncEvent
+		 *            sync event where the number of files checked is incremented; null if none
+		 */
+		private boolean isPdpSyncRequired(final FlatFileDaoEvents.DomainSync syncEvent) throws IOException
+		{
+			final long pdpSyncedTime = lastPdpSyncedTime;
+			if (syncEvent != null)
+			{
+				syncEvent.filesChecked++;
+			}
+
+			if (pdpConfFile.lastModified() > pdpSyncedTime)
+			{
+				return true;
+			}
+
+			final PdpBundle currentPdp = pdp;
+			if (currentPdp == null || currentPdp.engine == null)
+			{
+				// pdp in error state, only a change to the PDP conf file may fix it (see syncPdpPolicies())
+				return false;
+			}
+
+			final Iterable<PrimaryPolicyMetadata> pdpApplicablePolicies = currentPdp.engine.getApplicablePolicies();
+			if (pdpApplicablePolicies == null)
+			{
+				throw NON_STATIC_POLICY_EXCEPTION;
+			}
+
+			for (final PrimaryPolicyMetadata usedPolicyMetadata : pdpApplicablePolicies)
+			{
+				final Path policyDir = getPolicyDirectory(usedPolicyMetadata.getId());
+				if (syncEvent != null)
+				{
+					syncEvent.filesChecked++;
+				}
+
+				if (!Files.exists(policyDir, LinkOption.NOFOLLOW_LINKS) || Files.getLastModifiedTime(policyDir, LinkOption.NOFOLLOW_LINKS).toMillis() > pdpSyncedTime)
+				{
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Acquires the domain read lock, recording a JFR event if the thread has to wait
+		 */
+		private void lockForReading()
+		{
+			final Lock readLock = domainDirLock.readLock();
+			if (readLock.tryLock())
+			{
+				return;
+			}
+
+			final FlatFileDaoEvents.DomainLockWait lockWaitEvent = new FlatFileDaoEvents.DomainLockWait();
+			lockWaitEvent.begin();
+			readLock.lock();
+			commitLockWaitEvent(lockWaitEvent, false);
+		}
+
+		/**
+		 * Acquires the domain write lock, recording a JFR event if the thread has to wait
+		 */
+		private void lockForWriting()
+		{
+			final Lock writeLock = domainDirLock.writeLock();
+			if (writeLock.tryLock())
+			{
+				return;
+			}
+
+			final FlatFileDaoEvents.DomainLockWait lockWaitEvent = new FlatFileDaoEvents.DomainLockWait();
+			lockWaitEvent.begin();
+			writeLock.lock();
+			commitLockWaitEvent(lockWaitEvent, true);
+		}
+
+		private void commitLockWaitEvent(final FlatFileDaoEvents.DomainLockWait lockWaitEvent, final boolean exclusive)
+		{
+			lockWaitEvent.end();
+			if (lockWaitEvent.shouldCommit())
+			{
+				lockWaitEvent.domainId = domainId;
+				lockWaitEvent.exclusive = exclusive;
+				lockWaitEvent.commit();
+			}
+		}
+
+		/**
+		 * Acquires the domain read lock, once the PDP is in sync with the domain directory. If it is not, the PDP is synchronized (reloaded) with the write lock held, then the write lock is
+		 * downgraded to the read lock. On success, the caller must release the read lock.
+		 * 
+		 * @throws IOException
+		 *             I/O error accessing PDP files in the domain directory (the read lock is not held in this case)
+		 * @throws IllegalArgumentException
+		 *             invalid policies in the policy repository (the read lock is not held in this case)
+		 */
+		private void lockForReadingInSync() throws IOException, IllegalArgumentException
+		{
+			lockForReading();
+			final Lock readLock = domainDirLock.readLock();
+			final boolean isSyncRequired;
+			try
+			{
+				isSyncRequired = isPdpSyncRequired();
+			}
+			catch (final IOException | RuntimeException e)
+			{
+				readLock.unlock();
+				throw e;
+			}
+
+			if (!isSyncRequired)
+			{
+				return;
+			}
+
+			// ReentrantReadWriteLock does not support upgrading read lock to write lock
+			readLock.unlock();
+			lockForWriting();
+			final Lock writeLock = domainDirLock.writeLock();
+			try
+			{
+				// another thread may have synchronized the PDP in the meantime, in which case this is a no-op
+				syncPDP();
+				// downgrade
+				readLock.lock();
+			}
+			finally
+			{
+				writeLock.unlock();
+			}
+		}
+
+		/**
+		 * Reload PDP only if a change to one of PDP files (main configuration, policies...) has been detected. Must be called with the domain write lock held
 		 * 
 		 * @return true iff PDP was actually changed by synchronization (reloaded)
 		 * @throws IOException I/O error accessing policies in the policy repository
@@ -1260,13 +3070,13 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			if (LOGGER.isDebugEnabled())
 			{
 				LOGGER.debug("Domain '{}': PDP conf file '{}': lastModifiedTime (= {}) {} last sync time (= {}){}", domainId, pdpConfFile,
-				        utcDateWithMillisFormatter.format(new Date(lastModifiedTime)), isFileModified ? ">" : "<=", utcDateWithMillisFormatter.format(new Date(lastPdpSyncedTime)),
+				        Instant.ofEpochMilli(lastModifiedTime), isFileModified ? ">" : "<=", Instant.ofEpochMilli(lastPdpSyncedTime),
 				        isFileModified ? " -> reloading PDP" : "");
 			}
 
 			if (isFileModified)
 			{
-				reloadPDP();
+				reloadPDP("sync: PDP configuration changed");
 				return true;
 			}
 
@@ -1414,7 +3224,8 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				throw NULL_ROOT_POLICY_REF_ARGUMENT_EXCEPTION;
 			}
 
-			synchronized (domainDirPath)
+			lockForWriting();
+			try
 			{
 				final long pdpConfLastSyncTime = System.currentTimeMillis();
 				/*
@@ -1580,12 +3391,16 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 				final TopLevelPolicyElementRef rootPolicyRef = new TopLevelPolicyElementRef(newRootPolicyRefExpression.getValue(), newRootPolicyRefExpression.getVersion(), true);
 				pdpConf.setRootPolicyRef(rootPolicyRef);
-				reloadPDP(pdpConf);
+				reloadPDP(pdpConf, "setOtherPdpProperties");
 
 				final List<PdpFeature> pdpFeatures = getPdpFeatures(pdpConf);
 				final List<TopLevelPolicyElementRef> activePolicyRefs = getPdpApplicablePolicyRefs();
 				return new ReadablePdpPropertiesImpl(pdpFeatures, rootPolicyRef, activePolicyRefs.get(0), activePolicyRefs.subList(1, activePolicyRefs.size()), lastPdpSyncedTime);
 			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
+			}
 		}
 
 		@Override
@@ -1596,47 +3411,23 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				throw DISABLED_OPERATION_EXCEPTION;
 			}
 
-			synchronized (domainDirPath)
+			lockForReadingInSync();
+			try
 			{
-				final long lastModifiedTime = pdpConfFile.lastModified();
-				final boolean isFileModified = lastModifiedTime > lastPdpSyncedTime;
-				if (LOGGER.isDebugEnabled())
-				{
-					LOGGER.debug("Domain '{}': PDP conf file '{}': lastModifiedTime (= {}) {} last sync time (= {}){}", domainId, pdpConfFile,
-					        utcDateWithMillisFormatter.format(new Date(lastModifiedTime)), isFileModified ? ">" : "<=", utcDateWithMillisFormatter.format(new Date(lastPdpSyncedTime)),
-					        isFileModified ? " -> reload PDP" : "");
-				}
-
-				// let's sync
-				final long pdpConfLastSyncedTime = System.currentTimeMillis();
 				/*
-				 * Get current PDP configuration that we have to change (only part of it)
+				 * Get current PDP configuration (PDP in sync with it)
 				 */
 				final Pdp pdpConf = loadPDPConfTmpl();
 
-				if (isFileModified)
-				{
-					// then PDP's last sync time is same as last time PDP conf
-					// was loaded/synced
-					lastPdpSyncedTime = pdpConfLastSyncedTime;
-					reloadPDP(pdpConf);
-				}
-				else
-				{
-					final boolean isPdpReloaded = syncPdpPolicies();
-					// if reloaded, lastPdpSyncedTime is already set properly,
-					// else we set it here
-					if (!isPdpReloaded)
-					{
-						lastPdpSyncedTime = pdpConfLastSyncedTime;
-					}
-				}
-
 				// Collect PDP features
 				final List<PdpFeature> features = getPdpFeatures(pdpConf);
 				final List<TopLevelPolicyElementRef> activePolicyRefs = getPdpApplicablePolicyRefs();
 				return new ReadablePdpPropertiesImpl(features, pdpConf.getRootPolicyRef(), activePolicyRefs.get(0), activePolicyRefs.subList(1, activePolicyRefs.size()), lastPdpSyncedTime);
 			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
+			}
 		}
 
 		@Override
@@ -1654,13 +3445,18 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 			// Synchronize changes on PDP (and other domain conf data) from
 			// multiple threads, keep minimal things in the synchronized block
-			synchronized (domainDirPath)
+			lockForWriting();
+			try
 			{
 				lastPdpSyncedTime = System.currentTimeMillis();
 				final Pdp pdpConf = loadPDPConfTmpl();
 				pdpConf.getAttributeProviders().clear();
 				pdpConf.getAttributeProviders().addAll(attributeproviders);
-				reloadPDP(pdpConf);
+				reloadPDP(pdpConf, "setAttributeProviders");
+			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
 			}
 
 			return attributeproviders;
@@ -1675,28 +3471,17 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			}
 
 			/*
-			 * Synchronize changes on PDP (and other domain conf data) from multiple threads, keep minimal things in the synchronized block
+			 * Make sure the PDP is in sync with the returned configuration
 			 */
 			final Pdp pdpConf;
-			synchronized (domainDirPath)
+			lockForReadingInSync();
+			try
 			{
-				final long lastModifiedTime = pdpConfFile.lastModified();
-				final boolean isFileModified = lastModifiedTime > lastPdpSyncedTime;
-				if (LOGGER.isDebugEnabled())
-				{
-					LOGGER.debug("Domain '{}': PDP conf file '{}': lastModifiedTime (= {}) {} last sync time (= {}){}", domainId, pdpConfFile,
-					        utcDateWithMillisFormatter.format(new Date(lastModifiedTime)), isFileModified ? ">" : "<=", utcDateWithMillisFormatter.format(new Date(lastPdpSyncedTime)),
-					        isFileModified ? " -> reloading PDP" : "");
-				}
-
-				// let's sync
-				final long pdpConfLastLoadTime = System.currentTimeMillis();
 				pdpConf = loadPDPConfTmpl();
-				if (isFileModified)
-				{
-					lastPdpSyncedTime = pdpConfLastLoadTime;
-					reloadPDP(pdpConf);
-				}
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
 			}
 
 			return pdpConf.getAttributeProviders();
@@ -1749,15 +3534,16 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				throw new IOException("Error creating parent directory for new policy ('" + policy.getPolicySetId() + "' v" + policy.getVersion() + ") in domain '" + domainId + "'", e);
 			}
 
-			try
-			{
-				final Marshaller marshaller = Xacml3JaxbHelper.createXacml3Marshaller();
-				marshaller.marshal(policy, path.toFile());
-			}
-			catch (final JAXBException e)
-			{
-				throw new IOException("Error saving policy in domain '" + domainId + "'", e);
-			}
+			FlatFileDAOUtils.writeFileAtomically(path, file -> {
+				try
+				{
+					FlatFileDAOUtils.savePolicy(policy, file);
+				}
+				catch (final JAXBException e)
+				{
+					throw new IOException("Error saving policy in domain '" + domainId + "'", e);
+				}
+			});
 		}
 
 		private Path getPolicyVersionPath(final Path policyDirPath, final PolicyVersion version)
@@ -1791,7 +3577,8 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			final PolicyVersion newPolicyVersion = new PolicyVersion(policySet.getVersion());
 			final Path policyVersionFile = getPolicyVersionPath(policyDirPath, newPolicyVersion);
 
-			synchronized (domainDirPath)
+			lockForWriting();
+			try
 			{
 				if (Files.exists(policyVersionFile, LinkOption.NOFOLLOW_LINKS))
 				{
@@ -1917,6 +3704,48 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 					LOGGER.debug("New policy '{}' v{} validated (successfully loaded a temporary PDP with this policy as root: {})", policyId, newPolicyVersion, tempPdp);
 				}
 
+				/*
+				 * We already called syncPDP() so we have the latest view of applicable policies.
+				 */
+				final Optional<PrimaryPolicyMetadata> matchingRequiredPolicySetMetadata = StreamSupport.stream(pdp.engine.getApplicablePolicies().spliterator(), false)
+				        .filter(policyMeta -> policyMeta.getType() == TopLevelPolicyElementType.POLICY_SET && policyMeta.getId().equals(policyId)).findFirst();
+				final PolicyVersion currentlyUsedPolicyVersion = matchingRequiredPolicySetMetadata.map(PrimaryPolicyMetadata::getVersion).orElse(null);
+
+				/*
+				 * Make sure that if there are too many versions (including the new one), enough old versions can actually be removed to make place for the new one, i.e. the new one is not among the
+				 * oldest ones that would be removed (the currently used one is never removed). The removal itself is done in the background.
+				 */
+				if (excessOfPolicyVersionsToBeRemoved > 0)
+				{
+					final Iterator<Entry<PolicyVersion, Path>> oldestToLatestVersionIterator = policyVersions.oldestToLatestIterator();
+					int numRemovable = 0;
+					while (oldestToLatestVersionIterator.hasNext() && numRemovable < excessOfPolicyVersionsToBeRemoved)
+					{
+						final PolicyVersion version = oldestToLatestVersionIterator.next().getKey();
+						if (newPolicyVersion.compareTo(version) < 0)
+						{
+							/*
+							 * the version we try to add would be removed before this one, so overall, the addPolicy() fails
+							 */
+							throw maxNumOfVersionsReachedException;
+						}
+
+						// currentlyUsedPolicyVersion may be null, i.e. no required version, equals returns false in this case
+						if (!version.equals(currentlyUsedPolicyVersion))
+						{
+							numRemovable++;
+						}
+					}
+
+					if (numRemovable < excessOfPolicyVersionsToBeRemoved)
+					{
+						/*
+						 * Not enough removable versions older than the new one, so the new one would be removed
+						 */
+						throw maxNumOfVersionsReachedException;
+					}
+				}
+
 				/*
 				 * The new policy may be saved now as considered valid (no exception raised so far).
 				 */
@@ -1924,11 +3753,8 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 				/*
 				 * Do the PDP reload if and only if the new policy is likely to be applicable (match a direct/indirect policy reference from root policy), i.e. if a policy with same ID is already
-				 * applicable but with an earlier version than the input one, so the input one may replace it. We already called syncPDP() so we have the latest view of applicable policies.
+				 * applicable but with an earlier version than the input one, so the input one may replace it.
 				 */
-				final Optional<PrimaryPolicyMetadata> matchingRequiredPolicySetMetadata = StreamSupport.stream(pdp.engine.getApplicablePolicies().spliterator(), false)
-				        .filter(policyMeta -> policyMeta.getType() == TopLevelPolicyElementType.POLICY_SET && policyMeta.getId().equals(policyId)).findFirst();
-				final PolicyVersion currentlyUsedPolicyVersion = matchingRequiredPolicySetMetadata.map(PrimaryPolicyMetadata::getVersion).orElse(null);
 				if (currentlyUsedPolicyVersion != null && currentlyUsedPolicyVersion.compareTo(newPolicyVersion) < 0)
 				{
 					/*
@@ -1937,7 +3763,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 					 */
 					try
 					{
-						reloadPDP();
+						reloadPDP("addPolicy");
 					}
 					catch (final Throwable e)
 					{
@@ -1949,63 +3775,71 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 					}
 				}
 
-				/*
-				 * Make sure that if there are too many versions (including the new one), we can actually remove enough old versions to make place for the new one. First
-				 */
 				if (excessOfPolicyVersionsToBeRemoved > 0)
 				{
 					/*
-					 * too many versions, we need to remove some (the oldest that are not required by the PDP)
+					 * too many versions, the oldest that are not required by the PDP are removed in the background
 					 */
-					final Iterator<Entry<PolicyVersion, Path>> oldestToLatestVersionIterator = policyVersions.oldestToLatestIterator();
-					int numRemoved = 0;
-					while (oldestToLatestVersionIterator.hasNext() && numRemoved < excessOfPolicyVersionsToBeRemoved)
-					{
-						final Entry<PolicyVersion, Path> versionWithPath = oldestToLatestVersionIterator.next();
-						/*
-						 * remove only if not required (requiredPolicyVersion may be null, i.e. no required version, equals returns false in this case)
-						 */
-						final PolicyVersion version = versionWithPath.getKey();
-						if (version.equals(currentlyUsedPolicyVersion))
-						{
-							continue;
-						}
+					policyVersionCollector.request(domainId, policyId, maxCount -> removeExcessPolicyVersions(policyId, maxCount));
+				}
 
-						removePolicyVersionFile(versionWithPath.getValue(), null);
-						if (version.equals(newPolicyVersion))
-						{
-							/*
-							 * the version we tried to add is removed, so overall, the addPolicy() failed, therefore throw an exception
-							 */
-							throw maxNumOfVersionsReachedException;
-						}
+				// PDP reloaded successfully
+			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
+			}
 
-						numRemoved++;
-					}
+			return null;
+		}
 
-					if (numRemoved < excessOfPolicyVersionsToBeRemoved)
-					{
-						/*
-						 * This should not happen, but if we could not remove enough, no more place for the new one, this is an error
-						 */
-						throw maxNumOfVersionsReachedException;
-					}
+		private Path getPolicyVersionPath(final String policyId, final PolicyVersion versionId)
+		{
+			return getPolicyDirectory(policyId).resolve(versionId + this.policyFilePathFilter.getMatchedSuffix());
+		}
+
+		@Override
+		public PolicySet getPolicyVersion(final String policyId, final PolicyVersion version) throws IOException
+		{
+			if (enablePdpOnly)
+			{
+				throw DISABLED_OPERATION_EXCEPTION;
+			}
 
+			if (policyId == null || version == null)
+			{
+				return null;
+			}
+			/*
+			 * Make sure the PDP is in sync with the returned policy version
+			 */
+			lockForReadingInSync();
+			try
+			{
+				final Path policyVersionFile = getPolicyVersionPath(policyId, version);
+				if (!Files.exists(policyVersionFile, LinkOption.NOFOLLOW_LINKS))
+				{
+					// no such policy version
+					return null;
 				}
 
-				// PDP reloaded successfully
+				try
+				{
+					return FlatFileDAOUtils.loadPolicy(policyVersionFile);
+				}
+				catch (IllegalArgumentException | JAXBException e)
+				{
+					throw new IOException("Error getting policy version from file '" + policyVersionFile + "'", e);
+				}
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
 			}
-
-			return null;
-		}
-
-		private Path getPolicyVersionPath(final String policyId, final PolicyVersion versionId)
-		{
-			return getPolicyDirectory(policyId).resolve(versionId + this.policyFilePathFilter.getMatchedSuffix());
 		}
 
 		@Override
-		public PolicySet getPolicyVersion(final String policyId, final PolicyVersion version) throws IOException
+		public RawPolicyVersion getRawPolicyVersion(final String policyId, final PolicyVersion version) throws IOException
 		{
 			if (enablePdpOnly)
 			{
@@ -2016,14 +3850,20 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			{
 				return null;
 			}
+
 			/*
 			 * Make sure the PDP is in sync with the returned policy version
 			 */
-			synchronized (domainDirPath)
+			lockForReadingInSync();
+			try
 			{
-				syncPDP();
 				final Path policyVersionFile = getPolicyVersionPath(policyId, version);
-				if (!Files.exists(policyVersionFile, LinkOption.NOFOLLOW_LINKS))
+				final FileChannel channel;
+				try
+				{
+					channel = FileChannel.open(policyVersionFile, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS);
+				}
+				catch (final NoSuchFileException e)
 				{
 					// no such policy version
 					return null;
@@ -2031,12 +3871,98 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 				try
 				{
-					return FlatFileDAOUtils.loadPolicy(policyVersionFile);
+					return new RawPolicyVersion(policyId, version, policyVersionFile, channel, Files.readAttributes(policyVersionFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
 				}
-				catch (IllegalArgumentException | JAXBException e)
+				catch (final IOException | RuntimeException e)
 				{
-					throw new IOException("Error getting policy version from file '" + policyVersionFile + "'", e);
+					channel.close();
+					throw new IOException("Error getting policy version file attributes: '" + policyVersionFile + "'", e);
+				}
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Removes the oldest versions of a policy in excess of the max number of versions per policy, if version rolling is (still) enabled. The version currently used by the PDP and the latest
+		 * version are never removed.
+		 * 
+		 * @param policyId
+		 *            policy ID
+		 * @param maxCount
+		 *            max number of versions to be removed
+		 * @return number of versions removed
+		 * @throws IOException
+		 *             error accessing the domain properties or removing a policy version file
+		 */
+		private int removeExcessPolicyVersions(final String policyId, final int maxCount) throws IOException
+		{
+			final Path policyDirPath = getPolicyDirectory(policyId);
+			lockForWriting();
+			try
+			{
+				/*
+				 * Skip if the domain has been removed meanwhile, or the PDP is in error state (currently used version unknown)
+				 */
+				if (pdp == null || pdp.engine == null || !Files.exists(domainDirPath, LinkOption.NOFOLLOW_LINKS))
+				{
+					return 0;
+				}
+
+				final DomainProperties domainProps = loadProperties();
+				final BigInteger maxVersionCountPerPolicy = domainProps.getMaxVersionCountPerPolicy();
+				if (maxVersionCountPerPolicy == null || !domainProps.isVersionRollingEnabled())
+				{
+					return 0;
+				}
+
+				final PolicyVersions<Path> policyVersions = getPolicyVersions(policyDirPath);
+				final int excessCount = Math.min(policyVersions.size() - maxVersionCountPerPolicy.intValue(), maxCount);
+				if (excessCount <= 0)
+				{
+					return 0;
+				}
+
+				final PolicyVersion currentlyUsedPolicyVersion = StreamSupport.stream(pdp.engine.getApplicablePolicies().spliterator(), false)
+				        .filter(policyMeta -> policyMeta.getType() == TopLevelPolicyElementType.POLICY_SET && policyMeta.getId().equals(policyId)).findFirst().map(PrimaryPolicyMetadata::getVersion)
+				        .orElse(null);
+				final Iterator<Entry<PolicyVersion, Path>> oldestToLatestVersionIterator = policyVersions.oldestToLatestIterator();
+				int removedCount = 0;
+				/*
+				 * The latest version is never removed, so the policy directory is never left empty
+				 */
+				for (int remainingCount = policyVersions.size(); oldestToLatestVersionIterator.hasNext() && removedCount < excessCount && remainingCount > 1; remainingCount--)
+				{
+					final Entry<PolicyVersion, Path> versionWithPath = oldestToLatestVersionIterator.next();
+					if (versionWithPath.getKey().equals(currentlyUsedPolicyVersion))
+					{
+						continue;
+					}
+
+					try
+					{
+						Files.deleteIfExists(versionWithPath.getValue());
+					}
+					catch (final IOException e)
+					{
+						throw new IOException("Failed to delete policy file: '" + versionWithPath.getValue() + "'", e);
+					}
+
+					removedCount++;
+				}
+
+				if (removedCount > 0)
+				{
+					LOGGER.debug("Domain '{}': removed {} excess version(s) of policy '{}'", domainId, removedCount, policyId);
 				}
+
+				return removedCount;
+			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
 			}
 		}
 
@@ -2101,7 +4027,8 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 			final Path policyVersionFile = getPolicyVersionPath(policyId, tobeRemovedPolicyVersion);
 			final PolicySet policy;
-			synchronized (domainDirPath)
+			lockForWriting();
+			try
 			{
 				/*
 				 * Check whether it is not used by the PDP. First make sure the PDP is up-to-date with the repository
@@ -2134,6 +4061,10 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				removePolicyVersionFile(policyVersionFile, null);
 
 			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
+			}
 
 			return policy;
 		}
@@ -2178,7 +4109,8 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			 * Make sure the PDP is in sync/consistent with the info returned (last version)
 			 */
 			final Entry<PolicyVersion, Path> latestVersionAndFilepath;
-			synchronized (domainDirPath)
+			lockForReadingInSync();
+			try
 			{
 				final Path policyDirPath = getPolicyDirectory(policyId);
 				if (!Files.exists(policyDirPath) || !Files.isDirectory(policyDirPath))
@@ -2194,9 +4126,10 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				{
 					throw new IOException("Error listing policy version files in policy directory '" + policyDirPath + "' of domain '" + domainId + "'", e);
 				}
-
-				// Sync the PDP with info returned
-				syncPDP();
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
 			}
 
 			return latestVersionAndFilepath.getKey();
@@ -2282,13 +4215,15 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			 * We could cache this, but this is meant to be used as a DAO in a REST API, i.e. the API should be stateless as much as possible. Therefore, we should avoid caching when performance is
 			 * not critical (the performance-critical part is getPDP() only). Also this should be in sync as much as possible with the filesystem.
 			 */
-			synchronized (domainDirPath)
+			lockForReadingInSync();
+			try
 			{
 				final Path policyDir = getPolicyDirectory(policyId);
 				versions = getPolicyVersions(policyDir).latestToOldestSet();
-				// make sure the current PDP state is consistent with the info
-				// returned
-				syncPDP();
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
 			}
 
 			return versions;
@@ -2336,7 +4271,8 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 			final PolicyVersion currentlyUsedVersion;
 			final NavigableSet<PolicyVersion> versions;
-			synchronized (domainDirPath)
+			lockForWriting();
+			try
 			{
 				syncPDP();
 				final Optional<PrimaryPolicyMetadata> matchingRequiredPolicySetMetadata = StreamSupport.stream(pdp.engine.getApplicablePolicies().spliterator(), false)
@@ -2361,12 +4297,16 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 					throw new IOException("Error removing policy directory: " + policyDir, e);
 				}
 			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
+			}
 
 			return versions;
 		}
 
 		/**
-		 * Must be called withing synchronized (domainDirPath) block
+		 * Must be called with the domain (read or write) lock held
 		 * 
 		 * @return number of policies in the policy repository (policies directory)
 		 * @throws IOException I/O error accessing th policies (parent) directory
@@ -2396,7 +4336,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		}
 
 		/**
-		 * Must be called within synchronized (domainDirPath) block
+		 * Must be called with the domain (read or write) lock held
 		 * 
 		 * @return an example of current (p, v), such as p is a policy with a number of versions v > {@code maxAllowedVersionCount}; or null if all policies are OK (number of versions is lower or
 		 *         equal).
@@ -2411,43 +4351,269 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			}
 
 			/*
-			 * We could cache this, but this is meant to be used as a DAO in a REST API, i.e. the API should be as stateless as possible. Therefore, we should avoid caching when performance is not
-			 * critical (the performance-critical part is getPDP() only). Also this should be in sync as much as possible with the filesystem.
+			 * We could cache this, but this is meant to be used as a DAO in a REST API, i.e. the API should be as stateless as possible. Therefore, we should avoid caching when performance is not
+			 * critical (the performance-critical part is getPDP() only). Also this should be in sync as much as possible with the filesystem.
+			 */
+			try (final DirectoryStream<Path> policyParentDirStream = Files.newDirectoryStream(policyParentDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
+			{
+				for (final Path policyDirPath : policyParentDirStream)
+				{
+					final int versionCount = getPolicyVersionCount(policyDirPath);
+					if (versionCount > maxAllowedVersionCount)
+					{
+						final Path policyDirName = policyDirPath.getFileName();
+						if (policyDirName == null)
+						{
+							throw new IOException("Invalid policy (versions) directory path: " + policyDirPath);
+						}
+
+						final String encodedPolicyId = policyDirName.toString();
+						final String policyId;
+						try
+						{
+							policyId = FlatFileDAOUtils.base64UrlDecode(encodedPolicyId);
+						}
+						catch (final IllegalArgumentException e)
+						{
+							throw new RuntimeException("Invalid policy directory name (bad encoding): " + policyDirName, e);
+						}
+
+						return new SimpleImmutableEntry<>(policyId, versionCount);
+					}
+				}
+			}
+			catch (final IOException e)
+			{
+				throw new IOException("Error listing files in policies directory '" + policyParentDirPath + "' of domain '" + domainId + "'", e);
+			}
+
+			return null;
+		}
+
+		/**
+		 * Schedules the removal of excess versions (see {@link #removeExcessPolicyVersions(String, int)}) of every policy with more than {@code maxAllowedVersionCount} versions. Must be called with
+		 * the domain (read or write) lock held.
+		 * 
+		 * @param maxAllowedVersionCount
+		 *            max number of versions per policy; 0 or negative considered as unlimited
+		 * @throws IOException
+		 *             I/O error accessing policies (parent) directory
+		 */
+		private void requestExcessPolicyVersionRemoval(final int maxAllowedVersionCount) throws IOException
+		{
+			if (maxAllowedVersionCount < 1)
+			{
+				return;
+			}
+
+			try (final DirectoryStream<Path> policyParentDirStream = Files.newDirectoryStream(policyParentDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
+			{
+				for (final Path policyDirPath : policyParentDirStream)
+				{
+					if (getPolicyVersionCount(policyDirPath) > maxAllowedVersionCount)
+					{
+						final String policyId = getPolicyId(policyDirPath);
+						policyVersionCollector.request(domainId, policyId, maxCount -> removeExcessPolicyVersions(policyId, maxCount));
+					}
+				}
+			}
+			catch (final IOException e)
+			{
+				throw new IOException("Error listing files in policies directory '" + policyParentDirPath + "' of domain '" + domainId + "'", e);
+			}
+		}
+
+		/**
+		 * Get policy ID from policy directory
+		 * 
+		 * @param policyDirPath
+		 *            policy directory
+		 * @return policy ID
+		 * @throws IOException
+		 *             invalid policy directory path
+		 */
+		private String getPolicyId(final Path policyDirPath) throws IOException
+		{
+			final Path policyDirName = policyDirPath.getFileName();
+			if (policyDirName == null)
+			{
+				throw new IOException("Invalid policy (versions) directory path: " + policyDirPath);
+			}
+
+			final String encodedPolicyId = policyDirName.toString();
+			try
+			{
+				return FlatFileDAOUtils.base64UrlDecode(encodedPolicyId);
+			}
+			catch (final IllegalArgumentException e)
+			{
+				throw new RuntimeException("Invalid policy directory name (bad encoding): " + policyDirName, e);
+			}
+		}
+
+		@Override
+		public NavigableSet<String> getPolicyIdentifiers(final String startAfter, final int limit) throws IOException
+		{
+			if (enablePdpOnly)
+			{
+				throw DISABLED_OPERATION_EXCEPTION;
+			}
+
+			if (limit < 1)
+			{
+				throw new IllegalArgumentException("Invalid limit (" + limit + "): < 1");
+			}
+
+			/*
+			 * Only the page is kept in memory: the lowest 'limit' policy IDs after startAfter
+			 */
+			final NavigableSet<String> page = new TreeSet<>();
+			lockForReadingInSync();
+			try (final DirectoryStream<Path> policyParentDirStream = Files.newDirectoryStream(policyParentDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
+			{
+				for (final Path policyDirPath : policyParentDirStream)
+				{
+					final String policyId = getPolicyId(policyDirPath);
+					if (startAfter != null && policyId.compareTo(startAfter) <= 0)
+					{
+						continue;
+					}
+
+					if (page.size() < limit)
+					{
+						page.add(policyId);
+					}
+					else if (policyId.compareTo(page.last()) < 0)
+					{
+						page.pollLast();
+						page.add(policyId);
+					}
+				}
+			}
+			catch (final IOException e)
+			{
+				throw new IOException("Error listing files in policies directory '" + policyParentDirPath + "' of domain '" + domainId + "'", e);
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
+			}
+
+			return page;
+		}
+
+		@Override
+		public Stream<String> streamPolicyIdentifiers() throws IOException
+		{
+			if (enablePdpOnly)
+			{
+				throw DISABLED_OPERATION_EXCEPTION;
+			}
+
+			/*
+			 * Snapshot of the policies directory listing, read while holding the read lock, i.e. while no policy is being changed. Policy IDs are decoded lazily from the directory names.
+			 */
+			final List<Path> policyDirPaths = new ArrayList<>();
+			lockForReadingInSync();
+			try (final DirectoryStream<Path> policyParentDirStream = Files.newDirectoryStream(policyParentDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
+			{
+				for (final Path policyDirPath : policyParentDirStream)
+				{
+					policyDirPaths.add(policyDirPath);
+				}
+			}
+			catch (final IOException e)
+			{
+				throw new IOException("Error listing files in policies directory '" + policyParentDirPath + "' of domain '" + domainId + "'", e);
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
+			}
+
+			return policyDirPaths.stream().map(policyDirPath -> {
+				try
+				{
+					return getPolicyId(policyDirPath);
+				}
+				catch (final IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+
+		@Override
+		public NavigableSet<PolicyVersion> getPolicyVersions(final String policyId, final PolicyVersion startAfter, final int limit) throws IOException
+		{
+			if (enablePdpOnly)
+			{
+				throw DISABLED_OPERATION_EXCEPTION;
+			}
+
+			if (limit < 1)
+			{
+				throw new IllegalArgumentException("Invalid limit (" + limit + "): < 1");
+			}
+
+			if (policyId == null)
+			{
+				return ImmutableSortedSet.of();
+			}
+
+			/*
+			 * Latest to oldest, only the page is kept in memory: the latest 'limit' versions older than startAfter
 			 */
-			try (final DirectoryStream<Path> policyParentDirStream = Files.newDirectoryStream(policyParentDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
+			final NavigableSet<PolicyVersion> page = new TreeSet<>(Comparator.reverseOrder());
+			final Path policyDirPath = getPolicyDirectory(policyId);
+			final String policyFilenameSuffix = policyFilePathFilter.getMatchedSuffix();
+			lockForReadingInSync();
+			try
 			{
-				for (final Path policyDirPath : policyParentDirStream)
+				if (!Files.isDirectory(policyDirPath))
 				{
-					final int versionCount = getPolicyVersionCount(policyDirPath);
-					if (versionCount > maxAllowedVersionCount)
+					return page;
+				}
+
+				try (final DirectoryStream<Path> policyDirStream = Files.newDirectoryStream(policyDirPath, policyFilePathFilter))
+				{
+					for (final Path policyVersionFilePath : policyDirStream)
 					{
-						final Path policyDirName = policyDirPath.getFileName();
-						if (policyDirName == null)
+						final Path policyVersionFileName = policyVersionFilePath.getFileName();
+						if (policyVersionFileName == null)
 						{
-							throw new IOException("Invalid policy (versions) directory path: " + policyDirPath);
+							throw new IOException("Invalid policy file path: " + policyVersionFilePath);
 						}
 
-						final String encodedPolicyId = policyDirName.toString();
-						final String policyId;
-						try
+						final String versionPlusSuffix = policyVersionFileName.toString();
+						final PolicyVersion version = new PolicyVersion(versionPlusSuffix.substring(0, versionPlusSuffix.length() - policyFilenameSuffix.length()));
+						if (startAfter != null && version.compareTo(startAfter) >= 0)
 						{
-							policyId = FlatFileDAOUtils.base64UrlDecode(encodedPolicyId);
+							continue;
 						}
-						catch (final IllegalArgumentException e)
+
+						if (page.size() < limit)
 						{
-							throw new RuntimeException("Invalid policy directory name (bad encoding): " + policyDirName, e);
+							page.add(version);
+						}
+						else if (version.compareTo(page.last()) > 0)
+						{
+							page.pollLast();
+							page.add(version);
 						}
-
-						return new SimpleImmutableEntry<>(policyId, versionCount);
 					}
 				}
+				catch (final IOException e)
+				{
+					throw new IOException("Error listing policy version files in policy directory '" + policyDirPath + "' of domain '" + domainId + "'", e);
+				}
 			}
-			catch (final IOException e)
+			finally
 			{
-				throw new IOException("Error listing files in policies directory '" + policyParentDirPath + "' of domain '" + domainId + "'", e);
+				domainDirLock.readLock().unlock();
 			}
 
-			return null;
+			return page;
 		}
 
 		@Override
@@ -2463,39 +4629,24 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			 * critical (the performance-critical part is getPDP() only). Also this should be in sync as much as possible with the filesystem.
 			 */
 			final Set<String> policyIds = new TreeSet<>();
-			synchronized (domainDirPath)
+			lockForReadingInSync();
+			try
 			{
 				try (final DirectoryStream<Path> policyParentDirStream = Files.newDirectoryStream(policyParentDirPath, FlatFileDAOUtils.SUB_DIRECTORY_STREAM_FILTER))
 				{
 					for (final Path policyDirPath : policyParentDirStream)
 					{
-						final Path policyDirName = policyDirPath.getFileName();
-						if (policyDirName == null)
-						{
-							throw new IOException("Invalid policy (versions) directory path: " + policyDirPath);
-						}
-
-						final String encodedPolicyId = policyDirName.toString();
-						final String policyId;
-						try
-						{
-							policyId = FlatFileDAOUtils.base64UrlDecode(encodedPolicyId);
-						}
-						catch (final IllegalArgumentException e)
-						{
-							throw new RuntimeException("Invalid policy directory name (bad encoding): " + policyDirName, e);
-						}
-
-						policyIds.add(policyId);
+						policyIds.add(getPolicyId(policyDirPath));
 					}
 				}
 				catch (final IOException e)
 				{
 					throw new IOException("Error listing files in policies directory '" + policyParentDirPath + "' of domain '" + domainId + "'", e);
 				}
-
-				// make sure PDP is consistent/in sync with the info returned
-				syncPDP();
+			}
+			finally
+			{
+				domainDirLock.readLock().unlock();
 			}
 
 			return policyIds;
@@ -2509,18 +4660,27 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				throw DISABLED_OPERATION_EXCEPTION;
 			}
 
-			synchronized (domainDirPath)
+			lockForWriting();
+			try
 			{
 				if (Files.exists(domainDirPath, LinkOption.NOFOLLOW_LINKS))
 				{
-					FlatFileDAOUtils.deleteDirectory(domainDirPath, 3);
+					/*
+					 * The directory is moved to the trash atomically - so the domain is removed from the repository right away - but actually deleted later in the background, since this may take a
+					 * while
+					 */
+					trashedDomainDirDeleter.delete(domainDirPath, domainId);
 				}
 
-				synchronized (domainsRootDir)
+				synchronized (getDomainMapLock(domainId))
 				{
 					removeDomainFromCache(domainId);
 				}
 			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
+			}
 
 			return new ReadableDomainPropertiesImpl(domainId, null, cachedExternalId);
 		}
@@ -2577,7 +4737,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			}
 
 			final DomainProperties props;
-			synchronized (domainsRootDir)
+			synchronized (propertiesFile)
 			{
 				props = syncDomainProperties(false);
 			}
@@ -2590,107 +4750,545 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		}
 
 		@Override
-		public PrpRwProperties setOtherPrpProperties(final PrpRwProperties props) throws IOException, IllegalArgumentException
+		public PrpRwProperties setOtherPrpProperties(final PrpRwProperties props) throws IOException, IllegalArgumentException
+		{
+			if (enablePdpOnly)
+			{
+				throw DISABLED_OPERATION_EXCEPTION;
+			}
+
+			if (props == null)
+			{
+				throw NULL_PRP_PROPERTIES_ARGUMENT_EXCEPTION;
+			}
+
+			final DomainProperties updatedProps;
+			/*
+			 * The domain lock prevents policies from being added while checking the new limits against the current policies
+			 */
+			lockForWriting();
+			try
+			{
+				synchronized (propertiesFile)
+				{
+					updatedProps = loadProperties();
+					final int maxPolicyCount = props.getMaxPolicyCountPerDomain();
+					// check that new maxPolicyCount >= current policy count
+					final int policyCount = getPolicyCount();
+					// maxPolicyCount <= 0 considered unlimited
+					if (maxPolicyCount > 0 && maxPolicyCount < policyCount)
+					{
+						throw new IllegalArgumentException("Invalid maxPolicyCount (" + maxPolicyCount + "): < current policy count (" + policyCount + ")!");
+					}
+
+					updatedProps.setMaxPolicyCount(maxPolicyCount > 0 ? BigInteger.valueOf(maxPolicyCount) : null);
+
+					final int maxAllowedVersionCountPerPolicy = props.getMaxVersionCountPerPolicy();
+					final boolean versionRollingEnabled = props.isVersionRollingEnabled();
+					/*
+					 * Check that new maxAllowedVersionCount >= version count of any policy, unless version rolling is enabled: then versions in excess (e.g. not collected yet after addPolicy())
+					 * are removed in the background
+					 */
+					if (!versionRollingEnabled)
+					{
+						final Entry<String, Integer> invalidPolicyVersion = checkPolicyVersionCount(maxAllowedVersionCountPerPolicy);
+						if (invalidPolicyVersion != null)
+						{
+							throw new IllegalArgumentException("Invalid maxVersionCount (" + maxAllowedVersionCountPerPolicy + "): < number of versions (" + invalidPolicyVersion.getValue()
+							        + ") of policy " + invalidPolicyVersion.getKey() + "!");
+						}
+					}
+
+					updatedProps.setMaxVersionCountPerPolicy(maxAllowedVersionCountPerPolicy > 0 ? BigInteger.valueOf(maxAllowedVersionCountPerPolicy) : null);
+					updatedProps.setVersionRollingEnabled(versionRollingEnabled);
+					// validate and save new properties to disk
+					saveProperties(updatedProps);
+					syncDomainProperties(true);
+					if (versionRollingEnabled)
+					{
+						requestExcessPolicyVersionRemoval(maxAllowedVersionCountPerPolicy);
+					}
+				}
+			}
+			finally
+			{
+				domainDirLock.writeLock().unlock();
+			}
+
+			return new PrpRwPropertiesImpl(props.getMaxPolicyCountPerDomain(), props.getMaxVersionCountPerPolicy(), props.isVersionRollingEnabled());
+		}
+
+		@Override
+		public boolean isXacmlXmlSupported()
+		{
+			return pdp.isXacmlXmlSupportEnabled();
+		}
+
+		@Override
+		public boolean isXacmlJsonSupported()
+		{
+			return pdp.isXacmlJsonSupportEnabled();
+		}
+
+		/**
+		 * Get the weight of the domain for the evaluation scheduler, from the domain properties
+		 * 
+		 * @return weight
+		 */
+		private int getEvaluationWeight()
+		{
+			final CachedDomainProperties props = cachedProperties;
+			if (props != null)
+			{
+				return props.evaluationWeight;
+			}
+
+			/*
+			 * Properties not parsed yet (domain loaded from the externalId index at startup)
+			 */
+			try
+			{
+				loadProperties();
+			}
+			catch (final IOException e)
+			{
+				LOGGER.error("Domain '{}': failed to get the evaluation weight from the domain properties, using the default weight ({})", domainId, EvaluationScheduler.DEFAULT_WEIGHT, e);
+				return EvaluationScheduler.DEFAULT_WEIGHT;
+			}
+
+			return cachedProperties.evaluationWeight;
+		}
+
+		/**
+		 * Evaluates a decision request, unless an identical request is being evaluated by the same PDP already, in which case the result of the latter is awaited and shared. Evaluations are
+		 * shared only while in progress (no caching). If the identical request's evaluation takes longer than the coalescing timeout, the request is evaluated independently (through the
+		 * evaluation scheduler if any).
+		 * 
+		 * @param evaluationsInFlight
+		 *            evaluations in progress, by request
+		 * @param key
+		 *            key of the request in {@code evaluationsInFlight}
+		 * @param evaluation
+		 *            evaluation of the request, if none in progress already (or too slow)
+		 * @param sharedDecisionRecorder
+		 *            records the metrics of a request that got the result of the identical request's evaluation (response, or null if the evaluation failed)
+		 * @return response
+		 * @throws RejectedExecutionException
+		 *             if the calling thread is interrupted while waiting for the identical request's evaluation, or the evaluation scheduler rejects the request
+		 */
+		private <RESPONSE> RESPONSE evaluateCoalesced(final ConcurrentMap<InFlightRequestKey, CompletableFuture<RESPONSE>> evaluationsInFlight, final InFlightRequestKey key,
+		        final Supplier<RESPONSE> evaluation, final Consumer<RESPONSE> sharedDecisionRecorder) throws RejectedExecutionException
+		{
+			final CompletableFuture<RESPONSE> newEvaluation = new CompletableFuture<>();
+			final CompletableFuture<RESPONSE> sharedEvaluation = evaluationsInFlight.putIfAbsent(key, newEvaluation);
+			if (sharedEvaluation != null)
+			{
+				final RESPONSE sharedResponse;
+				try
+				{
+					sharedResponse = awaitSharedEvaluation(sharedEvaluation, decisionRequestCoalescingTimeoutNanos, domainId);
+				}
+				catch (final RejectedExecutionException e)
+				{
+					// interrupted, or the identical request was rejected, i.e. not evaluated
+					throw e;
+				}
+				catch (final RuntimeException | Error e)
+				{
+					coalescedRequestCount.increment();
+					sharedDecisionRecorder.accept(null);
+					throw e;
+				}
+
+				if (sharedResponse != null)
+				{
+					coalescedRequestCount.increment();
+					sharedDecisionRecorder.accept(sharedResponse);
+					return sharedResponse;
+				}
+
+				LOGGER.debug("Domain '{}': evaluation of identical decision request still in progress after coalescing timeout, evaluating the request independently", domainId);
+				return evaluation.get();
+			}
+
+			/*
+			 * Requests arriving after the evaluation is done must not get its result, so remove it from the in-flight evaluations first
+			 */
+			final RESPONSE response;
+			try
+			{
+				response = evaluation.get();
+			}
+			catch (final Throwable e)
+			{
+				evaluationsInFlight.remove(key, newEvaluation);
+				newEvaluation.completeExceptionally(e);
+				throw e;
+			}
+
+			evaluationsInFlight.remove(key, newEvaluation);
+			newEvaluation.complete(response);
+			return response;
+		}
+
+		/**
+		 * Starts the evaluation of a decision request: arms the deadline (if any), and waits for the evaluation scheduler (if any) to admit the request. If (and only if) this returns true,
+		 * {@link #endEvaluation(EvaluationDeadline)} must be called after the evaluation.
+		 * 
+		 * @param deadline
+		 *            evaluation deadline, null if none
+		 * @return true iff the request may be evaluated; false if the deadline has passed or the evaluation has been cancelled already
+		 * @throws RejectedExecutionException
+		 *             if too many requests of the domain are waiting for evaluation already
+		 */
+		private boolean beginEvaluation(final EvaluationDeadline deadline) throws RejectedExecutionException
+		{
+			if (deadline == null)
+			{
+				if (evaluationBulkhead != null)
+				{
+					evaluationScheduler.acquire(evaluationBulkhead, getEvaluationWeight(), null);
+				}
+
+				return true;
+			}
+
+			deadline.attach();
+			final boolean admitted;
+			try
+			{
+				if (deadline.needsTimer())
+				{
+					deadline.setTimer(evaluationDeadlineTimer.schedule(deadline::interruptEvaluatingThread, deadline.getRemainingNanos(), TimeUnit.NANOSECONDS));
+				}
+
+				admitted = !deadline.isExpired() && (evaluationBulkhead == null || evaluationScheduler.acquire(evaluationBulkhead, getEvaluationWeight(), deadline));
+			}
+			catch (final RuntimeException e)
+			{
+				deadline.detach();
+				throw e;
+			}
+
+			if (!admitted)
+			{
+				deadline.detach();
+				return false;
+			}
+
+			if (!deadline.startEvaluation())
+			{
+				endEvaluation(deadline);
+				return false;
+			}
+
+			return true;
+		}
+
+		private void endEvaluation(final EvaluationDeadline deadline)
+		{
+			if (evaluationBulkhead != null)
+			{
+				evaluationScheduler.release(evaluationBulkhead);
+			}
+
+			if (deadline != null)
+			{
+				deadline.detach();
+			}
+		}
+
+		@Override
+		public Response evaluatePolicyDecision(final Request request) throws UnsupportedOperationException
+		{
+			return evaluatePolicyDecision(request, null);
+		}
+
+		@Override
+		public Response evaluatePolicyDecision(final Request request, final EvaluationDeadline deadline) throws UnsupportedOperationException, RejectedExecutionException
+		{
+			final PdpBundle pdpBundle = this.pdp;
+			if (pdpBundle == null)
+			{
+				throw NULL_PDP_ERROR;
+			}
+
+			final long startTime = System.nanoTime();
+			/*
+			 * Requests with a deadline are not coalesced, since the result of one depends on its own deadline
+			 */
+			if (xacmlXmlEvaluationsInFlight == null || deadline != null)
+			{
+				return evaluate(pdpBundle, request, deadline, startTime);
+			}
+
+			return evaluateCoalesced(xacmlXmlEvaluationsInFlight, new InFlightRequestKey(pdpBundle, request, request.hashCode()), () -> evaluate(pdpBundle, request, null, startTime), response -> {
+				decisionMetrics.requestStarted(RequestFormat.XACML_XML);
+				recordDecisions(response, startTime);
+			});
+		}
+
+		private Response evaluate(final PdpBundle pdpBundle, final Request request, final EvaluationDeadline deadline, final long startTime) throws RejectedExecutionException
+		{
+			final boolean admitted = beginEvaluation(deadline);
+			decisionMetrics.requestStarted(RequestFormat.XACML_XML);
+			Response response = null;
+			try
+			{
+				if (admitted)
+				{
+					try
+					{
+						response = pdpBundle.evaluate(request);
+					}
+					catch (final RuntimeException e)
+					{
+						// evaluation may fail because interrupted on expiration
+						if (deadline == null || !deadline.isExpired())
+						{
+							throw e;
+						}
+					}
+					finally
+					{
+						endEvaluation(deadline);
+					}
+				}
+
+				if (deadline != null && deadline.isExpired())
+				{
+					decisionMetrics.recordTimeout(RequestFormat.XACML_XML);
+					response = newXacmlXmlTimeoutResponse(deadline);
+				}
+
+				return response;
+			}
+			finally
+			{
+				recordDecisions(response, startTime);
+			}
+		}
+
+		/**
+		 * Records the decision(s) of a XACML/XML request evaluation - started with {@code decisionMetrics.requestStarted(RequestFormat.XACML_XML)} - and its completion
+		 * 
+		 * @param response
+		 *            response; null if the evaluation failed
+		 * @param startTime
+		 *            request start time
+		 */
+		private void recordDecisions(final Response response, final long startTime)
+		{
+			final long latency = System.nanoTime() - startTime;
+			if (response == null)
+			{
+				decisionMetrics.recordDecision(RequestFormat.XACML_XML, DecisionType.INDETERMINATE);
+			}
+			else
+			{
+				for (final Result result : response.getResults())
+				{
+					decisionMetrics.recordDecision(RequestFormat.XACML_XML, result.getDecision());
+				}
+			}
+
+			decisionMetrics.requestCompleted(RequestFormat.XACML_XML, latency);
+		}
+
+		@Override
+		public JSONObject evaluatePolicyDecision(final JSONObject request) throws UnsupportedOperationException
+		{
+			return evaluatePolicyDecision(request, null);
+		}
+
+		@Override
+		public JSONObject evaluatePolicyDecision(final JSONObject request, final EvaluationDeadline deadline) throws UnsupportedOperationException, RejectedExecutionException
 		{
-			if (enablePdpOnly)
+			final PdpBundle pdpBundle = this.pdp;
+			if (pdpBundle == null)
 			{
-				throw DISABLED_OPERATION_EXCEPTION;
+				throw NULL_PDP_ERROR;
 			}
 
-			if (props == null)
+			final long startTime = System.nanoTime();
+			/*
+			 * Requests with a deadline are not coalesced, since the result of one depends on its own deadline
+			 */
+			if (xacmlJsonEvaluationsInFlight == null || deadline != null)
 			{
-				throw NULL_PRP_PROPERTIES_ARGUMENT_EXCEPTION;
+				return evaluate(pdpBundle, request, deadline, startTime);
 			}
 
-			final DomainProperties updatedProps;
-			synchronized (domainsRootDir)
+			// JSONObject has no value-based equals/hashCode
+			final String normalizedRequest = toCanonicalJson(request);
+			return evaluateCoalesced(xacmlJsonEvaluationsInFlight, new InFlightRequestKey(pdpBundle, normalizedRequest, normalizedRequest.hashCode()), () -> evaluate(pdpBundle, request, null, startTime),
+			        response -> {
+				        decisionMetrics.requestStarted(RequestFormat.XACML_JSON);
+				        recordDecisions(response, startTime);
+			        });
+		}
+
+		private JSONObject evaluate(final PdpBundle pdpBundle, final JSONObject request, final EvaluationDeadline deadline, final long startTime) throws RejectedExecutionException
+		{
+			final boolean admitted = beginEvaluation(deadline);
+			decisionMetrics.requestStarted(RequestFormat.XACML_JSON);
+			JSONObject response = null;
+			try
 			{
-				updatedProps = loadProperties();
-				final int maxPolicyCount = props.getMaxPolicyCountPerDomain();
-				// check that new maxPolicyCount >= current policy count
-				final int policyCount = getPolicyCount();
-				// maxPolicyCount <= 0 considered unlimited
-				if (maxPolicyCount > 0 && maxPolicyCount < policyCount)
+				if (admitted)
 				{
-					throw new IllegalArgumentException("Invalid maxPolicyCount (" + maxPolicyCount + "): < current policy count (" + policyCount + ")!");
+					try
+					{
+						response = pdpBundle.evaluate(request);
+					}
+					catch (final RuntimeException e)
+					{
+						// evaluation may fail because interrupted on expiration
+						if (deadline == null || !deadline.isExpired())
+						{
+							throw e;
+						}
+					}
+					finally
+					{
+						endEvaluation(deadline);
+					}
 				}
 
-				updatedProps.setMaxPolicyCount(maxPolicyCount > 0 ? BigInteger.valueOf(maxPolicyCount) : null);
-
-				final int maxAllowedVersionCountPerPolicy = props.getMaxVersionCountPerPolicy();
-				// check that new maxAllowedVersionCount >= version count of any
-				// policy
-				final Entry<String, Integer> invalidPolicyVersion = checkPolicyVersionCount(maxAllowedVersionCountPerPolicy);
-				if (invalidPolicyVersion != null)
+				if (deadline != null && deadline.isExpired())
 				{
-					throw new IllegalArgumentException("Invalid maxVersionCount (" + maxAllowedVersionCountPerPolicy + "): < number of versions (" + invalidPolicyVersion.getValue() + ") of policy "
-					        + invalidPolicyVersion.getKey() + "!");
+					decisionMetrics.recordTimeout(RequestFormat.XACML_JSON);
+					response = newXacmlJsonTimeoutResponse(deadline);
 				}
 
-				updatedProps.setMaxVersionCountPerPolicy(maxAllowedVersionCountPerPolicy > 0 ? BigInteger.valueOf(maxAllowedVersionCountPerPolicy) : null);
-				updatedProps.setVersionRollingEnabled(props.isVersionRollingEnabled());
-				// validate and save new properties to disk
-				saveProperties(updatedProps);
-				syncDomainProperties(true);
+				return response;
+			}
+			finally
+			{
+				recordDecisions(response, startTime);
 			}
-
-			return new PrpRwPropertiesImpl(props.getMaxPolicyCountPerDomain(), props.getMaxVersionCountPerPolicy(), props.isVersionRollingEnabled());
 		}
 
 		@Override
-		public boolean isXacmlXmlSupported()
+		public void evaluateXacmlXmlPolicyDecision(final InputStream request, final OutputStream response, final EvaluationDeadline deadline)
+		        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException
 		{
-			return pdp.isXacmlXmlSupportEnabled();
+			final PdpBundle pdpBundle = this.pdp;
+			if (pdpBundle == null)
+			{
+				throw NULL_PDP_ERROR;
+			}
+
+			final Response xacmlResponse = evaluatePolicyDecision(readXacmlXmlRequest(request), deadline);
+			final byte[] preSerializedResponse = pdpBundle.getPreSerializedResponse(xacmlResponse);
+			if (preSerializedResponse == null)
+			{
+				writeXacmlXmlResponse(xacmlResponse, response);
+			}
+			else
+			{
+				response.write(preSerializedResponse);
+				response.flush();
+			}
 		}
 
 		@Override
-		public boolean isXacmlJsonSupported()
+		public void evaluateXacmlXmlPolicyDecision(final byte[] request, final OutputStream response, final EvaluationDeadline deadline)
+		        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException
 		{
-			return pdp.isXacmlJsonSupportEnabled();
+			evaluateXacmlXmlPolicyDecision(new ByteArrayInputStream(request), response, deadline);
 		}
 
 		@Override
-		public Response evaluatePolicyDecision(final Request request) throws UnsupportedOperationException
+		public void evaluateXacmlJsonPolicyDecision(final InputStream request, final OutputStream response, final EvaluationDeadline deadline)
+		        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException
 		{
-			if (pdp == null)
+			final PdpBundle pdpBundle = this.pdp;
+			if (pdpBundle == null)
 			{
 				throw NULL_PDP_ERROR;
 			}
 
-			return pdp.evaluate(request);
+			// fail before reading the request if not supported
+			if (!pdpBundle.isXacmlJsonSupportEnabled())
+			{
+				throw UNSUPPORTED_XACML_JSON_PROFILE_OPERATION_EXCEPTION;
+			}
+
+			final JSONObject jsonResponse = evaluatePolicyDecision(readXacmlJsonRequest(request), deadline);
+			final byte[] preSerializedResponse = pdpBundle.getPreSerializedResponse(jsonResponse);
+			if (preSerializedResponse == null)
+			{
+				writeXacmlJsonResponse(jsonResponse, response);
+			}
+			else
+			{
+				response.write(preSerializedResponse);
+				response.flush();
+			}
 		}
 
 		@Override
-		public JSONObject evaluatePolicyDecision(final JSONObject request) throws UnsupportedOperationException
+		public void evaluateXacmlJsonPolicyDecision(final byte[] request, final OutputStream response, final EvaluationDeadline deadline)
+		        throws IOException, IllegalArgumentException, UnsupportedOperationException, RejectedExecutionException
+		{
+			evaluateXacmlJsonPolicyDecision(new ByteArrayInputStream(request), response, deadline);
+		}
+
+		/**
+		 * Records the decision(s) of a XACML/JSON request evaluation - started with {@code decisionMetrics.requestStarted(RequestFormat.XACML_JSON)} - and its completion
+		 * 
+		 * @param response
+		 *            response; null if the evaluation failed
+		 * @param startTime
+		 *            request start time
+		 */
+		private void recordDecisions(final JSONObject response, final long startTime)
 		{
-			if (pdp == null)
+			final long latency = System.nanoTime() - startTime;
+			/*
+			 * XACML/JSON response: {"Response": [{"Decision": "Permit", ...}, ...]}
+			 */
+			final JSONArray results = response == null ? null : response.optJSONArray("Response");
+			if (results == null)
 			{
-				throw NULL_PDP_ERROR;
+				decisionMetrics.recordDecision(RequestFormat.XACML_JSON, DecisionType.INDETERMINATE);
+			}
+			else
+			{
+				for (int i = 0; i < results.length(); i++)
+				{
+					final JSONObject result = results.optJSONObject(i);
+					decisionMetrics.recordDecision(RequestFormat.XACML_JSON, result == null ? DecisionType.INDETERMINATE : toDecisionType(result.optString("Decision")));
+				}
 			}
 
-			return pdp.evaluate(request);
+			decisionMetrics.requestCompleted(RequestFormat.XACML_JSON, latency);
 		}
 
 	}
 
 	/**
-	 * Create domain DAO and register it in the map (incl. domainIDsByExternalId if props != null && props.getExternalId() != null). Must be called with {@code synchronized(domainsRootDir)} block
+	 * Create domain DAO and register it in the map (incl. domainIDsByExternalId if props != null && props.getExternalId() != null). Must be called with {@code synchronized(getDomainMapLock(domainId))}
+	 * block
 	 * 
 	 * @param domainId domain ID
 	 * @param domainDirectory domain directory
 	 * @param props domain properties
 	 *            (optional) specific domain properties, or null if default or no properties should be used
+	 * @param spareDomain
+	 *            spare domain claimed for the new domain, i.e. already moved to {@code domainDirectory}; null if none
 	 * @return the existing domain if a domain with such ID already exists in the map and properties unchanged ({@code props == null}), else the new domain
 	 * @throws IOException I/O error accessing domainDirectory
 	 * @throws IllegalArgumentException
 	 *             if a domain with such ID already exists and {@code props != null}; OR there is an externalId conflict, i.e. the externalId is set in {@code props} but is already associated with
 	 *             another domain (conflict)
 	 */
-	private synchronized DOMAIN_DAO_CLIENT addDomainToCacheAfterDirectoryCreated(final String domainId, final Path domainDirectory, final WritableDomainProperties props)
-	        throws IOException, IllegalArgumentException
+	private DOMAIN_DAO_CLIENT addDomainToCacheAfterDirectoryCreated(final String domainId, final Path domainDirectory, final WritableDomainProperties props,
+	        final SpareDomain spareDomain) throws IOException, IllegalArgumentException
 	{
 		/*
-		 * Assumed synchronized on domainsRootDir by the caller
+		 * Assumed synchronized on getDomainMapLock(domainId) by the caller
 		 */
 		final DOMAIN_DAO_CLIENT prevDomain = this.domainMap.get(domainId);
 		if (prevDomain != null)
@@ -2707,7 +5305,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		}
 		// prevDomain == null
 		final DOMAIN_DAO_CLIENT domainDaoClient = domainDaoClientFactory.getInstance(domainId, () -> {
-			final FileBasedDomainDaoImpl domainDao = new FileBasedDomainDaoImpl(domainDirectory, props);
+			final FileBasedDomainDaoImpl domainDao = new FileBasedDomainDaoImpl(domainDirectory, props, spareDomain);
 			if (props != null)
 			{
 
@@ -2719,17 +5317,23 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		});
 
 		this.domainMap.put(domainId, domainDaoClient);
+		this.sortedDomainIds.add(domainId);
+		this.unknownDomainIds.remove(domainId);
+		requestExternalIdIndexWrite();
 
 		return domainDaoClient;
 	}
 
 	/**
-	 * Creates instance
+	 * Creates instance without spare domains (same as
+	 * {@link #FlatFileBasedDomainsDao(Resource, Resource, int, PdpModelHandler, boolean, boolean, boolean, org.ow2.authzforce.core.pap.api.dao.DomainDaoClient.Factory, int)} with
+	 * {@code spareDomainPoolSize = 0})
 	 * 
 	 * @param domainsRoot
 	 *            root directory of the configuration data of security domains, one subdirectory per domain
 	 * @param domainTmpl
-	 *            domain template directory; directories of new domains are created from this template
+	 *            domain template directory; directories of new domains are created from this template. The template files are hard-linked to the new domain directories whenever the filesystem
+	 *            allows it, therefore they must never be modified in place, but only replaced (e.g. deleted and re-created), to preserve the existing domains.
 	 * @param domainsSyncIntervalSec
 	 *            how often (in seconds) the synchronization of managed domains (in memory) with the domain subdirectories in the <code>domainsRoot</code> directory (on disk) is done. If
 	 *            <code>domainSyncInterval</code> > 0, every <code>domainSyncInterval</code>, the managed domains (loaded in memory) are updated if any change has been detected in the
@@ -2756,11 +5360,221 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 	        final DomainDaoClient.Factory<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT, FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>, DOMAIN_DAO_CLIENT> domainDaoClientFactory)
 	        throws IOException
 	{
-		if (domainsRoot == null || domainTmpl == null || pdpModelHandler == null || domainDaoClientFactory == null)
+		this(domainsRoot, domainTmpl, domainsSyncIntervalSec, pdpModelHandler, enablePdpOnly, enableXacmlJsonProfile, useRandomAddressBasedUUID, domainDaoClientFactory, 0);
+	}
+
+	/**
+	 * Creates instance with default decision metrics registry (same as
+	 * {@link #FlatFileBasedDomainsDao(Resource, Resource, int, PdpModelHandler, boolean, boolean, boolean, org.ow2.authzforce.core.pap.api.dao.DomainDaoClient.Factory, int, DecisionMetricsRegistry)}
+	 * with {@code decisionMetricsRegistry = new DefaultDecisionMetricsRegistry()})
+	 * 
+	 * @param domainsRoot
+	 *            root directory of the configuration data of security domains, one subdirectory per domain
+	 * @param domainTmpl
+	 *            domain template directory; directories of new domains are created from this template. The template files are hard-linked to the new domain directories whenever the filesystem
+	 *            allows it, therefore they must never be modified in place, but only replaced (e.g. deleted and re-created), to preserve the existing domains.
+	 * @param domainsSyncIntervalSec
+	 *            how often (in seconds) the synchronization of managed domains (in memory) with the domain subdirectories in the <code>domainsRoot</code> directory (on disk) is done. If
+	 *            <code>domainSyncInterval</code> > 0, every <code>domainSyncInterval</code>, the managed domains (loaded in memory) are updated if any change has been detected in the
+	 *            <code>domainsRoot</code> directory in this interval (since last sync). To be more specific, <i>any change</i> here means any creation/deletion/modification of a domain folder
+	 *            (modification means: any file changed within the folder). If <code>domainSyncInterval</code> &lt;= 0, synchronization is disabled.
+	 * @param pdpModelHandler
+	 *            PDP configuration model handler
+	 * @param useRandomAddressBasedUUID
+	 *            true iff a random multicast address must be used as node field of generated UUIDs (Version 1), else the MAC address of one of the network interfaces is used. Setting this to 'true'
+	 *            is NOT recommended unless the host is disconnected from the network. These generated UUIDs are used for domain IDs.
+	 * @param domainDaoClientFactory
+	 *            domain DAO client factory
+	 * @param enablePdpOnly
+	 *            enable only PDP-related operations (in particular, disable all PAP features)
+	 * @param enableXacmlJsonProfile
+	 *            enable support of XACML JSON Profile (standard XACML/JSON request/response format)
+	 * @param spareDomainPoolSize
+	 *            number of spare domains to be prepared in advance (in the background) from the domain template, i.e. domain directories with PDP already loaded, for faster domain creation by
+	 *            {@link #addDomain(WritableDomainProperties)}. The PDP is not loaded in advance if the template's PDP configuration uses ${PARENT_DIR} anywhere but in the policy provider's
+	 *            policyLocationPattern, since it would refer to the spare domain directory. Spare domains are always created from the current domain template but are not updated if the template
+	 *            changes afterwards. Value 0 (or negative) disables spare domains.
+	 * @throws IOException
+	 *             I/O error occurred scanning existing domain folders in {@code domainsRoot} for loading.
+	 */
+	@ConstructorProperties({ "domainsRoot", "domainTmpl", "domainsSyncIntervalSec", "pdpModelHandler", "enablePdpOnly", "enableXacmlJsonProfile", "useRandomAddressBasedUUID",
+	        "domainDaoClientFactory", "spareDomainPoolSize" })
+	public FlatFileBasedDomainsDao(final Resource domainsRoot, final Resource domainTmpl, final int domainsSyncIntervalSec, final PdpModelHandler pdpModelHandler, final boolean enablePdpOnly,
+	        final boolean enableXacmlJsonProfile, final boolean useRandomAddressBasedUUID,
+	        final DomainDaoClient.Factory<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT, FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>, DOMAIN_DAO_CLIENT> domainDaoClientFactory,
+	        final int spareDomainPoolSize)
+	        throws IOException
+	{
+		this(domainsRoot, domainTmpl, domainsSyncIntervalSec, pdpModelHandler, enablePdpOnly, enableXacmlJsonProfile, useRandomAddressBasedUUID, domainDaoClientFactory, spareDomainPoolSize,
+		        new DefaultDecisionMetricsRegistry());
+	}
+
+	/**
+	 * Creates instance
+	 * 
+	 * @param domainsRoot
+	 *            root directory of the configuration data of security domains, one subdirectory per domain
+	 * @param domainTmpl
+	 *            domain template directory; directories of new domains are created from this template. The template files are hard-linked to the new domain directories whenever the filesystem
+	 *            allows it, therefore they must never be modified in place, but only replaced (e.g. deleted and re-created), to preserve the existing domains.
+	 * @param domainsSyncIntervalSec
+	 *            how often (in seconds) the synchronization of managed domains (in memory) with the domain subdirectories in the <code>domainsRoot</code> directory (on disk) is done. If
+	 *            <code>domainSyncInterval</code> > 0, every <code>domainSyncInterval</code>, the managed domains (loaded in memory) are updated if any change has been detected in the
+	 *            <code>domainsRoot</code> directory in this interval (since last sync). To be more specific, <i>any change</i> here means any creation/deletion/modification of a domain folder
+	 *            (modification means: any file changed within the folder). If <code>domainSyncInterval</code> &lt;= 0, synchronization is disabled.
+	 * @param pdpModelHandler
+	 *            PDP configuration model handler
+	 * @param useRandomAddressBasedUUID
+	 *            true iff a random multicast address must be used as node field of generated UUIDs (Version 1), else the MAC address of one of the network interfaces is used. Setting this to 'true'
+	 *            is NOT recommended unless the host is disconnected from the network. These generated UUIDs are used for domain IDs.
+	 * @param domainDaoClientFactory
+	 *            domain DAO client factory
+	 * @param enablePdpOnly
+	 *            enable only PDP-related operations (in particular, disable all PAP features)
+	 * @param enableXacmlJsonProfile
+	 *            enable support of XACML JSON Profile (standard XACML/JSON request/response format)
+	 * @param spareDomainPoolSize
+	 *            number of spare domains to be prepared in advance (in the background) from the domain template, i.e. domain directories with PDP already loaded, for faster domain creation by
+	 *            {@link #addDomain(WritableDomainProperties)}. The PDP is not loaded in advance if the template's PDP configuration uses ${PARENT_DIR} anywhere but in the policy provider's
+	 *            policyLocationPattern, since it would refer to the spare domain directory. Spare domains are always created from the current domain template but are not updated if the template
+	 *            changes afterwards. Value 0 (or negative) disables spare domains.
+	 * @param decisionMetricsRegistry
+	 *            registry of per-domain decision metrics (decision counts by outcome, latency, in-flight requests), e.g. {@link DefaultDecisionMetricsRegistry} or an adapter to a metrics library;
+	 *            {@link DecisionMetricsRegistry#DISABLED} to disable decision metrics.
+	 * @throws IOException
+	 *             I/O error occurred scanning existing domain folders in {@code domainsRoot} for loading.
+	 */
+	@ConstructorProperties({ "domainsRoot", "domainTmpl", "domainsSyncIntervalSec", "pdpModelHandler", "enablePdpOnly", "enableXacmlJsonProfile", "useRandomAddressBasedUUID",
+	        "domainDaoClientFactory", "spareDomainPoolSize", "decisionMetricsRegistry" })
+	public FlatFileBasedDomainsDao(final Resource domainsRoot, final Resource domainTmpl, final int domainsSyncIntervalSec, final PdpModelHandler pdpModelHandler, final boolean enablePdpOnly,
+	        final boolean enableXacmlJsonProfile, final boolean useRandomAddressBasedUUID,
+	        final DomainDaoClient.Factory<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT, FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>, DOMAIN_DAO_CLIENT> domainDaoClientFactory,
+	        final int spareDomainPoolSize, final DecisionMetricsRegistry decisionMetricsRegistry)
+	        throws IOException
+	{
+		this(domainsRoot, domainTmpl, domainsSyncIntervalSec, pdpModelHandler, enablePdpOnly, enableXacmlJsonProfile, useRandomAddressBasedUUID, domainDaoClientFactory, spareDomainPoolSize,
+		        decisionMetricsRegistry, null);
+	}
+
+	/**
+	 * Creates instance
+	 * 
+	 * @param domainsRoot
+	 *            root directory of the configuration data of security domains, one subdirectory per domain
+	 * @param domainTmpl
+	 *            domain template directory; directories of new domains are created from this template. The template files are hard-linked to the new domain directories whenever the filesystem
+	 *            allows it, therefore they must never be modified in place, but only replaced (e.g. deleted and re-created), to preserve the existing domains.
+	 * @param domainsSyncIntervalSec
+	 *            how often (in seconds) the synchronization of managed domains (in memory) with the domain subdirectories in the <code>domainsRoot</code> directory (on disk) is done. If
+	 *            <code>domainSyncInterval</code> > 0, every <code>domainSyncInterval</code>, the managed domains (loaded in memory) are updated if any change has been detected in the
+	 *            <code>domainsRoot</code> directory in this interval (since last sync). To be more specific, <i>any change</i> here means any creation/deletion/modification of a domain folder
+	 *            (modification means: any file changed within the folder). If <code>domainSyncInterval</code> &lt;= 0, synchronization is disabled.
+	 * @param pdpModelHandler
+	 *            PDP configuration model handler
+	 * @param useRandomAddressBasedUUID
+	 *            true iff a random multicast address must be used as node field of generated UUIDs (Version 1), else the MAC address of one of the network interfaces is used. Setting this to 'true'
+	 *            is NOT recommended unless the host is disconnected from the network. These generated UUIDs are used for domain IDs.
+	 * @param domainDaoClientFactory
+	 *            domain DAO client factory
+	 * @param enablePdpOnly
+	 *            enable only PDP-related operations (in particular, disable all PAP features)
+	 * @param enableXacmlJsonProfile
+	 *            enable support of XACML JSON Profile (standard XACML/JSON request/response format)
+	 * @param spareDomainPoolSize
+	 *            number of spare domains to be prepared in advance (in the background) from the domain template, i.e. domain directories with PDP already loaded, for faster domain creation by
+	 *            {@link #addDomain(WritableDomainProperties)}. The PDP is not loaded in advance if the template's PDP configuration uses ${PARENT_DIR} anywhere but in the policy provider's
+	 *            policyLocationPattern, since it would refer to the spare domain directory. Spare domains are always created from the current domain template but are not updated if the template
+	 *            changes afterwards. Value 0 (or negative) disables spare domains.
+	 * @param decisionMetricsRegistry
+	 *            registry of per-domain decision metrics (decision counts by outcome, latency, in-flight requests), e.g. {@link DefaultDecisionMetricsRegistry} or an adapter to a metrics library;
+	 *            {@link DecisionMetricsRegistry#DISABLED} to disable decision metrics.
+	 * @param evaluationScheduler
+	 *            scheduler of decision evaluations across domains (per-domain concurrency limits and queues, weighted fair queuing), to isolate domains from each other under load; null to
+	 *            disable scheduling, i.e. evaluate every decision request on the calling thread right away.
+	 * @throws IOException
+	 *             I/O error occurred scanning existing domain folders in {@code domainsRoot} for loading.
+	 */
+	@ConstructorProperties({ "domainsRoot", "domainTmpl", "domainsSyncIntervalSec", "pdpModelHandler", "enablePdpOnly", "enableXacmlJsonProfile", "useRandomAddressBasedUUID",
+	        "domainDaoClientFactory", "spareDomainPoolSize", "decisionMetricsRegistry", "evaluationScheduler" })
+	public FlatFileBasedDomainsDao(final Resource domainsRoot, final Resource domainTmpl, final int domainsSyncIntervalSec, final PdpModelHandler pdpModelHandler, final boolean enablePdpOnly,
+	        final boolean enableXacmlJsonProfile, final boolean useRandomAddressBasedUUID,
+	        final DomainDaoClient.Factory<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT, FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>, DOMAIN_DAO_CLIENT> domainDaoClientFactory,
+	        final int spareDomainPoolSize, final DecisionMetricsRegistry decisionMetricsRegistry, final EvaluationScheduler evaluationScheduler)
+	        throws IOException
+	{
+		this(domainsRoot, domainTmpl, domainsSyncIntervalSec, pdpModelHandler, enablePdpOnly, enableXacmlJsonProfile, useRandomAddressBasedUUID, domainDaoClientFactory, spareDomainPoolSize,
+		        decisionMetricsRegistry, evaluationScheduler, 0);
+	}
+
+	/**
+	 * Creates instance
+	 * 
+	 * @param domainsRoot
+	 *            root directory of the configuration data of security domains, one subdirectory per domain
+	 * @param domainTmpl
+	 *            domain template directory; directories of new domains are created from this template. The template files are hard-linked to the new domain directories whenever the filesystem
+	 *            allows it, therefore they must never be modified in place, but only replaced (e.g. deleted and re-created), to preserve the existing domains.
+	 * @param domainsSyncIntervalSec
+	 *            how often (in seconds) the synchronization of managed domains (in memory) with the domain subdirectories in the <code>domainsRoot</code> directory (on disk) is done. If
+	 *            <code>domainSyncInterval</code> > 0, every <code>domainSyncInterval</code>, the managed domains (loaded in memory) are updated if any change has been detected in the
+	 *            <code>domainsRoot</code> directory in this interval (since last sync). To be more specific, <i>any change</i> here means any creation/deletion/modification of a domain folder
+	 *            (modification means: any file changed within the folder). If <code>domainSyncInterval</code> &lt;= 0, synchronization is disabled.
+	 * @param pdpModelHandler
+	 *            PDP configuration model handler
+	 * @param useRandomAddressBasedUUID
+	 *            true iff a random multicast address must be used as node field of generated UUIDs (Version 1), else the MAC address of one of the network interfaces is used. Setting this to 'true'
+	 *            is NOT recommended unless the host is disconnected from the network. These generated UUIDs are used for domain IDs.
+	 * @param domainDaoClientFactory
+	 *            domain DAO client factory
+	 * @param enablePdpOnly
+	 *            enable only PDP-related operations (in particular, disable all PAP features)
+	 * @param enableXacmlJsonProfile
+	 *            enable support of XACML JSON Profile (standard XACML/JSON request/response format)
+	 * @param spareDomainPoolSize
+	 *            number of spare domains to be prepared in advance (in the background) from the domain template, i.e. domain directories with PDP already loaded, for faster domain creation by
+	 *            {@link #addDomain(WritableDomainProperties)}. The PDP is not loaded in advance if the template's PDP configuration uses ${PARENT_DIR} anywhere but in the policy provider's
+	 *            policyLocationPattern, since it would refer to the spare domain directory. Spare domains are always created from the current domain template but are not updated if the template
+	 *            changes afterwards. Value 0 (or negative) disables spare domains.
+	 * @param decisionMetricsRegistry
+	 *            registry of per-domain decision metrics (decision counts by outcome, latency, in-flight requests), e.g. {@link DefaultDecisionMetricsRegistry} or an adapter to a metrics library;
+	 *            {@link DecisionMetricsRegistry#DISABLED} to disable decision metrics.
+	 * @param evaluationScheduler
+	 *            scheduler of decision evaluations across domains (per-domain concurrency limits and queues, weighted fair queuing), to isolate domains from each other under load; null to
+	 *            disable scheduling, i.e. evaluate every decision request on the calling thread right away.
+	 * @param decisionRequestCoalescingTimeoutMs
+	 *            if strictly positive, concurrent identical decision requests (without deadline) to the same domain share the same evaluation and result, i.e. a request arriving while an
+	 *            identical one is being evaluated by the same PDP waits for the result of the latter instead of being evaluated again, for this number of milliseconds at most; past this timeout
+	 *            (e.g. attribute provider blocked), the request is evaluated independently, through the evaluation scheduler if any. Results are not cached beyond the evaluation. The same
+	 *            response instance is returned to all the requesters sharing it, which therefore must not modify it. Value 0 (or negative) disables coalescing.
+	 * @throws IOException
+	 *             I/O error occurred scanning existing domain folders in {@code domainsRoot} for loading.
+	 */
+	@ConstructorProperties({ "domainsRoot", "domainTmpl", "domainsSyncIntervalSec", "pdpModelHandler", "enablePdpOnly", "enableXacmlJsonProfile", "useRandomAddressBasedUUID",
+	        "domainDaoClientFactory", "spareDomainPoolSize", "decisionMetricsRegistry", "evaluationScheduler",
+	        "decisionRequestCoalescingTimeoutMs" })
+	public FlatFileBasedDomainsDao(final Resource domainsRoot, final Resource domainTmpl, final int domainsSyncIntervalSec, final PdpModelHandler pdpModelHandler, final boolean enablePdpOnly,
+	        final boolean enableXacmlJsonProfile, final boolean useRandomAddressBasedUUID,
+	        final DomainDaoClient.Factory<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT, FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT>, DOMAIN_DAO_CLIENT> domainDaoClientFactory,
+	        final int spareDomainPoolSize, final DecisionMetricsRegistry decisionMetricsRegistry, final EvaluationScheduler evaluationScheduler,
+	        final int decisionRequestCoalescingTimeoutMs)
+	        throws IOException
+	{
+		if (domainsRoot == null || domainTmpl == null || pdpModelHandler == null || domainDaoClientFactory == null || decisionMetricsRegistry == null)
 		{
 			throw ILLEGAL_CONSTRUCTOR_ARGS_EXCEPTION;
 		}
 
+		this.decisionMetricsRegistry = decisionMetricsRegistry;
+		this.evaluationScheduler = evaluationScheduler;
+		this.decisionRequestCoalescingTimeoutNanos = decisionRequestCoalescingTimeoutMs > 0 ? TimeUnit.MILLISECONDS.toNanos(decisionRequestCoalescingTimeoutMs) : 0;
+		this.evaluationDeadlineTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+			// not a low-priority thread, deadlines must be enforced under load
+			final Thread thread = new Thread(runnable, "authzforce-evaluation-deadline-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.evaluationDeadlineTimer.setRemoveOnCancelPolicy(true);
+
 		this.domainDaoClientFactory = domainDaoClientFactory;
 
 		this.enablePdpOnly = enablePdpOnly;
@@ -2800,6 +5614,7 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 
 		this.domainsRootDir = domainsRootFile.toPath();
 		FlatFileDAOUtils.checkFile("File defined by SecurityDomainManager parameter 'domainsRoot'", domainsRootDir, true, true);
+		Arrays.setAll(domainMapLockStripes, i -> new Object());
 
 		// Validate domainTmpl directory arg
 		if (!domainTmpl.exists())
@@ -2821,18 +5636,24 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		this.domainTmplDirPath = domainTmplFile.toPath();
 		FlatFileDAOUtils.checkFile("File defined by SecurityDomainManager parameter 'domainTmpl'", domainTmplDirPath, true, false);
 
+		if (enablePdpOnly)
+		{
+			// externalIds not used
+			this.externalIdIndexFile = null;
+			this.externalIdIndexAtStartup = null;
+		}
+		else
+		{
+			this.externalIdIndexFile = new ExternalIdIndexFile(domainsRootDir.resolve(EXTERNAL_ID_INDEX_FILENAME));
+			this.externalIdIndexAtStartup = externalIdIndexFile.read();
+		}
+
 		LOGGER.debug("Looking for domain sub-directories in directory {}", domainsRootDir);
 		try (final DirectoryStream<Path> dirStream = Files.newDirectoryStream(domainsRootDir))
 		{
 			for (final Path domainPath : dirStream)
 			{
 				LOGGER.debug("Checking domain in file {}", domainPath);
-				if (!Files.isDirectory(domainPath))
-				{
-					LOGGER.warn("Ignoring invalid domain file {} (not a directory)", domainPath);
-					continue;
-				}
-
 				// domain folder name is the domain ID
 				final Path lastPathSegment = domainPath.getFileName();
 				if (lastPathSegment == null)
@@ -2841,11 +5662,37 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				}
 
 				final String domainId = lastPathSegment.toString();
+				if (domainId.startsWith(DOMAIN_STAGING_DIRNAME_PREFIX))
+				{
+					LOGGER.warn("Removing staging directory {} left by an unfinished domain creation", domainPath);
+					FlatFileDAOUtils.deleteDirectory(domainPath, 3);
+					continue;
+				}
+
+				if (domainId.startsWith(SPARE_DOMAIN_DIRNAME_PREFIX))
+				{
+					// may be incomplete or created from an older domain template
+					LOGGER.info("Removing spare domain directory {} left by previous run", domainPath);
+					FlatFileDAOUtils.deleteDirectory(domainPath, 3);
+					continue;
+				}
+
+				if (domainId.startsWith(RESERVED_FILENAME_PREFIX))
+				{
+					LOGGER.debug("Ignoring reserved file {}", domainPath);
+					continue;
+				}
+
+				if (!Files.isDirectory(domainPath))
+				{
+					LOGGER.warn("Ignoring invalid domain file {} (not a directory)", domainPath);
+					continue;
+				}
 
 				final DOMAIN_DAO_CLIENT domain = domainDaoClientFactory.getInstance(domainId, () -> {
 					try
 					{
-						return new FileBasedDomainDaoImpl(domainPath, null);
+						return new FileBasedDomainDaoImpl(domainPath, null, null);
 					}
 					catch (final IllegalArgumentException e)
 					{
@@ -2855,14 +5702,60 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 				});
 
 				domainMap.put(domainId, domain);
+				sortedDomainIds.add(domainId);
 			}
 		}
-		catch (final IOException e)
+		catch (final IOException e)
+		{
+			throw new IOException("Failed to scan files in the domains root directory '" + domainsRootDir + "' looking for domain directories", e);
+		}
+		finally
+		{
+			externalIdIndexAtStartup = null;
+		}
+
+		// index domains loaded from properties files (not indexed or changed since the index was written)
+		requestExternalIdIndexWrite();
+
+		this.domainDirToMemSyncIntervalSec = Integer.valueOf(domainsSyncIntervalSec).longValue();
+
+		this.trashedDomainDirDeleter = new TrashedDirectoryDeleter(domainsRootDir.resolve(TRASH_DIRNAME));
+		trashedDomainDirDeleter.resume();
+
+		this.policyVersionCollector = new PolicyVersionCollector();
+
+		if (spareDomainPoolSize > 0 && !enablePdpOnly)
+		{
+			this.spareDomainPool = new SpareDomainPool(spareDomainPoolSize);
+			this.spareDomainPool.fill();
+		}
+		else
+		{
+			this.spareDomainPool = null;
+		}
+
+		/*
+		 * Domains created/removed on the filesystem by other means than this DAO (e.g. another instance sharing the same directory) are detected in the background, so that domain listing and
+		 * lookup by externalId never have to scan the domains root directory
+		 */
+		if (domainDirToMemSyncIntervalSec > 0)
+		{
+			this.domainRegistryReconciler = Executors.newSingleThreadScheduledExecutor(newBackgroundThreadFactory("authzforce-domain-registry-reconciler"));
+			this.domainRegistryReconciler.scheduleWithFixedDelay(() -> {
+				try
+				{
+					reconcileDomains();
+				}
+				catch (final Throwable e)
+				{
+					LOGGER.error("Failed to reconcile domains with the domains root directory '{}'", domainsRootDir, e);
+				}
+			}, domainDirToMemSyncIntervalSec, domainDirToMemSyncIntervalSec, TimeUnit.SECONDS);
+		}
+		else
 		{
-			throw new IOException("Failed to scan files in the domains root directory '" + domainsRootDir + "' looking for domain directories", e);
+			this.domainRegistryReconciler = null;
 		}
-
-		this.domainDirToMemSyncIntervalSec = Integer.valueOf(domainsSyncIntervalSec).longValue();
 	}
 
 	/**
@@ -2870,23 +5763,174 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 	 */
 	public void closeDomains()
 	{
-		synchronized (domainsRootDir)
+		if (domainRegistryReconciler != null)
 		{
-			for (final DOMAIN_DAO_CLIENT domain : domainMap.values())
+			domainRegistryReconciler.shutdownNow();
+			try
 			{
-				try
-				{
-					final FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT> domainDAO = domain.getDao();
-					domainDAO.close();
-				}
-				catch (final Throwable t)
+				if (!domainRegistryReconciler.awaitTermination(SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS))
 				{
-					LOGGER.error("Error closing domain {}", domain.getDao().getDomainId(), t);
+					LOGGER.error("Domain registry reconciler: timeout ({}s) occurred before reconciliation could terminate after shutdown request.", SYNC_SERVICE_SHUTDOWN_TIMEOUT_SEC);
 				}
 			}
+			catch (final InterruptedException e)
+			{
+				LOGGER.error("Domain registry reconciler: interrupted while waiting for reconciliation to complete", e);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (spareDomainPool != null)
+		{
+			spareDomainPool.close();
+		}
+
+		trashedDomainDirDeleter.close();
+
+		policyVersionCollector.close();
+
+		evaluationDeadlineTimer.shutdownNow();
+
+		if (externalIdIndexFile != null)
+		{
+			externalIdIndexFile.close();
+		}
+
+		for (final DOMAIN_DAO_CLIENT domain : domainMap.values())
+		{
+			try
+			{
+				final FlatFileBasedDomainDao<VERSION_DAO_CLIENT, POLICY_DAO_CLIENT> domainDAO = domain.getDao();
+				domainDAO.close();
+			}
+			catch (final Throwable t)
+			{
+				LOGGER.error("Error closing domain {}", domain.getDao().getDomainId(), t);
+			}
 		}
 	}
 
+	/**
+	 * Get the registry of per-domain decision metrics
+	 * 
+	 * @return decision metrics registry
+	 */
+	public DecisionMetricsRegistry getDecisionMetricsRegistry()
+	{
+		return decisionMetricsRegistry;
+	}
+
+	/**
+	 * Get the pool of domain properties marshallers, e.g. to monitor it
+	 * 
+	 * @return domain properties marshaller pool
+	 */
+	public static JaxbObjectPool<Marshaller> getDomainPropertiesMarshallerPool()
+	{
+		return DOMAIN_PROPERTIES_MARSHALLER_POOL;
+	}
+
+	/**
+	 * Get the pool of domain properties unmarshallers, e.g. to monitor it
+	 * 
+	 * @return domain properties unmarshaller pool
+	 */
+	public static JaxbObjectPool<Unmarshaller> getDomainPropertiesUnmarshallerPool()
+	{
+		return DOMAIN_PROPERTIES_UNMARSHALLER_POOL;
+	}
+
+	/**
+	 * Get the number of directories of removed domains that are waiting for deletion in the background
+	 * 
+	 * @return number of domain directories pending deletion
+	 */
+	public int getPendingDomainDirectoryDeletionCount()
+	{
+		return trashedDomainDirDeleter.pendingDirCount.get();
+	}
+
+	/**
+	 * Get the number of directories of removed domains deleted in the background since this instance was created
+	 * 
+	 * @return number of domain directories deleted
+	 */
+	public long getDeletedDomainDirectoryCount()
+	{
+		return trashedDomainDirDeleter.deletedDirCount.sum();
+	}
+
+	/**
+	 * Get the number of files deleted in the background (as part of removed domains' directories) since this instance was created
+	 * 
+	 * @return number of domain files deleted
+	 */
+	public long getDeletedDomainFileCount()
+	{
+		return trashedDomainDirDeleter.deletedFileCount.sum();
+	}
+
+	/**
+	 * Get the total size of files deleted in the background (as part of removed domains' directories) since this instance was created
+	 * 
+	 * @return number of bytes deleted
+	 */
+	public long getDeletedDomainByteCount()
+	{
+		return trashedDomainDirDeleter.deletedByteCount.sum();
+	}
+
+	/**
+	 * Get the number of policies waiting for the removal of their excess versions in the background (version rolling)
+	 * 
+	 * @return number of policies pending removal of excess versions
+	 */
+	public int getPendingPolicyVersionCollectionCount()
+	{
+		return policyVersionCollector.pendingPolicyKeys.size();
+	}
+
+	/**
+	 * Get the number of excess policy versions removed in the background (version rolling) since this instance was created
+	 * 
+	 * @return number of policy versions removed
+	 */
+	public long getCollectedPolicyVersionCount()
+	{
+		return policyVersionCollector.removedVersionCount.sum();
+	}
+
+	/**
+	 * Get the number of decision requests that shared the evaluation of an identical request in progress (coalescing), instead of being evaluated, since this instance was created
+	 * 
+	 * @return number of coalesced requests
+	 */
+	public long getCoalescedDecisionRequestCount()
+	{
+		return coalescedRequestCount.sum();
+	}
+
+	/**
+	 * Get the number of lookups of unknown domains ({@link #getDomainDaoClient(String)}, {@link #containsDomain(String)}) rejected without any filesystem access, because the domain ID is not valid
+	 * or was not found on the filesystem recently
+	 * 
+	 * @return number of rejected domain lookups
+	 */
+	public long getRejectedDomainLookupCount()
+	{
+		return rejectedDomainLookupCount.sum();
+	}
+
+	/**
+	 * Get the number of lookups of unknown domains ({@link #getDomainDaoClient(String)}, {@link #containsDomain(String)}) that checked the filesystem
+	 * 
+	 * @return number of domain lookups on the filesystem
+	 */
+	public long getFilesystemDomainLookupCount()
+	{
+		return filesystemDomainLookupCount.sum();
+	}
+
 	@Override
 	public DOMAIN_DAO_CLIENT getDomainDaoClient(final String domainId) throws IOException
 	{
@@ -2895,28 +5939,18 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			throw NULL_DOMAIN_ID_ARG_EXCEPTION;
 		}
 
-		/*
-		 * Synchronized block two avoid that two threads adding the same desynced domain entry to the map
-		 */
-		synchronized (domainsRootDir)
+		if (domainId.startsWith(RESERVED_FILENAME_PREFIX))
 		{
-			final DOMAIN_DAO_CLIENT domain = domainMap.get(domainId);
-			if (domain == null)
-			{
-				/*
-				 * check whether domain directory exists (in case it is not synchronized with domain map
-				 */
-				final Path domainDir = this.domainsRootDir.resolve(domainId);
-
-				if (Files.exists(domainDir))
-				{
-					return addDomainToCacheAfterDirectoryCreated(domainId, domainDir, null);
-				}
-
-			}
+			return null;
+		}
 
-			return domain;
+		final DOMAIN_DAO_CLIENT cachedDomain = domainMap.get(domainId);
+		if (cachedDomain != null)
+		{
+			return cachedDomain;
 		}
+
+		return lookUpDomainOnFilesystem(domainId);
 	}
 
 	@Override
@@ -2936,36 +5970,103 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 		byteBuf.putLong(uuid.getMostSignificantBits());
 		byteBuf.putLong(uuid.getLeastSignificantBits());
 		final String domainId = FlatFileDAOUtils.base64UrlEncode(byteBuf.array());
-		synchronized (domainsRootDir)
+
+		/*
+		 * Claim a spare domain (domain directory created from the template in advance) if any available, else create/initialize new domain directory from domain template directory, in a staging
+		 * directory first, outside the synchronized block since this may take a while. Template files are hard-linked instead of copied whenever possible: this is safe because the domain files are
+		 * never modified in place but replaced (see FlatFileDAOUtils#writeFileAtomically()).
+		 */
+		final SpareDomain spareDomain = spareDomainPool == null ? null : spareDomainPool.claim();
+		final Path domainStagingDir;
+		if (spareDomain == null)
 		{
-			/*
-			 * This should not happen if the UUID generator can be trusted, but - hey - we never know.
-			 */
-			if (this.domainMap.containsKey(domainId))
-			{
-				throw new ConcurrentModificationException(
-				        "Generated domain ID conflicts (is same as) ID of existing domain (flawed domain UUID generator or ID generated in different way?): ID=" + domainId);
-			}
+			domainStagingDir = this.domainsRootDir.resolve(DOMAIN_STAGING_DIRNAME_PREFIX + domainId);
+		}
+		else
+		{
+			domainStagingDir = spareDomain.dirPath;
+			LOGGER.debug("Claimed spare domain directory '{}' for new domain '{}'", domainStagingDir, domainId);
+		}
 
-			/*
-			 * Check whether externalId already used
-			 */
-			final String newExternalId = props.getExternalId();
-			if (newExternalId != null && domainIDsByExternalId.containsKey(newExternalId))
+		boolean isSpareDomainUsed = false;
+		try
+		{
+			if (spareDomain == null)
 			{
-				throw new IllegalArgumentException("externalId conflict: '" + newExternalId + "' cannot be associated with domainId '" + domainId + "' because already associated with another");
+				FlatFileDAOUtils.linkOrCopyDirectory(this.domainTmplDirPath, domainStagingDir, 3);
 			}
 
-			final Path domainDir = this.domainsRootDir.resolve(domainId);
-			if (Files.notExists(domainDir))
+			synchronized (getDomainMapLock(domainId))
 			{
 				/*
-				 * Create/initialize new domain directory from domain template directory
+				 * This should not happen if the UUID generator can be trusted, but - hey - we never know.
+				 */
+				if (this.domainMap.containsKey(domainId))
+				{
+					throw new ConcurrentModificationException(
+					        "Generated domain ID conflicts (is same as) ID of existing domain (flawed domain UUID generator or ID generated in different way?): ID=" + domainId);
+				}
+
+				/*
+				 * Check whether externalId already used (early failure, the externalId is actually reserved atomically when the domain properties are saved)
 				 */
-				FlatFileDAOUtils.copyDirectory(this.domainTmplDirPath, domainDir, 3);
+				final String newExternalId = props.getExternalId();
+				if (newExternalId != null && domainIDsByExternalId.containsKey(newExternalId))
+				{
+					throw new IllegalArgumentException("externalId conflict: '" + newExternalId + "' cannot be associated with domainId '" + domainId + "' because already associated with another");
+				}
+
+				final Path domainDir = this.domainsRootDir.resolve(domainId);
+				final boolean isDomainDirCreated;
+				final SpareDomain claimedSpareDomain;
+				if (Files.notExists(domainDir))
+				{
+					/*
+					 * Staging and final directories are both in domainsRootDir, so on the same filesystem
+					 */
+					Files.move(domainStagingDir, domainDir, StandardCopyOption.ATOMIC_MOVE);
+					isDomainDirCreated = true;
+					claimedSpareDomain = spareDomain;
+				}
+				else
+				{
+					isDomainDirCreated = false;
+					claimedSpareDomain = null;
+				}
+
+				try
+				{
+					addDomainToCacheAfterDirectoryCreated(domainId, domainDir, props, claimedSpareDomain);
+					isSpareDomainUsed = claimedSpareDomain != null;
+				}
+				catch (final IOException | RuntimeException e)
+				{
+					if (isDomainDirCreated)
+					{
+						// rollback
+						FlatFileDAOUtils.deleteDirectory(domainDir, 3);
+						if (newExternalId != null)
+						{
+							domainIDsByExternalId.remove(newExternalId, domainId);
+						}
+					}
+
+					throw e;
+				}
+			}
+		}
+		finally
+		{
+			if (spareDomain != null && spareDomain.pdp != null && !isSpareDomainUsed)
+			{
+				// spare domain's PDP not used by any domain
+				spareDomain.pdp.engine.close();
 			}
 
-			addDomainToCacheAfterDirectoryCreated(domainId, domainDir, props);
+			if (Files.exists(domainStagingDir, LinkOption.NOFOLLOW_LINKS))
+			{
+				FlatFileDAOUtils.deleteDirectory(domainStagingDir, 3);
+			}
 		}
 
 		return domainId;
@@ -2979,91 +6080,145 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			throw DISABLED_OPERATION_EXCEPTION;
 		}
 
-		synchronized (domainsRootDir)
+		/*
+		 * Answered from the in-memory registry: domains created/removed by other means than this DAO are (un)registered by reconcileDomains()
+		 */
+		if (externalId != null)
 		{
-			if (externalId != null)
+			final String domainId = domainIDsByExternalId.get(externalId);
+			return domainId == null ? Collections.emptySet() : Collections.singleton(domainId);
+		}
+
+		return new TreeSet<>(sortedDomainIds);
+	}
+
+	/**
+	 * Get a page of domain identifiers, in lexicographical order, from the in-memory domain registry (no filesystem access)
+	 * 
+	 * @param startAfter
+	 *            domain ID after which the page starts (exclusive), typically the last one of the previous page; null to get the first page
+	 * @param limit
+	 *            max number of domain IDs in the page
+	 * @return domain IDs; if less than {@code limit}, this is the last page
+	 * @throws IllegalArgumentException
+	 *             {@code limit < 1}
+	 */
+	public NavigableSet<String> getDomainIdentifiers(final String startAfter, final int limit) throws IllegalArgumentException
+	{
+		if (this.enablePdpOnly)
+		{
+			throw DISABLED_OPERATION_EXCEPTION;
+		}
+
+		if (limit < 1)
+		{
+			throw new IllegalArgumentException("Invalid limit (" + limit + "): < 1");
+		}
+
+		final NavigableSet<String> page = new TreeSet<>();
+		for (final String domainId : startAfter == null ? sortedDomainIds : sortedDomainIds.tailSet(startAfter, false))
+		{
+			if (page.size() == limit)
+			{
+				break;
+			}
+
+			page.add(domainId);
+		}
+
+		return page;
+	}
+
+	/**
+	 * Get the number of domains in the in-memory domain registry (no filesystem access)
+	 * 
+	 * @return number of domains
+	 */
+	public int getDomainCount()
+	{
+		return domainMap.size();
+	}
+
+	/**
+	 * Reconciles the in-memory domain registry with the domains root directory, i.e. loads the domains whose directory has been created and unloads the domains whose directory has been removed by
+	 * other means than this DAO (e.g. by another instance sharing the same directory). This is done periodically in the background if synchronization is enabled ({@code domainsSyncIntervalSec > 0}),
+	 * and may be called on demand otherwise. Changes inside domain directories are handled by each domain's synchronization.
+	 * 
+	 * @throws IOException
+	 *             error scanning the domains root directory
+	 */
+	public void reconcileDomains() throws IOException
+	{
+		/*
+		 * All changes to a given domain in domainMap are synchronized by the domain's lock stripe (getDomainMapLock(domainId)), so the registry can be updated domain by domain while other threads
+		 * use it.
+		 */
+		final Set<String> unmatchedDomainIds = new HashSet<>(domainMap.keySet());
+		int addedDomainCount = 0;
+		try (final DirectoryStream<Path> dirStream = Files.newDirectoryStream(domainsRootDir))
+		{
+			for (final Path domainDirPath : dirStream)
 			{
-				// externalId not null
-				final String domainId = domainIDsByExternalId.get(externalId);
-				if (domainId == null)
+				// domain folder name is the domain ID
+				final Path lastPathSegment = domainDirPath.getFileName();
+				if (lastPathSegment == null)
 				{
-					return Collections.emptySet();
+					throw new RuntimeException("Invalid Domain folder path '" + domainDirPath + "': no filename");
 				}
 
-				// domainId not null, check if domain is still there in the
-				// repository
-				final Path domainDirPath = this.domainsRootDir.resolve(domainId);
-				if (Files.exists(domainDirPath, LinkOption.NOFOLLOW_LINKS))
+				final String domainId = lastPathSegment.toString();
+				if (domainId.startsWith(RESERVED_FILENAME_PREFIX) || unmatchedDomainIds.remove(domainId))
 				{
-					return Collections.singleton(domainId);
+					continue;
 				}
 
-				// domain directory no longer exists, remove from map and so on
-				removeDomainFromCache(domainId);
-				return Collections.emptySet();
-			}
-
-			// externalId == null
-			/*
-			 * All changes to domainMap are synchronized by 'domainsRootDir'. So we can iterate and change if necessary for synchronizing the domains root directory with the domainMap (Using a
-			 * domainMap is necessary for quick access to domains' PDPs.)
-			 */
-			final Set<String> oldDomainIDs = new HashSet<>(domainMap.keySet());
-			final Set<String> newDomainIDs = new HashSet<>();
-			try (final DirectoryStream<Path> dirStream = Files.newDirectoryStream(domainsRootDir))
-			{
-				for (final Path domainDirPath : dirStream)
+				if (!Files.isDirectory(domainDirPath))
 				{
-					LOGGER.debug("Checking domain in file {}", domainDirPath);
-					if (!Files.isDirectory(domainDirPath))
-					{
-						LOGGER.warn("Ignoring invalid domain file {} (not a directory)", domainDirPath);
-						continue;
-					}
-
-					// domain folder name is the domain ID
-					final Path lastPathSegment = domainDirPath.getFileName();
-					if (lastPathSegment == null)
-					{
-						throw new RuntimeException("Invalid Domain folder path '" + domainDirPath + "': no filename");
-					}
+					LOGGER.warn("Ignoring invalid domain file {} (not a directory)", domainDirPath);
+					continue;
+				}
 
-					final String domainId = lastPathSegment.toString();
-					newDomainIDs.add(domainId);
-					if (oldDomainIDs.remove(domainId))
+				// new domain directory
+				synchronized (getDomainMapLock(domainId))
+				{
+					try
 					{
-						// not new domain, but directory may have changed ->
-						// sync
-						final DOMAIN_DAO_CLIENT domain = domainMap.get(domainId);
-						if (domain != null)
+						if (!domainMap.containsKey(domainId))
 						{
-							domain.getDao().sync();
+							addDomainToCacheAfterDirectoryCreated(domainId, domainDirPath, null, null);
+							addedDomainCount++;
 						}
 					}
-					else
+					catch (final IOException | RuntimeException e)
 					{
-						// new domain directory
-						addDomainToCacheAfterDirectoryCreated(domainId, domainDirPath, null);
+						LOGGER.error("Failed to load domain '{}' from directory '{}'", domainId, domainDirPath, e);
 					}
 				}
 			}
-			catch (final IOException e)
-			{
-				throw new IOException("Failed to scan files in the domains root directory '" + domainsRootDir + "' looking for domain directories", e);
-			}
+		}
+		catch (final IOException e)
+		{
+			throw new IOException("Failed to scan files in the domains root directory '" + domainsRootDir + "' looking for domain directories", e);
+		}
 
-			if (!oldDomainIDs.isEmpty())
+		// domains remaining in cache that don't match directories -> removed
+		int removedDomainCount = 0;
+		for (final String domainId : unmatchedDomainIds)
+		{
+			synchronized (getDomainMapLock(domainId))
 			{
-				// old domains remaining in cache that don't match directories
-				// -> removed
-				// -> remove from cache
-				for (final String domainId : oldDomainIDs)
+				// check again in case the domain has been re-created in the meantime
+				if (domainMap.containsKey(domainId) && Files.notExists(domainsRootDir.resolve(domainId), LinkOption.NOFOLLOW_LINKS))
 				{
 					removeDomainFromCache(domainId);
+					removedDomainCount++;
 				}
 			}
+		}
 
-			return newDomainIDs;
+		if (addedDomainCount > 0 || removedDomainCount > 0)
+		{
+			LOGGER.info("Domains reconciled with the domains root directory '{}': {} domain(s) loaded, {} domain(s) unloaded", domainsRootDir, addedDomainCount, removedDomainCount);
 		}
 	}
 
@@ -3080,29 +6235,17 @@ public final class FlatFileBasedDomainsDao<VERSION_DAO_CLIENT extends PolicyVers
 			throw NULL_DOMAIN_ID_ARG_EXCEPTION;
 		}
 
-		/*
-		 * Synchronized block two avoid that two threads adding the same desynced domain entry to the map
-		 */
-		synchronized (domainsRootDir)
+		if (domainId.startsWith(RESERVED_FILENAME_PREFIX))
 		{
-			final boolean isMatched = domainMap.containsKey(domainId);
-			if (isMatched)
-			{
-				return true;
-			}
+			return false;
+		}
 
-			/*
-			 * check whether domain directory exists (in case it is not synchronized with domain map
-			 */
-			final Path domainDir = this.domainsRootDir.resolve(domainId);
-			if (Files.exists(domainDir))
-			{
-				addDomainToCacheAfterDirectoryCreated(domainId, domainDir, null);
-				return true;
-			}
+		if (domainMap.containsKey(domainId))
+		{
+			return true;
 		}
 
-		return false;
+		return lookUpDomainOnFilesystem(domainId) != null;
 	}
 
 }
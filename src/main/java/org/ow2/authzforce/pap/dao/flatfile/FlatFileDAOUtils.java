@@ -19,17 +19,29 @@
 package org.ow2.authzforce.pap.dao.flatfile;
 
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.PolicySet;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Response;
 import org.ow2.authzforce.core.pdp.api.HashCollections;
-import org.ow2.authzforce.core.pdp.api.XmlUtils.NoXmlnsFilteringParser;
 import org.ow2.authzforce.core.pdp.api.XmlUtils.XmlnsFilteringParser;
 import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
 import org.ow2.authzforce.core.pdp.impl.policy.PolicyVersions;
 import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+import org.ow2.authzforce.xacml.identifiers.XacmlNodeName;
+import org.ow2.authzforce.xacml.identifiers.XacmlVersion;
+import org.xml.sax.InputSource;
 
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -39,6 +51,8 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
 
 /**
  * Utility methods
@@ -50,6 +64,91 @@ public final class FlatFileDAOUtils
 
 	private static final IllegalArgumentException NULL_FILE_ARGUMENT_EXCEPTION = new IllegalArgumentException("Null file arg");
 
+	private static final int POLICY_FILE_READ_BUFFER_SIZE = 64 * 1024;
+
+	private static final QName XACML_POLICYSET_ELEMENT_NAME = new QName(XacmlVersion.V3_0.getNamespace(), XacmlNodeName.POLICYSET.value());
+
+	private static final QName XACML_REQUEST_ELEMENT_NAME = new QName(XacmlVersion.V3_0.getNamespace(), "Request");
+
+	/**
+	 * StAX input factory for XACML documents. DTDs and external entities are disabled.
+	 */
+	private static final XMLInputFactory STAX_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+	static
+	{
+		STAX_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		STAX_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		STAX_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private static final JaxbObjectPool<Unmarshaller> XACML_UNMARSHALLER_POOL = new JaxbObjectPool<>("XACML unmarshaller", Xacml3JaxbHelper::createXacml3Unmarshaller,
+	        JaxbObjectPool.DEFAULT_CAPACITY);
+
+	private static final JaxbObjectPool<Marshaller> XACML_MARSHALLER_POOL = new JaxbObjectPool<>("XACML marshaller", Xacml3JaxbHelper::createXacml3Marshaller, JaxbObjectPool.DEFAULT_CAPACITY);
+
+	/*
+	 * Responses are generated by the PDP, therefore valid, and schema validation would cost far more than the marshalling itself
+	 */
+	private static final JaxbObjectPool<Marshaller> XACML_RESPONSE_MARSHALLER_POOL = new JaxbObjectPool<>("XACML response marshaller", () -> {
+		final Marshaller marshaller = Xacml3JaxbHelper.createXacml3Marshaller();
+		marshaller.setSchema(null);
+		return marshaller;
+	}, JaxbObjectPool.DEFAULT_CAPACITY);
+
+	/**
+	 * Get the pool of XACML unmarshallers used to load policies (if no specific XACML parser is provided), e.g. to monitor it
+	 * 
+	 * @return XACML unmarshaller pool
+	 */
+	public static JaxbObjectPool<Unmarshaller> getXacmlUnmarshallerPool()
+	{
+		return XACML_UNMARSHALLER_POOL;
+	}
+
+	/**
+	 * Get the pool of XACML marshallers used to save policies, e.g. to monitor it
+	 * 
+	 * @return XACML marshaller pool
+	 */
+	public static JaxbObjectPool<Marshaller> getXacmlMarshallerPool()
+	{
+		return XACML_MARSHALLER_POOL;
+	}
+
+	/**
+	 * Get the pool of XACML marshallers (without schema validation) used to write decision responses, e.g. to monitor it
+	 * 
+	 * @return XACML response marshaller pool
+	 */
+	public static JaxbObjectPool<Marshaller> getXacmlResponseMarshallerPool()
+	{
+		return XACML_RESPONSE_MARSHALLER_POOL;
+	}
+
+	/**
+	 * Save policy to file with a pooled XACML marshaller
+	 * 
+	 * @param policy
+	 *            policy
+	 * @param file
+	 *            target file
+	 * @throws JAXBException
+	 *             error marshalling the policy to the file
+	 */
+	static void savePolicy(final PolicySet policy, final File file) throws JAXBException
+	{
+		final Marshaller marshaller = XACML_MARSHALLER_POOL.borrow();
+		try
+		{
+			marshaller.marshal(policy, file);
+		}
+		finally
+		{
+			XACML_MARSHALLER_POOL.release(marshaller);
+		}
+	}
+
 	/**
 	 * Encode bytes with base64url specified by RFC 4648, without padding
 	 * 
@@ -207,17 +306,39 @@ public final class FlatFileDAOUtils
 
 		private final Path source;
 		private final Path target;
+		private final boolean linkFiles;
 
-		private CopyingFileVisitor(final Path source, final Path target)
+		private CopyingFileVisitor(final Path source, final Path target, final boolean linkFiles)
 		{
 			this.source = source;
 			this.target = target;
+			this.linkFiles = linkFiles;
 		}
 
 		@Override
 		public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException
 		{
-			Files.copy(file, target.resolve(source.relativize(file)));
+			final Path targetFile = target.resolve(source.relativize(file));
+			if (linkFiles && attributes.isRegularFile())
+			{
+				try
+				{
+					Files.createLink(targetFile, file);
+					return FileVisitResult.CONTINUE;
+				}
+				catch (final UnsupportedOperationException | FileSystemException e)
+				{
+					/*
+					 * Hard links not supported by the filesystem, or source and target on different filesystems (EXDEV), or not permitted -> fall back to copying
+					 */
+					if (Files.exists(targetFile, LinkOption.NOFOLLOW_LINKS))
+					{
+						throw e;
+					}
+				}
+			}
+
+			Files.copy(file, targetFile);
 			return FileVisitResult.CONTINUE;
 		}
 
@@ -240,14 +361,25 @@ public final class FlatFileDAOUtils
 		}
 	}
 
-	private static final FileVisitor<Path> DELETING_FILE_VISITOR = new SimpleFileVisitor<>()
+	private static final class DeletingFileVisitor extends SimpleFileVisitor<Path>
 	{
+		private final LongConsumer deletedFileSizeConsumer;
+
+		private DeletingFileVisitor(final LongConsumer deletedFileSizeConsumer)
+		{
+			this.deletedFileSizeConsumer = deletedFileSizeConsumer;
+		}
+
 		@Override
 		public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException
 		{
 			if (attrs.isRegularFile())
 			{
 				Files.delete(file);
+				if (deletedFileSizeConsumer != null)
+				{
+					deletedFileSizeConsumer.accept(attrs.size());
+				}
 			}
 
 			return FileVisitResult.CONTINUE;
@@ -265,7 +397,9 @@ public final class FlatFileDAOUtils
 
 			throw exc;
 		}
-	};
+	}
+
+	private static final FileVisitor<Path> DELETING_FILE_VISITOR = new DeletingFileVisitor(null);
 
 	/**
 	 * Copy a directory recursively to another (does not follow links)
@@ -285,7 +419,88 @@ public final class FlatFileDAOUtils
 	 */
 	public static void copyDirectory(final Path source, final Path target, final int maxDepth) throws IOException, IllegalArgumentException
 	{
-		Files.walkFileTree(source, Collections.emptySet(), maxDepth, new CopyingFileVisitor(source, target));
+		Files.walkFileTree(source, Collections.emptySet(), maxDepth, new CopyingFileVisitor(source, target, false));
+	}
+
+	/**
+	 * Same as {@link #copyDirectory(Path, Path, int)} except regular files are hard-linked to the source files instead of copied, whenever the filesystem allows it; else they are copied. Therefore,
+	 * the target files share their content with the source files until replaced. In order to preserve the source files, the target files must never be modified in place, but only replaced, e.g. with
+	 * {@link #writeFileAtomically(Path, FileContentWriter)}.
+	 * 
+	 * @param source
+	 *            source directory
+	 * @param target
+	 *            target directory
+	 * @param maxDepth
+	 *            maximum number of levels of directories to copy. A value of 0 means that only the starting directory is visited.
+	 * @throws IllegalArgumentException
+	 *             if the maxDepth parameter is negative
+	 * @throws IOException
+	 *             file link/copy error
+	 */
+	public static void linkOrCopyDirectory(final Path source, final Path target, final int maxDepth) throws IOException, IllegalArgumentException
+	{
+		Files.walkFileTree(source, Collections.emptySet(), maxDepth, new CopyingFileVisitor(source, target, true));
+	}
+
+	/**
+	 * File content writer
+	 */
+	@FunctionalInterface
+	public interface FileContentWriter
+	{
+		/**
+		 * Write the content to a given file
+		 * 
+		 * @param file
+		 *            file to write to
+		 * @throws IOException
+		 *             error writing to {@code file}
+		 */
+		void writeTo(File file) throws IOException;
+	}
+
+	/**
+	 * Write a file atomically: the content is written to a temporary file in the same directory, then this temporary file is moved atomically to the target path (replacing any existing file). As a
+	 * result, readers never see a partially written file, and the target file is always a new file, which breaks any hard link to the previous file (see
+	 * {@link #linkOrCopyDirectory(Path, Path, int)}).
+	 * 
+	 * @param target
+	 *            target file path
+	 * @param writer
+	 *            writer of the file content
+	 * @throws IOException
+	 *             error writing the temporary file or moving it to {@code target}
+	 */
+	public static void writeFileAtomically(final Path target, final FileContentWriter writer) throws IOException
+	{
+		final Path parentDir = Objects.requireNonNull(target, "Undefined target").toAbsolutePath().getParent();
+		final Path targetFileName = target.getFileName();
+		if (parentDir == null || targetFileName == null)
+		{
+			throw new IllegalArgumentException("Invalid target file (no parent directory or filename, probably root?): " + target);
+		}
+
+		/*
+		 * Not using Files.createTempFile() because it restricts the file permissions to the owner, whereas the target file should get the default ones
+		 */
+		final Path tmpFile = Files.createFile(parentDir.resolve("." + targetFileName + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp"));
+		try
+		{
+			writer.writeTo(tmpFile.toFile());
+			try
+			{
+				Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (final AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(tmpFile);
+		}
 	}
 
 	/**
@@ -307,13 +522,32 @@ public final class FlatFileDAOUtils
 		Files.walkFileTree(dir, Collections.emptySet(), maxDepth, DELETING_FILE_VISITOR);
 	}
 
+	/**
+	 * Same as {@link #deleteDirectory(Path, int)} but notifies a listener after each (regular) file deletion, e.g. to track progress
+	 * 
+	 * @param dir
+	 *            directory
+	 * @param maxDepth
+	 *            maximum number of levels of directories to delete. A value of 0 means that only the starting file is visited.
+	 * @param deletedFileSizeConsumer
+	 *            called with the size (in bytes) of each regular file after it is deleted
+	 * @throws IllegalArgumentException
+	 *             if the maxDepth parameter is negative
+	 * @throws IOException
+	 *             file deletion error
+	 */
+	public static void deleteDirectory(final Path dir, final int maxDepth, final LongConsumer deletedFileSizeConsumer) throws IOException, IllegalArgumentException
+	{
+		Files.walkFileTree(dir, Collections.emptySet(), maxDepth, new DeletingFileVisitor(Objects.requireNonNull(deletedFileSizeConsumer, "Undefined deletedFileSizeConsumer")));
+	}
+
 	/**
 	 * Get/load policy from file
 	 * 
 	 * @param policyFilepath
 	 *            policy file
 	 * @param xacmlParser
-	 *            XACML parser; or null if the default should be used (same as {@link #loadPolicy(Path)})
+	 *            XACML parser; or null if the default should be used (same as {@link #loadPolicy(Path)}), i.e. StAX-based parsing with pooled XACML unmarshaller
 	 * @return JAXB-annotated XACML PolicySet
 	 * @throws IllegalArgumentException
 	 *             if {@code policyFilepath} does not exist or the file content is not a PolicySet
@@ -322,25 +556,33 @@ public final class FlatFileDAOUtils
 	 */
 	public static PolicySet loadPolicy(final Path policyFilepath, final XmlnsFilteringParser xacmlParser) throws IllegalArgumentException, JAXBException
 	{
-		final URL policyURL;
-		try
+		final String policySystemId = Objects.requireNonNull(policyFilepath, "Undefined policyFilepath").toUri().toString();
+		/*
+		 * Read the file as a stream (no URL handling), with a large buffer since policies may be big
+		 */
+		final Object jaxbPolicyOrPolicySetObj;
+		try (final InputStream policyInput = new BufferedInputStream(Files.newInputStream(policyFilepath), POLICY_FILE_READ_BUFFER_SIZE))
 		{
-			policyURL = Objects.requireNonNull(policyFilepath, "Undefined policyFilepath").toUri().toURL();
+			if (xacmlParser == null)
+			{
+				return unmarshalPolicySet(policyInput, policySystemId);
+			}
+
+			final InputSource policyInputSource = new InputSource(policyInput);
+			policyInputSource.setSystemId(policySystemId);
+			jaxbPolicyOrPolicySetObj = xacmlParser.parse(policyInputSource);
 		}
-		catch (final MalformedURLException e)
+		catch (final NoSuchFileException e)
 		{
 			throw new IllegalArgumentException("Failed to locate policy file: " + policyFilepath, e);
 		}
-
-		final XmlnsFilteringParser nonNullXacmlParser = xacmlParser == null ? new NoXmlnsFilteringParser(Xacml3JaxbHelper.createXacml3Unmarshaller()) : xacmlParser;
-		final Object jaxbPolicyOrPolicySetObj;
-		try
+		catch (final IOException e)
 		{
-			jaxbPolicyOrPolicySetObj = nonNullXacmlParser.parse(policyURL);
+			throw new JAXBException("Failed to read Policy(Set) XML document from policy location: " + policySystemId, e);
 		}
 		catch (final JAXBException e)
 		{
-			throw new JAXBException("Failed to unmarshall Policy(Set) XML document from policy location: " + policyURL, e);
+			throw new JAXBException("Failed to unmarshall Policy(Set) XML document from policy location: " + policySystemId, e);
 		}
 
 		/*
@@ -348,14 +590,161 @@ public final class FlatFileDAOUtils
 		 */
 		if (!(jaxbPolicyOrPolicySetObj instanceof PolicySet))
 		{
-			throw new IllegalArgumentException("Unexpected/unsupported element found as root of the XML document at policy location '" + policyURL + "': "
-					+ jaxbPolicyOrPolicySetObj.getClass().getSimpleName());
+			throw new IllegalArgumentException("Unexpected/unsupported element found as root of the XML document at policy location '" + policySystemId + "': "
+					+ (jaxbPolicyOrPolicySetObj == null ? null : jaxbPolicyOrPolicySetObj.getClass().getSimpleName()));
 
 		}
 
 		return (PolicySet) jaxbPolicyOrPolicySetObj;
 	}
 
+	/**
+	 * Unmarshals PolicySet from XML input stream with StAX and a pooled XACML unmarshaller (XML schema validation enabled)
+	 * 
+	 * @param policyInput
+	 *            XML input
+	 * @param policySystemId
+	 *            system ID of the input (for error messages and relative URI resolution)
+	 * @return PolicySet
+	 * @throws IllegalArgumentException
+	 *             if the root element of the XML document is not a XACML 3.0 PolicySet
+	 * @throws JAXBException
+	 *             error parsing/unmarshalling the XML document
+	 */
+	private static PolicySet unmarshalPolicySet(final InputStream policyInput, final String policySystemId) throws IllegalArgumentException, JAXBException
+	{
+		final XMLStreamReader xmlReader;
+		try
+		{
+			xmlReader = STAX_INPUT_FACTORY.createXMLStreamReader(policySystemId, policyInput);
+		}
+		catch (final XMLStreamException e)
+		{
+			throw new JAXBException("Error creating StAX reader", e);
+		}
+
+		try
+		{
+			// move to the root element (skip prolog, comments, etc.)
+			xmlReader.nextTag();
+			if (!XACML_POLICYSET_ELEMENT_NAME.equals(xmlReader.getName()))
+			{
+				throw new IllegalArgumentException("Unexpected/unsupported element found as root of the XML document at policy location '" + policySystemId + "': " + xmlReader.getName());
+			}
+
+			final Unmarshaller unmarshaller = XACML_UNMARSHALLER_POOL.borrow();
+			try
+			{
+				return unmarshaller.unmarshal(xmlReader, PolicySet.class).getValue();
+			}
+			finally
+			{
+				XACML_UNMARSHALLER_POOL.release(unmarshaller);
+			}
+		}
+		catch (final XMLStreamException e)
+		{
+			throw new JAXBException("StAX parsing error", e);
+		}
+		finally
+		{
+			try
+			{
+				xmlReader.close();
+			}
+			catch (final XMLStreamException e)
+			{
+				// the underlying input stream is closed by the caller anyway
+			}
+		}
+	}
+
+	/**
+	 * Unmarshals XACML Request - as received from a client - from XML input stream with StAX and a pooled XACML unmarshaller (XML schema validation enabled)
+	 * 
+	 * @param requestInput
+	 *            XML input (not closed by this method)
+	 * @return Request
+	 * @throws IllegalArgumentException
+	 *             if the root element of the XML document is not a XACML 3.0 Request
+	 * @throws JAXBException
+	 *             error parsing/unmarshalling the XML document
+	 */
+	static Request unmarshalRequest(final InputStream requestInput) throws IllegalArgumentException, JAXBException
+	{
+		final XMLStreamReader xmlReader;
+		try
+		{
+			xmlReader = STAX_INPUT_FACTORY.createXMLStreamReader(requestInput);
+		}
+		catch (final XMLStreamException e)
+		{
+			throw new JAXBException("Error creating StAX reader", e);
+		}
+
+		try
+		{
+			// move to the root element (skip prolog, comments, etc.)
+			xmlReader.nextTag();
+			if (!XACML_REQUEST_ELEMENT_NAME.equals(xmlReader.getName()))
+			{
+				throw new IllegalArgumentException("Unexpected/unsupported element found as root of the XML document (expected: " + XACML_REQUEST_ELEMENT_NAME + "): " + xmlReader.getName());
+			}
+
+			final Unmarshaller unmarshaller = XACML_UNMARSHALLER_POOL.borrow();
+			try
+			{
+				return unmarshaller.unmarshal(xmlReader, Request.class).getValue();
+			}
+			finally
+			{
+				XACML_UNMARSHALLER_POOL.release(unmarshaller);
+			}
+		}
+		catch (final XMLStreamException e)
+		{
+			throw new JAXBException("StAX parsing error", e);
+		}
+		finally
+		{
+			try
+			{
+				xmlReader.close();
+			}
+			catch (final XMLStreamException e)
+			{
+				// the underlying input stream is closed by the caller anyway
+			}
+		}
+	}
+
+	/**
+	 * Marshals XACML Response directly to XML output stream (UTF-8) with a pooled XACML response marshaller
+	 * 
+	 * @param response
+	 *            XACML response
+	 * @param output
+	 *            XML output (flushed but not closed by this method)
+	 * @throws JAXBException
+	 *             error marshalling the XML document
+	 * @throws IOException
+	 *             error flushing the output
+	 */
+	static void marshalResponse(final Response response, final OutputStream output) throws JAXBException, IOException
+	{
+		final Marshaller marshaller = XACML_RESPONSE_MARSHALLER_POOL.borrow();
+		try
+		{
+			marshaller.marshal(response, output);
+		}
+		finally
+		{
+			XACML_RESPONSE_MARSHALLER_POOL.release(marshaller);
+		}
+
+		output.flush();
+	}
+
 	/**
 	 * Get/load policy from file
 	 * 
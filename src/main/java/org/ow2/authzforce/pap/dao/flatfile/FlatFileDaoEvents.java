@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder (JFR) events emitted by the flat-file DAO, to profile domains in production with negligible overhead (events are only created/committed when enabled in the recording, e.g.
+ * {@code jcmd <pid> JFR.start settings=profile}).
+ */
+final class FlatFileDaoEvents
+{
+	private static final String CATEGORY = "AuthzForce";
+	private static final String SUB_CATEGORY = "Flat-file PAP DAO";
+
+	private FlatFileDaoEvents()
+	{
+		// hide constructor
+	}
+
+	/**
+	 * PDP (re)load of a domain. The event duration is the whole reload.
+	 */
+	@Name("org.ow2.authzforce.pap.dao.flatfile.PdpReload")
+	@Label("PDP Reload")
+	@Description("PDP (re)loaded from the domain directory")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	@StackTrace(false)
+	static final class PdpReload extends Event
+	{
+		@Label("Domain ID")
+		String domainId;
+
+		@Label("Trigger")
+		@Description("Cause of the reload, e.g. the DAO operation that changed the PDP configuration or policies, or the change detected on the filesystem by the synchronization")
+		String trigger;
+
+		@Label("Files Parsed")
+		@Description("Number of files parsed to build the PDP: PDP configuration file (if not provided in memory) and applicable policies")
+		int filesParsed;
+
+		@Label("Build Time")
+		@Description("Time to build the new PDP engine, incl. parsing the files")
+		@Timespan(Timespan.NANOSECONDS)
+		long buildTime;
+
+		@Label("Swap Time")
+		@Description("Time to replace the previous PDP engine with the new one, incl. closing the previous one")
+		@Timespan(Timespan.NANOSECONDS)
+		long swapTime;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	/**
+	 * Domain directory-to-memory synchronization tick
+	 */
+	@Name("org.ow2.authzforce.pap.dao.flatfile.DomainSync")
+	@Label("Domain Sync")
+	@Description("Synchronization of a domain (properties, PDP) with the domain directory")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	@StackTrace(false)
+	static final class DomainSync extends Event
+	{
+		@Label("Domain ID")
+		String domainId;
+
+		@Label("Files Checked")
+		@Description("Number of files or directories checked (stat'ed) for changes")
+		int filesChecked;
+
+		@Label("Changes Found")
+		@Description("Number of changes found: domain removed, properties changed, PDP files changed")
+		int changesFound;
+	}
+
+	/**
+	 * Wait for a domain lock held by another thread
+	 */
+	@Name("org.ow2.authzforce.pap.dao.flatfile.DomainLockWait")
+	@Label("Domain Lock Wait")
+	@Description("Thread blocked waiting for a domain lock")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	@Threshold("10 ms")
+	static final class DomainLockWait extends Event
+	{
+		@Label("Domain ID")
+		String domainId;
+
+		@Label("Exclusive")
+		@Description("True for the write lock (PAP changes, PDP reload), false for the read lock")
+		boolean exclusive;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import javax.xml.bind.JAXBException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of pre-configured JAXB (un)marshallers, which are expensive to create (esp. with a Schema attached) but not thread-safe. Instances are created on demand, up to the pool capacity; when
+ * they are all borrowed, borrowers wait until one is released. No thread-local state is used, so this works with any kind of threads (incl. virtual threads).
+ * <p>
+ * The pool is instrumented: number of borrows, of instances created, of borrows that had to wait for an instance to be released and total waiting time.
+ *
+ * @param <T>
+ *            pooled object type, e.g. {@link javax.xml.bind.Marshaller} or {@link javax.xml.bind.Unmarshaller}
+ */
+public final class JaxbObjectPool<T>
+{
+	/**
+	 * Factory of pooled objects
+	 *
+	 * @param <T>
+	 *            pooled object type
+	 */
+	@FunctionalInterface
+	interface Factory<T>
+	{
+		/**
+		 * Creates a new (pre-configured) instance
+		 *
+		 * @return new instance
+		 * @throws JAXBException
+		 *             error creating the instance
+		 */
+		T newInstance() throws JAXBException;
+	}
+
+	/**
+	 * Default pool capacity
+	 */
+	static final int DEFAULT_CAPACITY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private final String name;
+	private final Factory<T> factory;
+	private final int capacity;
+	private final Semaphore permits;
+	private final Queue<T> idleObjects = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder createdCount = new LongAdder();
+	private final LongAdder waitCount = new LongAdder();
+	private final LongAdder waitTimeNanos = new LongAdder();
+
+	JaxbObjectPool(final String name, final Factory<T> factory, final int capacity)
+	{
+		assert name != null && factory != null;
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Invalid JAXB object pool capacity (" + name + "): " + capacity + " (< 1)");
+		}
+
+		this.name = name;
+		this.factory = factory;
+		this.capacity = capacity;
+		this.permits = new Semaphore(capacity);
+	}
+
+	/**
+	 * Borrows an object from the pool, waiting for one to be released if all are borrowed already. The caller must call {@link #release(Object)} when done with it.
+	 *
+	 * @return pooled object
+	 * @throws JAXBException
+	 *             error creating a new instance
+	 */
+	T borrow() throws JAXBException
+	{
+		borrowCount.increment();
+		if (!permits.tryAcquire())
+		{
+			waitCount.increment();
+			final long waitStartTime = System.nanoTime();
+			permits.acquireUninterruptibly();
+			waitTimeNanos.add(System.nanoTime() - waitStartTime);
+		}
+
+		final T idleObject = idleObjects.poll();
+		if (idleObject != null)
+		{
+			return idleObject;
+		}
+
+		try
+		{
+			final T newObject = factory.newInstance();
+			createdCount.increment();
+			return newObject;
+		}
+		catch (final JAXBException | RuntimeException e)
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns an object - previously returned by {@link #borrow()} - to the pool
+	 *
+	 * @param pooledObject
+	 *            object to be returned
+	 */
+	void release(final T pooledObject)
+	{
+		assert pooledObject != null;
+		idleObjects.offer(pooledObject);
+		permits.release();
+	}
+
+	/**
+	 * Get pool name
+	 *
+	 * @return name
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Get pool capacity, i.e. max number of objects borrowed at the same time
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Get the number of objects currently borrowed
+	 *
+	 * @return number of borrowed objects
+	 */
+	public int getBorrowedCount()
+	{
+		return capacity - permits.availablePermits();
+	}
+
+	/**
+	 * Get the total number of borrows
+	 *
+	 * @return number of calls to borrow an object
+	 */
+	public long getBorrowCount()
+	{
+		return borrowCount.sum();
+	}
+
+	/**
+	 * Get the total number of objects created by the pool
+	 *
+	 * @return number of objects created
+	 */
+	public long getCreatedCount()
+	{
+		return createdCount.sum();
+	}
+
+	/**
+	 * Get the number of borrows that had to wait for an object to be released (pool exhausted)
+	 *
+	 * @return number of borrows that waited
+	 */
+	public long getWaitCount()
+	{
+		return waitCount.sum();
+	}
+
+	/**
+	 * Get the total time spent by borrowers waiting for an object to be released
+	 *
+	 * @return total waiting time in nanoseconds
+	 */
+	public long getWaitTimeNanos()
+	{
+		return waitTimeNanos.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "JaxbObjectPool[" + name + "]: capacity=" + capacity + ", borrowed=" + getBorrowedCount() + ", borrows=" + getBorrowCount() + ", created=" + getCreatedCount() + ", waits="
+		        + getWaitCount() + ", waitTimeNanos=" + getWaitTimeNanos();
+	}
+}
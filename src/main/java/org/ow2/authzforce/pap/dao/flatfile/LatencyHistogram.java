@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (as in HdrHistogram): every power-of-two range of values is divided into {@value #SUB_BUCKET_COUNT} linear sub-buckets, so that the relative error
+ * on recorded values (and percentiles) is at most 1/{@value #SUB_BUCKET_COUNT} (6.25%), with a fixed memory footprint (a few KB) whatever the number of values. Latencies are recorded with a
+ * resolution of 1024 ns (about 1 µs), up to about 73 minutes (longer latencies are counted in the last bucket).
+ * <p>
+ * Recording a value is a couple of atomic additions, without any allocation, so the histogram may be left enabled in production.
+ */
+public final class LatencyHistogram
+{
+	private static final int UNIT_SHIFT = 10;
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 32;
+	private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+	private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	private static int getBucketIndex(final long value)
+	{
+		assert value >= 0 && value <= MAX_VALUE;
+		if (value < SUB_BUCKET_COUNT)
+		{
+			return (int) value;
+		}
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucketIndex = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucketIndex;
+	}
+
+	private static long getBucketUpperBound(final int bucketIndex)
+	{
+		if (bucketIndex < SUB_BUCKET_COUNT)
+		{
+			return bucketIndex;
+		}
+
+		final int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+		final long lowerBound = (long) (SUB_BUCKET_COUNT | (bucketIndex & (SUB_BUCKET_COUNT - 1))) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	/**
+	 * Records a latency
+	 * 
+	 * @param latencyNanos
+	 *            latency in nanoseconds (negative values are recorded as 0)
+	 */
+	public void record(final long latencyNanos)
+	{
+		final long nanos = Math.max(0, latencyNanos);
+		bucketCounts.incrementAndGet(getBucketIndex(Math.min(nanos >>> UNIT_SHIFT, MAX_VALUE)));
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * Get the number of recorded latencies
+	 * 
+	 * @return count
+	 */
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * Get the highest recorded latency (exact value)
+	 * 
+	 * @return max latency in nanoseconds, 0 if none recorded
+	 */
+	public long getMaxNanos()
+	{
+		return maxNanos.get();
+	}
+
+	/**
+	 * Get the mean of recorded latencies (exact value)
+	 * 
+	 * @return mean latency in nanoseconds, 0 if none recorded
+	 */
+	public double getMeanNanos()
+	{
+		final long n = count.sum();
+		return n == 0 ? 0 : (double) totalNanos.sum() / n;
+	}
+
+	/**
+	 * Get the latency at a given percentile, i.e. the upper bound of the bucket where it falls (never greater than {@link #getMaxNanos()}).
+	 * 
+	 * @param percentile
+	 *            percentile in [0, 100], e.g. 99.9
+	 * @return latency in nanoseconds, 0 if none recorded
+	 * @throws IllegalArgumentException
+	 *             percentile out of range
+	 */
+	public long getValueAtPercentile(final double percentile) throws IllegalArgumentException
+	{
+		if (!(percentile >= 0 && percentile <= 100))
+		{
+			throw new IllegalArgumentException("Invalid percentile: " + percentile + " (not in [0, 100])");
+		}
+
+		/*
+		 * Buckets may be updated concurrently, so the target rank is computed from the sum of buckets actually read
+		 */
+		final long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			counts[i] = bucketCounts.get(i);
+			total += counts[i];
+		}
+
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long cumulativeCount = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			cumulativeCount += counts[i];
+			if (cumulativeCount >= rank)
+			{
+				return Math.min(((getBucketUpperBound(i) + 1) << UNIT_SHIFT) - 1, getMaxNanos());
+			}
+		}
+
+		return getMaxNanos();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LatencyHistogram: count=" + getCount() + ", meanNanos=" + (long) getMeanNanos() + ", p50Nanos=" + getValueAtPercentile(50) + ", p99Nanos=" + getValueAtPercentile(99) + ", p999Nanos="
+		        + getValueAtPercentile(99.9) + ", maxNanos=" + getMaxNanos();
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012-2021 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * AuthzForce CE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AuthzForce CE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AuthzForce CE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ow2.authzforce.pap.dao.flatfile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+
+/**
+ * Policy (PolicySet) version document as stored in the policy repository (raw XML bytes), e.g. to be sent as is to a client without any XML (un)marshalling. The file is opened when this object is
+ * created, so the content remains consistent with the metadata (size, last modification time, ETag) even if the policy version is removed afterwards (on most filesystems). Must be closed after use.
+ */
+public final class RawPolicyVersion implements Closeable
+{
+	private final String policyId;
+	private final PolicyVersion version;
+	private final Path file;
+	private final FileChannel channel;
+	private final long size;
+	private final long lastModifiedTime;
+	private final String eTag;
+
+	RawPolicyVersion(final String policyId, final PolicyVersion version, final Path file, final FileChannel channel, final BasicFileAttributes fileAttributes)
+	{
+		assert policyId != null && version != null && file != null && channel != null && fileAttributes != null;
+		this.policyId = policyId;
+		this.version = version;
+		this.file = file;
+		this.channel = channel;
+		this.size = fileAttributes.size();
+		this.lastModifiedTime = fileAttributes.lastModifiedTime().toMillis();
+		/*
+		 * Policy files are never modified in place, but replaced (new file), so size and last modification time are enough to tell two versions of the file apart (same approach as most HTTP
+		 * servers)
+		 */
+		this.eTag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedTime) + "\"";
+	}
+
+	/**
+	 * Get PolicySet ID
+	 *
+	 * @return policy ID
+	 */
+	public String getPolicyId()
+	{
+		return policyId;
+	}
+
+	/**
+	 * Get PolicySet version
+	 *
+	 * @return version
+	 */
+	public PolicyVersion getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Get policy version file
+	 *
+	 * @return path to the file
+	 */
+	public Path getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Get channel to read the raw content (XML document). The channel is positioned at the beginning of the file initially; {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+	 * may be used to send the content without copying it to the Java heap.
+	 *
+	 * @return open read-only channel to the content, closed by {@link #close()}
+	 */
+	public FileChannel getChannel()
+	{
+		return channel;
+	}
+
+	/**
+	 * Get content size
+	 *
+	 * @return size in bytes
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Get last modification time of the policy version file
+	 *
+	 * @return last modification time in milliseconds since the epoch
+	 */
+	public long getLastModifiedTime()
+	{
+		return lastModifiedTime;
+	}
+
+	/**
+	 * Get (strong) entity tag derived from the file, e.g. to be used as HTTP ETag
+	 *
+	 * @return ETag, including the double quotes
+	 */
+	public String getETag()
+	{
+		return eTag;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}